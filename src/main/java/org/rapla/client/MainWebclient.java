@@ -19,6 +19,8 @@ import org.rapla.framework.Disposable;
 import org.rapla.framework.StartupEnvironment;
 import org.rapla.logger.Logger;
 import org.rapla.logger.RaplaBootstrapLogger;
+import org.rapla.rest.client.HTTPJsonConnector;
+import org.rapla.rest.client.swing.JavaClientServerConnector;
 
 import java.net.URL;
 import java.net.URLDecoder;
@@ -38,6 +40,8 @@ public class MainWebclient
         env.setStartupMode( mode );
         env.setDownloadURL(downloadURL );
         env.setBootstrapLogger( getLogger() );
+        // the webstart and applet clients request compressed responses, the standalone client uses its own in process connector
+        JavaClientServerConnector.setJsonRemoteConnector( new HTTPJsonConnector());
     }
 
     public String getStartupUser() 
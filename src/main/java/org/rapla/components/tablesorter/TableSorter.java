@@ -119,6 +119,8 @@ public class TableSorter extends AbstractTableModel {
 
     private Row[] viewToModel;
     private int[] modelToView;
+    // the values of the sorting columns for each model row, kept with the sort order so they are not requested again for painting
+    private Object[][] sortKeys;
 
     private JTableHeader tableHeader;
     private MouseListener mouseListener;
@@ -145,6 +147,7 @@ public class TableSorter extends AbstractTableModel {
     private void clearSortingState() {
         viewToModel = null;
         modelToView = null;
+        sortKeys = null;
     }
 
     public TableModel getTableModel() {
@@ -270,6 +273,16 @@ public class TableSorter extends AbstractTableModel {
             }
 
             if (isSorting()) {
+                // each value is requested once from the model and not for every comparison
+                sortKeys = new Object[sortingColumns.size()][];
+                for (int i = 0; i < sortKeys.length; i++) {
+                    int column = sortingColumns.get(i).column;
+                    Object[] keys = new Object[tableModelRowCount];
+                    for (int row = 0; row < tableModelRowCount; row++) {
+                        keys[row] = tableModel.getValueAt(row, column);
+                    }
+                    sortKeys[i] = keys;
+                }
                 Arrays.sort(viewToModel);
             }
         }
@@ -314,7 +327,15 @@ public class TableSorter extends AbstractTableModel {
     }
 
     public Object getValueAt(int row, int column) {
-        return tableModel.getValueAt(modelIndex(row), column);
+        int modelIndex = modelIndex(row);
+        if (sortKeys != null) {
+            for (int i = 0; i < sortKeys.length; i++) {
+                if (sortingColumns.get(i).column == column) {
+                    return sortKeys[i][modelIndex];
+                }
+            }
+        }
+        return tableModel.getValueAt(modelIndex, column);
     }
 
     public void setValueAt(Object aValue, int row, int column) {
@@ -335,10 +356,11 @@ public class TableSorter extends AbstractTableModel {
             int row1 = modelIndex;
             int row2 = ((Row) o).modelIndex;
 
-            for (Directive directive:sortingColumns) {
+            for (int i = 0; i < sortingColumns.size(); i++) {
+                Directive directive = sortingColumns.get(i);
                 int column = directive.column;
-                Object o1 = tableModel.getValueAt(row1, column);
-                Object o2 = tableModel.getValueAt(row2, column);
+                Object o1 = sortKeys != null ? sortKeys[i][row1] : tableModel.getValueAt(row1, column);
+                Object o2 = sortKeys != null ? sortKeys[i][row2] : tableModel.getValueAt(row2, column);
 
                 int comparison = 0;
                 // Define null less than everything, except null.
@@ -30,6 +30,7 @@ import org.rapla.entities.internal.ModifiableTimestamp;
 import org.rapla.entities.storage.CannotExistWithoutTypeException;
 import org.rapla.entities.storage.DynamicTypeDependant;
 import org.rapla.entities.storage.EntityResolver;
+import org.rapla.entities.storage.IdPool;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.entities.storage.internal.SimpleEntity;
 
@@ -80,6 +81,20 @@ public final class AllocatableImpl extends SimpleEntity implements Allocatable,D
         }
     }
 
+    @Override
+    public void shareIds(IdPool pool)
+    {
+        super.shareIds(pool);
+        if (classification != null)
+        {
+            classification.shareIds(pool);
+        }
+        for (PermissionImpl p : permissions)
+        {
+            p.shareIds(pool);
+        }
+    }
+
     public void setReadOnly() {
         super.setReadOnly( );
         classification.setReadOnly( );
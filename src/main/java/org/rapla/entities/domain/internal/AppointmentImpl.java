@@ -55,6 +55,8 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
     }
 
     transient ReservationImpl parent;
+    // lazily expanded occurrences of the repeating, dropped when the appointment or its repeating changes
+    transient private volatile AppointmentOccurrences occurrences;
     
     
     public AppointmentImpl() {
@@ -108,6 +110,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         checkWritable();
         this.start = start;
         this.end = end;
+        invalidateOccurrences();
         if ( isWholeDaysSet)
         {
             if (start.getTime() != DateTools.cutDate(start.getTime()) || end.getTime() != DateTools.cutDate(end.getTime()))
@@ -162,6 +165,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
             }
         }
         isWholeDaysSet  = enable;
+        invalidateOccurrences();
     }
 
     public int compareTo(Appointment a2) {
@@ -234,6 +238,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
                 this.repeating = null;
             }
         }
+        invalidateOccurrences();
     }
 
     public boolean isRepeatingEnabled() {
@@ -360,6 +365,22 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
     }
     
 
+    /** drops the cached occurrences. Must be called on every change of the start, end or the repeating.*/
+    void invalidateOccurrences() {
+        occurrences = null;
+    }
+
+    private AppointmentOccurrences getOccurrences(RepeatingImpl repeating) {
+        AppointmentOccurrences result = occurrences;
+        if ( result == null || !result.isOf( repeating))
+        {
+            // two threads could create the occurrences at the same time, but both stores would contain the same blocks
+            result = new AppointmentOccurrences( this, repeating);
+            occurrences = result;
+        }
+        return result;
+    }
+
     /* returns true if there is at least one block in an array. If the passed blocks array is not null it will contain all blocks
      * that overlap the start,end period after a call.*/
     private boolean processBlocks(long start,long end,Collection<AppointmentBlock> blocks, boolean excludeExceptions) {
@@ -385,6 +406,12 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
             return false;
         }
 
+        Boolean cached = getOccurrences( repeating).processBlocks( c1, c2, blocks, excludeExceptions);
+        if ( cached != null)
+        {
+            return cached;
+        }
+        // the period is not covered by the cached occurrences, so we expand the blocks without the cache
         DD=DE?BUG: print("s = appointmentstart, e = appointmentend, c1 = intervalstart c2 = intervalend");
         DD=DE?BUG: print("s:" + n(s) + " e:" + n(e) + " c2:" + n(c2) + " c1:" + n(c1));
         if (s <c2 && e>c1  && (!repeating.isException(s) || !excludeExceptions)) {
@@ -777,6 +804,7 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         if (dest.repeating != null)
             dest.repeating.setAppointment(dest);
         dest.parent = source.parent;
+        dest.invalidateOccurrences();
     }
 
     
@@ -848,6 +876,18 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
 		
 		boolean excludeExceptions = true;
 		SortedSet<Appointment> appointmentsToTest = AppointmentImpl.getAppointments(appointmentSet, null, start, end, excludeExceptions);
+		return filterConflictingAppointments(appointmentsToTest, appointment, ignoreList, onlyFirstConflictingAppointment);
+	}
+
+	/** returns the appointments of the passed collection that conflict with the appointment. The collection must already
+	 * contain all appointments that overlap the period of the appointment, e.g. a query result of an appointment index.*/
+	public static Set<Appointment> filterConflictingAppointments(Collection<Appointment> appointmentsToTest, Appointment appointment, Collection<Reservation> ignoreList, boolean onlyFirstConflictingAppointment) {
+		Set<Appointment> conflictingAppointments = new HashSet<>();
+		// Templates don't cause conflicts
+		if ( RaplaComponent.isTemplate( appointment))
+		{
+			return conflictingAppointments;
+		}
 		for ( Appointment overlappingAppointment: appointmentsToTest)
 		{
 		    Reservation r1 = appointment.getReservation();
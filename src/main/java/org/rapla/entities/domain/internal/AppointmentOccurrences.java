@@ -0,0 +1,209 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.entities.domain.internal;
+
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.AppointmentBlock;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Cached occurrences of a repeating appointment, stored as primitive start and end arrays.
+ * <p>
+ * The occurrences are expanded lazily up to the end of the latest requested period, so a repeating that is only shown for
+ * the current week is not expanded until its end. The expansion stops after {@link #MAX_OCCURRENCES}, periods behind that
+ * are not covered and must be calculated by the caller without the cache.
+ * <p>
+ * The store belongs to one state of the appointment and must be dropped by the appointment if it or its repeating changes.
+ * Read only appointments are shared between threads, so the expanded arrays are published as immutable snapshots and only
+ * the expansion itself is synchronized.
+ */
+final class AppointmentOccurrences
+{
+    static final int MAX_OCCURRENCES = 4096;
+
+    private static final class Snapshot
+    {
+        final long[] starts;
+        final long[] ends;
+        final boolean[] exceptions;
+        // number of valid entries in the arrays. Entries behind count can be written by a later expansion
+        final int count;
+        // the start of the next occurrence that is not expanded yet
+        final long nextPos;
+        // true if all occurrences are expanded
+        final boolean complete;
+
+        Snapshot(long[] starts, long[] ends, boolean[] exceptions, int count, long nextPos, boolean complete)
+        {
+            this.starts = starts;
+            this.ends = ends;
+            this.exceptions = exceptions;
+            this.count = count;
+            this.nextPos = nextPos;
+            this.complete = complete;
+        }
+
+        boolean covers(long end)
+        {
+            return complete || nextPos > end;
+        }
+    }
+
+    private final AppointmentImpl appointment;
+    private final RepeatingImpl repeating;
+    private final long blockLength;
+    private final long maxEnding;
+    private final boolean daily;
+    private volatile Snapshot snapshot;
+
+    AppointmentOccurrences(AppointmentImpl appointment, RepeatingImpl repeating)
+    {
+        this.appointment = appointment;
+        this.repeating = repeating;
+        final long s = appointment.getStart().getTime();
+        final long e = appointment.getEnd().getTime();
+        this.blockLength = Math.max(0, e - s);
+        final int maxNumber = repeating.getNumber();
+        this.maxEnding = maxNumber >= 0 ? repeating.getEnd().getTime() : Long.MAX_VALUE;
+        this.daily = repeating.isDaily();
+        final int capacity = 16;
+        final long[] starts = new long[capacity];
+        final long[] ends = new long[capacity];
+        final boolean[] exceptions = new boolean[capacity];
+        // the first occurrence is always the appointment itself
+        starts[0] = s;
+        ends[0] = e;
+        exceptions[0] = repeating.isException(s);
+        snapshot = new Snapshot(starts, ends, exceptions, 1, s + repeating.getIntervalLength(s), false);
+    }
+
+    boolean isOf(RepeatingImpl repeating)
+    {
+        return this.repeating == repeating;
+    }
+
+    /**
+     * Adds all occurrences that overlap the period to the blocks collection. If blocks is null only checks if there is at least one.
+     * Follows the same rules as the expansion in {@link AppointmentImpl#createBlocks(java.util.Date, java.util.Date, Collection, boolean)}
+     * @return TRUE if blocks is null and an overlapping occurrence was found, FALSE otherwise and null if the period is not covered by the cache
+     */
+    Boolean processBlocks(long c1, long c2, Collection<AppointmentBlock> blocks, boolean excludeExceptions)
+    {
+        Snapshot current = snapshot;
+        if (!current.covers(c2))
+        {
+            current = expand(c2);
+            if (!current.covers(c2))
+            {
+                return null;
+            }
+        }
+        // daily repeatings don't create an occurrence on the end date, if the period ends at midnight
+        final boolean excludeEnding = daily && c2 == DateTools.cutDate(c2);
+        final long[] starts = current.starts;
+        final long[] ends = current.ends;
+        final boolean[] exceptions = current.exceptions;
+        final int count = current.count;
+        for (int i = firstEndingAfter(ends, count, c1); i < count; i++)
+        {
+            final long start = starts[i];
+            if (start >= c2)
+            {
+                break;
+            }
+            if (i > 0 && excludeEnding && start >= maxEnding)
+            {
+                continue;
+            }
+            final boolean isException = exceptions[i];
+            if (isException && excludeExceptions)
+            {
+                continue;
+            }
+            if (blocks == null)
+            {
+                return Boolean.TRUE;
+            }
+            blocks.add(new AppointmentBlock(start, ends[i], appointment, isException));
+        }
+        return Boolean.FALSE;
+    }
+
+    /** the ends are ascending, so we can search the first occurrence that ends after c1 */
+    private static int firstEndingAfter(long[] ends, int count, long c1)
+    {
+        int low = 0;
+        int high = count;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (ends[middle] > c1)
+            {
+                high = middle;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private synchronized Snapshot expand(long horizon)
+    {
+        final Snapshot current = snapshot;
+        if (current.covers(horizon) || current.count >= MAX_OCCURRENCES)
+        {
+            return current;
+        }
+        long[] starts = current.starts;
+        long[] ends = current.ends;
+        boolean[] exceptions = current.exceptions;
+        int count = current.count;
+        long pos = current.nextPos;
+        boolean complete = false;
+        while (pos <= horizon)
+        {
+            if (pos > maxEnding)
+            {
+                complete = true;
+                break;
+            }
+            if (count >= MAX_OCCURRENCES)
+            {
+                break;
+            }
+            if (count == starts.length)
+            {
+                final int newLength = Math.min(MAX_OCCURRENCES, count * 2);
+                starts = Arrays.copyOf(starts, newLength);
+                ends = Arrays.copyOf(ends, newLength);
+                exceptions = Arrays.copyOf(exceptions, newLength);
+            }
+            starts[count] = pos;
+            ends[count] = pos + blockLength;
+            exceptions[count] = repeating.isException(pos);
+            count++;
+            pos += repeating.getIntervalLength(pos);
+        }
+        if (pos > maxEnding)
+        {
+            complete = true;
+        }
+        final Snapshot expanded = new Snapshot(starts, ends, exceptions, count, pos, complete);
+        snapshot = expanded;
+        return expanded;
+    }
+}
@@ -100,6 +100,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         {
             throw new UnsupportedOperationException(" repeatingType " + repeatingType + " not supported");
         }
+        changed();
     }
 
     public RepeatingType getType() {
@@ -111,6 +112,14 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         this.appointment = appointment;
     }
 
+    /** drops the cached occurrences of the appointment */
+    private void changed() {
+        if ( appointment instanceof AppointmentImpl)
+        {
+            ((AppointmentImpl) appointment).invalidateOccurrences();
+        }
+    }
+
     public void setReadOnly() {
         this.readOnly = true;
     }
@@ -133,6 +142,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         if (interval<1)
             interval = 1;
         this.interval = interval;
+        changed();
     }
 
     public int getInterval() {
@@ -209,6 +219,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         {
             this.weekdays = null;
         }
+        changed();
     }
 
     public void setEnd(Date end) {
@@ -216,6 +227,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         isFixedNumber = false;
         number = -1;
         this.end = end;
+        changed();
     }
 
     transient Date endTime;
@@ -279,7 +291,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             this.number = -1;
             setEnd(null);
         }
-
+        changed();
     }
 
     public boolean isException(long time) {
@@ -344,6 +356,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             exceptions = new TreeSet<>();
         exceptions.add(DateTools.cutDate(date));
         arrayUpToDate = false;
+        changed();
     }
 
     public void addExceptions(TimeInterval interval) {
@@ -359,6 +372,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
             exceptions.add(new Date(l));
         }
         arrayUpToDate = false;
+        changed();
     }
 
     public void removeException(Date date) {
@@ -373,6 +387,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         if (exceptions.size()==0)
             exceptions = null;
         arrayUpToDate = false;
+        changed();
     }
 
     public void clearExceptions() {
@@ -381,6 +396,7 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         exceptions.clear();
         exceptions = null;
         arrayUpToDate = false;
+        changed();
     }
 
     public String toString() {
@@ -466,6 +482,8 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
 		dest.setType(repeating.getType());
     	RepeatingImpl source = (RepeatingImpl)repeating;
 		copy( source, dest);
+		arrayUpToDate = false;
+		changed();
     }
 
     private static Date[] DATE_ARRAY = new Date[0];
@@ -40,6 +40,7 @@ import org.rapla.entities.internal.ModifiableTimestamp;
 import org.rapla.entities.storage.CannotExistWithoutTypeException;
 import org.rapla.entities.storage.DynamicTypeDependant;
 import org.rapla.entities.storage.EntityResolver;
+import org.rapla.entities.storage.IdPool;
 import org.rapla.entities.storage.ParentEntity;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.entities.storage.UnresolvableReferenceExcpetion;
@@ -122,6 +123,22 @@ public final class ReservationImpl extends SimpleEntity implements Reservation,
              p.setResolver( resolver);
         }
     }
+
+    @Override
+    public void shareIds(IdPool pool)
+    {
+        super.shareIds(pool);
+        if (classification != null)
+        {
+            classification.shareIds(pool);
+        }
+        for (PermissionImpl p : permissions)
+        {
+            p.shareIds(pool);
+        }
+        // the appointments are shared when they are put into the cache
+        shareIds(pool, restrictions);
+    }
     
     public Collection<Appointment> getSortedAppointments()
     {
@@ -16,4 +16,11 @@ public interface PermissionExtension
     boolean hasAccess(Entity entity, User user, AccessLevel accessLevel, Date start, Date end, Date today, boolean checkOnlyToday);
 
     boolean hasAccess(Classification classification, Attribute attribute, User user, AccessLevel edit);
+
+    /** return true if the result of hasAccess for an entity without a time range only depends on the entity and the id, the admin flag and the groups of the user.
+     * Then the results can be cached and shared between users with the same groups.*/
+    default boolean isGroupBased()
+    {
+        return false;
+    }
 }
\ No newline at end of file
@@ -129,4 +129,10 @@ public class RaplaDefaultPermissionImpl implements PermissionExtension
     {
         return true;
     }
+
+    @Override
+    public boolean isGroupBased()
+    {
+        return true;
+    }
 }
@@ -28,7 +28,6 @@ import org.rapla.entities.storage.EntityResolver;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.entities.storage.UnresolvableReferenceExcpetion;
 
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -50,6 +49,7 @@ public final class ClassificationFilterImpl
     transient boolean arrayUpToDate = false;
     transient ClassificationFilterRuleImpl[] rulesArray;
     transient EntityResolver resolver;
+    transient volatile CompiledClassificationFilter compiled;
     ClassificationFilterImpl() {
 	}
     
@@ -59,6 +59,7 @@ public final class ClassificationFilterImpl
 
     public void setResolver( EntityResolver resolver)  {
         this.resolver = resolver;
+        compiled = null;
         for (Iterator<ClassificationFilterRuleImpl> it=list.iterator();it.hasNext();)
         {
              it.next().setResolver( resolver );
@@ -134,6 +135,7 @@ public final class ClassificationFilterImpl
         else
             list.add(index, rule);
         arrayUpToDate = false;
+        compiled = null;
     }
 
     
@@ -183,12 +185,14 @@ public final class ClassificationFilterImpl
         checkWritable();
         list.clear();
         arrayUpToDate = false;
+        compiled = null;
     }
 
     public void removeRule(int index) {
         checkWritable();
         list.remove(index);
         arrayUpToDate = false;
+        compiled = null;
         //System.out.println("Rule " + index + " for '" + dynamicType + "' removed.");
     }
 
@@ -200,39 +204,19 @@ public final class ClassificationFilterImpl
     }
 
     public boolean matches(Classification classification) {
-        if (!getType().equals(classification.getType()))
-            return false;
-        ClassificationFilterRuleImpl[] rules = getRules();
-        for (int i=0;i<rules.length;i++) {
-            ClassificationFilterRuleImpl rule = rules[i];
-			Attribute attribute = rule.getAttribute();
-			if ( attribute != null)
-			{
-				Collection<Object> values = classification.getValues(attribute);
-				if ( values.size() == 0)
-				{
-			        if (!rule.matches( null))
-			        {
-			            return false;
-			        }
-		                    
-				}
-				else
-				{
-    				boolean matchesOne= false;
-    				for (Object value: values)
-    				{
-    					if (rule.matches( value))
-    						matchesOne = true;
-    				}
-    				if ( !matchesOne )
-    				{
-    					return false;
-    				}
-				}
-			}
+        return getCompiled().matches(classification);
+    }
+
+    /** the rules are compiled again when they are changed or when the type is replaced by a newer version */
+    CompiledClassificationFilter getCompiled() {
+        DynamicType type = getType();
+        CompiledClassificationFilter compiled = this.compiled;
+        if (compiled == null || !compiled.isCompiledFor(type))
+        {
+            compiled = new CompiledClassificationFilter(type, getRules());
+            this.compiled = compiled;
         }
-        return true;
+        return compiled;
     }
 
     boolean hasType(DynamicType type) {
@@ -292,6 +276,7 @@ public final class ClassificationFilterImpl
             }
         }
         arrayUpToDate = false;
+        compiled = null;
     }
 
     public void commitRemove(DynamicType type) throws CannotExistWithoutTypeException 
@@ -343,6 +328,7 @@ public final class ClassificationFilterImpl
         {
             classificationFilterRuleImpl.replace(origId, newId);
         }
+        compiled = null;
     }
     
 }
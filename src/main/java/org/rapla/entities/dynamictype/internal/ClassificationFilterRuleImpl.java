@@ -260,146 +260,6 @@ public final class ClassificationFilterRuleImpl extends ReferenceHandler
 
     }
     
-    boolean matches(Object value) {
-        //String[] ruleOperators = getOperators();
-		Attribute attribute = getAttribute();
-        for (int i=0;i<operators.length;i++) {
-        	String operator = operators[i];
-            if (matches(attribute,operator,i,value))
-                return true;
-        }
-        return false;
-    }
-    
-    private boolean matches(Attribute attribute,String operator,int index,Object value) {
-        AttributeType type = attribute.getType();
-        Object ruleValue = getValue(attribute, index);
-        if (type == AttributeType.CATEGORY)
-        {
-            Category category = (Category) ruleValue;
-            if (category == null)
-            {
-                return (value == null);
-            }
-            if ( operator.equals("=")  ) 
-            {
-                return value != null && category.isIdentical((Category)value);
-            } 
-            else if ( operator.equals("is") )
-            {
-                return value != null && (category.isIdentical((Category)value)
-                        || category.isAncestorOf((Category)value));
-            }
-        }
-        else if (type == AttributeType.ALLOCATABLE)
-        {
-        	Allocatable allocatable = (Allocatable) ruleValue;
-            if (allocatable == null)
-            {
-                return (value == null);
-            }
-            if ( operator.equals("=")  ) 
-            {
-                return value != null && allocatable.isIdentical((Allocatable)value);
-            } 
-            else if ( operator.equals("is") )
-            {
-                return value != null && (allocatable.isIdentical((Allocatable)value) );
-                   //     || category.isAncestorOf((Category)value));
-            }
-        }
-        else if (type == AttributeType.STRING)
-        {
-            if (ruleValue == null)
-            {
-                return (value == null);
-            }
-            if ( operator.equals("is") || operator.equals("=")) 
-            {
-                return  value != null && value.equals( ruleValue );
-            } 
-            else if ( operator.equals("contains") )
-            {
-                String string = ((String)ruleValue).toLowerCase();
-                if (string == null)
-                    return true;
-                string = string.trim();
-                if (value == null)
-                    return string.length() == 0;
-                return (((String) value).toLowerCase().contains(string));
-            }
-            else if ( operator.equals("starts") )
-            {
-                String string = ((String)ruleValue).toLowerCase();
-                if (string == null)
-                    return true;
-                string = string.trim();
-                if (value == null)
-                    return string.length() == 0;
-                return (((String)value).toLowerCase().startsWith(string));
-            }
-        }
-        else if (type ==  AttributeType.BOOLEAN)
-        {
-            Boolean boolean1 = (Boolean)ruleValue;
-            Boolean boolean2 = (Boolean)value;
-            if (boolean1 == null)
-            {
-                return (boolean2 == null || boolean2.booleanValue());
-            }
-            if (boolean2 == null)
-            {
-                return !boolean1.booleanValue();
-            }
-            return (boolean1.equals(boolean2));
-        }
-        else if (type == AttributeType.INT || type ==AttributeType.DATE)
-        {
-            if(ruleValue == null) {
-                if (operator.equals("<>"))
-                    return value != null;
-                else if (operator.equals("="))
-                    return value == null;
-                else
-                return false;
-            }
-
-            if(value == null) 
-                return false;
-            
-            long long1 = type == AttributeType.INT ? ((Long) value).longValue()     : ((Date) value).getTime();
-            long long2 = type == AttributeType.INT ? ((Long) ruleValue).longValue() : ((Date) ruleValue).getTime();
-
-            if (operator.equals("<")) 
-            {
-                return long1 < long2;
-            }
-            else if (operator.equals("=")) 
-            {
-                return long1 ==  long2;
-            }
-            else if (operator.equals(">")) 
-            {
-                return long1 >  long2;
-            }
-            else if (operator.equals(">=")) 
-            {
-                return long1 >=  long2;
-            }
-            else if (operator.equals("<=")) 
-            {
-                return long1 >=  long2;
-            }
-            else if (operator.equals("<>")) 
-            {
-                return long1 !=  long2;
-            }
-        }
-        
-        return false;
-    }
-
-   
 	public String toString()
     {
     	StringBuilder buf = new StringBuilder();
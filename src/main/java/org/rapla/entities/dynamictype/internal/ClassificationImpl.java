@@ -26,8 +26,10 @@ import org.rapla.entities.storage.CannotExistWithoutTypeException;
 import org.rapla.entities.storage.DynamicTypeDependant;
 import org.rapla.entities.storage.EntityReferencer;
 import org.rapla.entities.storage.EntityResolver;
+import org.rapla.entities.storage.IdPool;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.entities.storage.UnresolvableReferenceExcpetion;
+import org.rapla.entities.storage.internal.ReferenceHandler;
 import org.rapla.framework.RaplaException;
 
 import java.util.ArrayList;
@@ -42,6 +44,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 
 /** Use the method <code>newClassification()</code> of class <code>DynamicType</code> to
@@ -58,7 +61,8 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 	private Map<String,List<String>> data = new LinkedHashMap<>();
 	private transient boolean readOnly = false;
 
-	private transient TextCache name;
+	/** the formatted names for each annotation and locale. The array is replaced on each change, so read only classifications can be shared between threads */
+	private transient volatile CachedName[] names;
 	private transient EntityResolver resolver;
 
     /** stores the nonreference values like integers,boolean and string.*/
@@ -66,26 +70,26 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
     /** stores the references to the dynamictype and the reference values */
     //transient ReferenceHandler referenceHandler = new ReferenceHandler(data);
 
-    class TextCache
-    {
-        String nameString;
-        ParsedText lastParsedAnnotation;
-        public String getName(Locale locale, String keyNameFormat) {
-    		DynamicTypeImpl type = getType();
-    		ParsedText parsedAnnotation = type.getParsedAnnotation( keyNameFormat );
-            if ( parsedAnnotation == null) {
-                return type.toString();
-            }
+    // more formatted names are rarely needed, e.g. the name, the planning name and the export name in two locales
+    static final int MAX_CACHED_NAMES = 8;
 
-            if (nameString != null)
-            {
-                if (parsedAnnotation.equals(lastParsedAnnotation))
-                    return nameString;
-            }
-            lastParsedAnnotation =  parsedAnnotation;
-            nameString = format(locale, keyNameFormat);
-            return nameString;
-    	}
+    static final class CachedName
+    {
+        final String annotationName;
+        final Locale locale;
+        // a changed annotation of the type is parsed again, so the cached name is only valid for the same instance
+        final ParsedText parsedAnnotation;
+        final long version;
+        final String nameString;
+
+        CachedName(String annotationName, Locale locale, ParsedText parsedAnnotation, long version, String nameString)
+        {
+            this.annotationName = annotationName;
+            this.locale = locale;
+            this.parsedAnnotation = parsedAnnotation;
+            this.version = version;
+            this.nameString = nameString;
+        }
     }
 
     public ClassificationImpl()
@@ -101,12 +105,37 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
     public void setResolver( EntityResolver resolver)
     {
         this.resolver = resolver;
+        names = null;
     }
 
     public void setReadOnly() {
         this.readOnly = true;
     }
 
+    /** replaces the type id, the type and attribute keys and the referenced ids in the attribute values with the equal instances of the pool*/
+    public void shareIds(IdPool pool)
+    {
+        if (typeId != null)
+        {
+            typeId = pool.getSharedId(typeId);
+        }
+        if (type != null)
+        {
+            type = pool.getSharedKey(type);
+        }
+        if (!data.isEmpty())
+        {
+            // all classifications of a type use the same attribute keys
+            final Map<String, List<String>> sharedData = new LinkedHashMap<>();
+            for (Entry<String, List<String>> entry : data.entrySet())
+            {
+                sharedData.put(pool.getSharedKey(entry.getKey()), entry.getValue());
+            }
+            data = sharedData;
+        }
+        ReferenceHandler.shareIds(pool, data);
+    }
+
     public boolean isReadOnly() {
         return readOnly;
     }
@@ -149,6 +178,10 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 
 
 
+	String getTypeId() {
+		return getParentId();
+	}
+
 	private String getParentId() {
 		if  (typeId != null)
 			return typeId;
@@ -183,11 +216,12 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 
     public String getName(Locale locale) {
     	// display name = Title of event
-        if ( name == null)
-        {
-            name = new TextCache();
+        DynamicTypeImpl type = getType();
+        ParsedText parsedAnnotation = type.getParsedAnnotation( DynamicTypeAnnotations.KEY_NAME_FORMAT );
+        if ( parsedAnnotation == null) {
+            return type.toString();
         }
-        return name.getName(locale,  DynamicTypeAnnotations.KEY_NAME_FORMAT);
+        return format(type, parsedAnnotation, locale, DynamicTypeAnnotations.KEY_NAME_FORMAT);
     }
 
     public String format( Locale locale, String annotationName)
@@ -198,8 +232,44 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         {
             return "";
         }
+        return format(type, parsedAnnotation, locale, annotationName);
+    }
+
+    private String format(DynamicTypeImpl type, ParsedText parsedAnnotation, Locale locale, String annotationName)
+    {
+        // a formatted name can show other entities, e.g. the name of a category. Read before formatting, so a name formatted during an update is not used afterwards
+        final long version = resolver != null ? resolver.getNamesVersion() : 0;
+        final CachedName[] cachedNames = names;
+        if ( cachedNames != null)
+        {
+            for (CachedName cachedName : cachedNames)
+            {
+                if (cachedName.version == version && cachedName.parsedAnnotation == parsedAnnotation && cachedName.annotationName.equals(annotationName) && Objects.equals(cachedName.locale, locale))
+                {
+                    return cachedName.nameString;
+                }
+            }
+        }
         EvalContext evalContext = type.createEvalContext(locale, annotationName, this);
         String nameString = parsedAnnotation.formatName(evalContext).trim();
+        final List<CachedName> newNames = new ArrayList<>(MAX_CACHED_NAMES);
+        if ( cachedNames != null)
+        {
+            for (CachedName cachedName : cachedNames)
+            {
+                // names of an older version of the annotation or of the data are replaced
+                if (cachedName.version == version && (!cachedName.annotationName.equals(annotationName) || !Objects.equals(cachedName.locale, locale)))
+                {
+                    newNames.add(cachedName);
+                }
+            }
+        }
+        if (newNames.size() >= MAX_CACHED_NAMES)
+        {
+            newNames.remove(0);
+        }
+        newNames.add(new CachedName(annotationName, locale, parsedAnnotation, version, nameString));
+        names = newNames.toArray(new CachedName[newNames.size()]);
         return nameString;
     }
 
@@ -314,7 +384,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         	data.remove( key );
         }
         this.type = type.getKey();
-        name = null;
+        names = null;
     }
 
     /** find the attribute of the given type that matches the id */
@@ -366,7 +436,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
 		if ( values == null || values.isEmpty())
         {
 			data.remove(attributeKey);
-			name = null;
+			names = null;
         	return;
         }
 		ArrayList<String> newValues = new ArrayList<>();
@@ -380,7 +450,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         }
 		data.put(attributeKey,newValues);
         //isNameUpToDate = false;
-        name = null;
+        names = null;
     }
 
     public void addRefValue(Attribute attribute, ReferenceInfo info) throws RaplaException
@@ -418,6 +488,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
             data.put(attributeKey, l);
         }
         l.add(stringValue);
+        names = null;
     }
 
     public Collection<String> getValuesUnresolvedStrings(Attribute attribute) {
@@ -551,7 +622,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
         clone.resolver = resolver;
         clone.typeId = getParentId();
         clone.type = type;
-        clone.name = null;
+        clone.names = null;
         clone.readOnly = false;// clones are always writable
         return clone;
     }
@@ -611,6 +682,7 @@ public class ClassificationImpl implements Classification,DynamicTypeDependant,
                     {
                         list.add(newIdString);
                     }
+                    names = null;
 
                 }
             }
@@ -0,0 +1,237 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.entities.dynamictype.internal;
+
+import org.rapla.entities.Category;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.DynamicType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/** The rules of a {@link ClassificationFilterImpl} prepared for matching many classifications.
+ * The attributes are resolved and the rule values are converted once, so that a match only compares the values of the classification.
+ * The compiled filter is only valid for the instance of the type it was compiled for, see {@link #isCompiledFor(DynamicType)}.
+ */
+final class CompiledClassificationFilter
+{
+    interface Condition
+    {
+        boolean matches(Object value);
+    }
+
+    private static final Condition NEVER = value -> false;
+
+    private final DynamicType type;
+    private final String typeId;
+    private final Attribute[] attributes;
+    // the conditions of a rule are combined with or, the rules with and
+    private final Condition[][] conditions;
+    private final boolean[] matchesEmpty;
+
+    CompiledClassificationFilter(DynamicType type, ClassificationFilterRuleImpl[] rules)
+    {
+        this.type = type;
+        this.typeId = type.getId();
+        final List<Attribute> attributeList = new ArrayList<>(rules.length);
+        final List<Condition[]> conditionList = new ArrayList<>(rules.length);
+        for (ClassificationFilterRuleImpl rule : rules)
+        {
+            final Attribute attribute = rule.getAttribute();
+            if (attribute == null)
+            {
+                continue;
+            }
+            final String[] operators = rule.getOperators();
+            final Object[] values = rule.getValues();
+            final Condition[] ruleConditions = new Condition[operators.length];
+            for (int i = 0; i < operators.length; i++)
+            {
+                ruleConditions[i] = compile(attribute.getType(), operators[i], values[i]);
+            }
+            attributeList.add(attribute);
+            conditionList.add(ruleConditions);
+        }
+        attributes = attributeList.toArray(new Attribute[attributeList.size()]);
+        conditions = conditionList.toArray(new Condition[conditionList.size()][]);
+        matchesEmpty = new boolean[attributes.length];
+        for (int i = 0; i < attributes.length; i++)
+        {
+            matchesEmpty[i] = matchesOne(conditions[i], null);
+        }
+    }
+
+    boolean isCompiledFor(DynamicType type)
+    {
+        return this.type == type;
+    }
+
+    boolean matches(Classification classification)
+    {
+        final String classificationTypeId = classification instanceof ClassificationImpl ? ((ClassificationImpl) classification).getTypeId()
+                : classification.getType().getId();
+        if (!typeId.equals(classificationTypeId))
+        {
+            return false;
+        }
+        for (int i = 0; i < attributes.length; i++)
+        {
+            final Collection<Object> values = classification.getValues(attributes[i]);
+            if (values.isEmpty())
+            {
+                if (!matchesEmpty[i])
+                {
+                    return false;
+                }
+                continue;
+            }
+            boolean matchesOne = false;
+            for (Object value : values)
+            {
+                if (matchesOne(conditions[i], value))
+                {
+                    matchesOne = true;
+                    break;
+                }
+            }
+            if (!matchesOne)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesOne(Condition[] conditions, Object value)
+    {
+        for (Condition condition : conditions)
+        {
+            if (condition.matches(value))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Condition compile(AttributeType type, String operator, Object ruleValue)
+    {
+        if (type == AttributeType.CATEGORY)
+        {
+            final Category category = (Category) ruleValue;
+            if (category == null)
+            {
+                return value -> value == null;
+            }
+            if (operator.equals("="))
+            {
+                return value -> value != null && category.isIdentical((Category) value);
+            }
+            else if (operator.equals("is"))
+            {
+                // the parents of the value are checked, so subcategories that are added later are found as well
+                return value -> value != null && (category.isIdentical((Category) value) || category.isAncestorOf((Category) value));
+            }
+        }
+        else if (type == AttributeType.ALLOCATABLE)
+        {
+            final Allocatable allocatable = (Allocatable) ruleValue;
+            if (allocatable == null)
+            {
+                return value -> value == null;
+            }
+            if (operator.equals("=") || operator.equals("is"))
+            {
+                return value -> value != null && allocatable.isIdentical((Allocatable) value);
+            }
+        }
+        else if (type == AttributeType.STRING)
+        {
+            if (ruleValue == null)
+            {
+                return value -> value == null;
+            }
+            if (operator.equals("is") || operator.equals("="))
+            {
+                return value -> value != null && value.equals(ruleValue);
+            }
+            final String string = ((String) ruleValue).toLowerCase().trim();
+            if (operator.equals("contains"))
+            {
+                return value -> value == null ? string.length() == 0 : ((String) value).toLowerCase().contains(string);
+            }
+            else if (operator.equals("starts"))
+            {
+                return value -> value == null ? string.length() == 0 : ((String) value).toLowerCase().startsWith(string);
+            }
+        }
+        else if (type == AttributeType.BOOLEAN)
+        {
+            final Boolean boolean1 = (Boolean) ruleValue;
+            if (boolean1 == null)
+            {
+                return value -> value == null || ((Boolean) value).booleanValue();
+            }
+            return value -> value == null ? !boolean1.booleanValue() : boolean1.equals(value);
+        }
+        else if (type == AttributeType.INT || type == AttributeType.DATE)
+        {
+            if (ruleValue == null)
+            {
+                if (operator.equals("<>"))
+                    return value -> value != null;
+                else if (operator.equals("="))
+                    return value -> value == null;
+                else
+                    return NEVER;
+            }
+            final boolean isInt = type == AttributeType.INT;
+            final long long2 = isInt ? ((Long) ruleValue).longValue() : ((Date) ruleValue).getTime();
+            if (operator.equals("<"))
+            {
+                return value -> value != null && toLong(isInt, value) < long2;
+            }
+            else if (operator.equals("="))
+            {
+                return value -> value != null && toLong(isInt, value) == long2;
+            }
+            else if (operator.equals(">"))
+            {
+                return value -> value != null && toLong(isInt, value) > long2;
+            }
+            else if (operator.equals(">="))
+            {
+                return value -> value != null && toLong(isInt, value) >= long2;
+            }
+            else if (operator.equals("<="))
+            {
+                return value -> value != null && toLong(isInt, value) <= long2;
+            }
+            else if (operator.equals("<>"))
+            {
+                return value -> value != null && toLong(isInt, value) != long2;
+            }
+        }
+        return NEVER;
+    }
+
+    private static long toLong(boolean isInt, Object value)
+    {
+        return isInt ? ((Long) value).longValue() : ((Date) value).getTime();
+    }
+}
@@ -48,6 +48,8 @@ public class ParsedText implements Serializable
 
     /** the terminal format elements*/
     transient List<String> nonVariablesList;
+    /** the terminal format elements with the escaped newlines replaced, used for formatting*/
+    transient List<String> formatNonVariablesList;
     /** the variable format elements*/
     transient List<Function> variablesList;
     // used for fast storage of text without variables
@@ -104,6 +106,15 @@ public class ParsedText implements Serializable
             }
             variablesList = null;
             nonVariablesList = null;
+            formatNonVariablesList = null;
+        }
+        else
+        {
+            formatNonVariablesList = new ArrayList<>(nonVariablesList.size());
+            for (String nonVariable : nonVariablesList)
+            {
+                formatNonVariablesList.add(unescapeNewlines(nonVariable));
+            }
         }
     }
 
@@ -149,8 +160,8 @@ public class ParsedText implements Serializable
         {
             return first;
         }
-        StringBuffer buf = new StringBuffer();
-        if (variablesList != null && (nonVariablesList == null || nonVariablesList.size() == 0))
+        StringBuilder buf = new StringBuilder();
+        if (variablesList != null && (formatNonVariablesList == null || formatNonVariablesList.size() == 0))
         {
             for (int i = 0; i < variablesList.size(); i++)
             {
@@ -160,11 +171,11 @@ public class ParsedText implements Serializable
                 buf.append(stringResult);
             }
         }
-        else if (nonVariablesList != null)
+        else if (formatNonVariablesList != null)
         {
-            for (int i = 0; i < nonVariablesList.size(); i++)
+            for (int i = 0; i < formatNonVariablesList.size(); i++)
             {
-                buf.append(nonVariablesList.get(i));
+                buf.append(formatNonVariablesList.get(i));
                 if (i < variablesList.size())
                 {
                     Function function = variablesList.get(i);
@@ -175,9 +186,29 @@ public class ParsedText implements Serializable
             }
         }
 
-        String string = buf.toString();
-        string = string.replaceAll("\\\\n", "\n");
-        return string;
+        // the format elements are already unescaped, so only the values of the variables can contain escaped newlines
+        return unescapeNewlines(buf.toString());
+    }
+
+    /** replaces each backslash followed by an n with a newline, without compiling a regular expression for each call */
+    static String unescapeNewlines(String string)
+    {
+        int index = string.indexOf("\\n");
+        if (index < 0)
+        {
+            return string;
+        }
+        final StringBuilder buf = new StringBuilder(string.length());
+        int pos = 0;
+        while (index >= 0)
+        {
+            buf.append(string, pos, index);
+            buf.append('\n');
+            pos = index + 2;
+            index = string.indexOf("\\n", pos);
+        }
+        buf.append(string, pos, string.length());
+        return buf.toString();
     }
 
     Function parseFunctions(final ParseContext context, String content) throws IllegalAnnotationException
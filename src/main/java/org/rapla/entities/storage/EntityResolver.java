@@ -34,6 +34,13 @@ public interface EntityResolver
     
     DynamicType getDynamicType(String key);
 
+    /** formatted names can show categories, types and resources. The version changes when one of them is stored or removed,
+     * so names that were formatted with an older version must be formatted again. */
+    default long getNamesVersion()
+    {
+        return 0;
+    }
+
     //FunctionFactory getFunctionFactory(String functionName);
 
     //PermissionController getPermissionController();
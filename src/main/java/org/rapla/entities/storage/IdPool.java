@@ -0,0 +1,25 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.entities.storage;
+
+/** returns one shared instance for equal ids, so that the references of cached entities don't keep their own copies of the id strings.
+ * @see org.rapla.entities.storage.internal.ReferenceHandler#shareIds(IdPool)
+ */
+public interface IdPool
+{
+    /** returns an equal id that is already in use or the passed id if the pool doesn't know it*/
+    String getSharedId(String id);
+
+    /** returns an equal type or attribute key that is already in use. The passed key is added to the pool if the pool doesn't know it*/
+    String getSharedKey(String key);
+}
@@ -16,6 +16,7 @@ import org.rapla.components.util.Assert;
 import org.rapla.entities.Entity;
 import org.rapla.entities.storage.EntityReferencer;
 import org.rapla.entities.storage.EntityResolver;
+import org.rapla.entities.storage.IdPool;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.entities.storage.UnresolvableReferenceExcpetion;
 
@@ -384,6 +385,50 @@ abstract public class ReferenceHandler /*extends HashMap<String,List<String>>*/
         }
     }
 
+    /** replaces the referenced ids with the equal instances of the pool. Only call this on objects that are not yet visible to other threads.*/
+    public void shareIds(IdPool pool)
+    {
+        synchronized (this)
+        {
+            shareIds(pool, links);
+        }
+    }
+
+    /** replaces the ids in the values of the map with the equal instances of the pool*/
+    public static void shareIds(IdPool pool, Map<String, List<String>> map)
+    {
+        if (map == null)
+        {
+            return;
+        }
+        for (Entry<String, List<String>> entry : map.entrySet())
+        {
+            final List<String> ids = entry.getValue();
+            for (int i = 0; i < ids.size(); i++)
+            {
+                final String id = ids.get(i);
+                if (id == null)
+                {
+                    continue;
+                }
+                final String sharedId = pool.getSharedId(id);
+                if (sharedId == id || sharedId == null)
+                {
+                    continue;
+                }
+                if (ids instanceof ArrayList)
+                {
+                    ids.set(i, sharedId);
+                }
+                else if (ids.size() == 1)
+                {
+                    // e.g. a singleton list created by putEntity
+                    entry.setValue(Collections.singletonList(sharedId));
+                }
+            }
+        }
+    }
+
 	public String toString()
 	{
 		StringBuilder builder = new StringBuilder();
@@ -18,6 +18,7 @@ import org.rapla.components.util.Assert;
 import org.rapla.components.util.DateTools;
 import org.rapla.components.util.SerializableDateTimeFormat;
 import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.IllegalAnnotationException;
 import org.rapla.entities.Named;
@@ -49,6 +50,7 @@ import org.rapla.facade.CalendarModel;
 import org.rapla.facade.CalendarNotFoundExeption;
 import org.rapla.facade.CalendarSelectionModel;
 import org.rapla.facade.Conflict;
+import org.rapla.facade.ModificationEvent;
 import org.rapla.facade.client.ClientFacade;
 import org.rapla.framework.RaplaException;
 import org.rapla.framework.RaplaInitializationException;
@@ -77,6 +79,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -461,6 +464,7 @@ public class CalendarModelImpl implements CalendarSelectionModel
 
     public void setReservationFilter(ClassificationFilter[] array)
     {
+        invalidateCache();
         reservationFilter.clear();
         if (array == null)
         {
@@ -990,27 +994,133 @@ public class CalendarModelImpl implements CalendarSelectionModel
 
     String templateId = null;
 
-    private String cacheValidString;
-    private Map<Allocatable, Collection<Appointment>> cachedReservations;
+    // the number of queries that are cached, e.g. the weeks and views the user switches between
+    static final int MAX_CACHED_QUERIES = 20;
+    private final Map<AppointmentQuery, CachedAppointments> cachedAppointments = new LinkedHashMap<AppointmentQuery, CachedAppointments>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<AppointmentQuery, CachedAppointments> eldest)
+        {
+            return size() > MAX_CACHED_QUERIES;
+        }
+    };
     private boolean cachingEnabled = false;
 
-    private Promise<Map<Allocatable, Collection<Appointment>>> queryAppointmentBindings(Collection<Allocatable> allocatables, Date start, Date end, boolean useFilter)
+    /** key of the cached appointment queries*/
+    static final class AppointmentQuery
     {
-        final String cacheKey = createCacheKey(allocatables, start, end);
-        if (cachingEnabled)
+        // null for all allocatables
+        private final Set<String> allocatableIds;
+        private final Long start;
+        private final Long end;
+        // the filters are compared by identity, a changed filter is a new filter object
+        private final List<ClassificationFilter> reservationFilters;
+        private final String templateId;
+
+        AppointmentQuery(Collection<Allocatable> allocatables, Date start, Date end, ClassificationFilter[] reservationFilters, String templateId)
+        {
+            if (allocatables != null)
+            {
+                allocatableIds = new HashSet<>();
+                for (Allocatable allocatable : allocatables)
+                {
+                    allocatableIds.add(allocatable.getId());
+                }
+            }
+            else
+            {
+                allocatableIds = null;
+            }
+            this.start = start != null ? start.getTime() : null;
+            this.end = end != null ? end.getTime() : null;
+            this.reservationFilters = reservationFilters != null ? Arrays.asList(reservationFilters) : null;
+            this.templateId = templateId;
+        }
+
+        boolean overlaps(Appointment appointment)
+        {
+            return appointment.overlaps(start != null ? new Date(start) : null, end != null ? new Date(end) : null);
+        }
+
+        boolean containsAny(Allocatable[] allocatables)
+        {
+            if (allocatableIds == null)
+            {
+                return true;
+            }
+            for (Allocatable allocatable : allocatables)
+            {
+                if (allocatableIds.contains(allocatable.getId()))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object obj)
         {
-            if (cacheValidString != null && cacheValidString.equals(cacheKey) && cachedReservations != null)
+            if (!(obj instanceof AppointmentQuery))
             {
-                return new ResolvedPromise<>(cachedReservations);
+                return false;
+            }
+            AppointmentQuery other = (AppointmentQuery) obj;
+            return Objects.equals(allocatableIds, other.allocatableIds) && Objects.equals(start, other.start) && Objects.equals(end, other.end) && Objects
+                    .equals(reservationFilters, other.reservationFilters) && Objects.equals(templateId, other.templateId);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(allocatableIds, start, end, reservationFilters, templateId);
+        }
+    }
+
+    static final class CachedAppointments
+    {
+        final Map<Allocatable, Collection<Appointment>> appointments;
+        final Set<String> reservationIds = new HashSet<>();
+        final Set<String> appointmentIds = new HashSet<>();
+
+        CachedAppointments(Map<Allocatable, Collection<Appointment>> appointments)
+        {
+            this.appointments = appointments;
+            for (Collection<Appointment> appointmentList : appointments.values())
+            {
+                for (Appointment appointment : appointmentList)
+                {
+                    appointmentIds.add(appointment.getId());
+                    final Reservation reservation = appointment.getReservation();
+                    if (reservation != null)
+                    {
+                        reservationIds.add(reservation.getId());
+                    }
+                }
             }
         }
+    }
 
+    private Promise<Map<Allocatable, Collection<Appointment>>> queryAppointmentBindings(Collection<Allocatable> allocatables, Date start, Date end, boolean useFilter)
+    {
         ClassificationFilter[] reservationFilters;
 		try {
 			reservationFilters = isDefaultEventTypes() || !useFilter ? null : getReservationFilter();
 		} catch (RaplaException ex) {
 			return new ResolvedPromise<>( ex);
 		}
+        final AppointmentQuery query = new AppointmentQuery(allocatables, start, end, reservationFilters, templateId);
+        if (cachingEnabled)
+        {
+            synchronized (cachedAppointments)
+            {
+                final CachedAppointments cached = cachedAppointments.get(query);
+                if (cached != null)
+                {
+                    return new ResolvedPromise<>(cached.appointments);
+                }
+            }
+        }
 		// FIXME Evalute if its only the owner
 		User user = null;
         final Promise<Map<Allocatable, Collection<Appointment>>> reservationsAsync = operator
@@ -1019,8 +1129,10 @@ public class CalendarModelImpl implements CalendarSelectionModel
         return reservationsAsync.thenApply((map) -> {
             if (cachingEnabled)
             {
-                cachedReservations = map;
-                cacheValidString = cacheKey;
+                synchronized (cachedAppointments)
+                {
+                    cachedAppointments.put(query, new CachedAppointments(map));
+                }
             }
             return map;
         });
@@ -1028,34 +1140,83 @@ public class CalendarModelImpl implements CalendarSelectionModel
 
     public void invalidateCache()
     {
-        cacheValidString = null;
-        cachedReservations = null;
+        synchronized (cachedAppointments)
+        {
+            cachedAppointments.clear();
+        }
     }
 
-    private String createCacheKey(Collection<Allocatable> allocatables, Date start, Date end)
+    /** removes the cached queries that are affected by the changes. Queries for other resources or time intervals stay in the cache. */
+    public void invalidateCache(ModificationEvent evt)
     {
-        StringBuilder buf = new StringBuilder();
-        if (allocatables != null)
+        if (evt == null || evt.isSwitchTemplateMode() || evt.isModified(Allocatable.class) || evt.isModified(DynamicType.class) || evt
+                .isModified(User.class) || evt.isModified(Category.class))
         {
-            for (Allocatable alloc : allocatables)
+            // permissions or the classification of events can change
+            invalidateCache();
+            return;
+        }
+        // ids of the changed or removed reservations and appointments
+        final Set<String> changedReservationIds = new HashSet<>();
+        final Collection<Reservation> newReservations = new ArrayList<>();
+        for (ReferenceInfo removed : evt.getRemovedReferences())
+        {
+            if (removed.getType() == Reservation.class || removed.getType() == Appointment.class)
             {
-                buf.append(alloc.getId());
-                buf.append(";");
+                changedReservationIds.add(removed.getId());
             }
         }
-        else
+        final Collection<Entity> changedOrAdded = new ArrayList<>(evt.getChanged());
+        changedOrAdded.addAll(evt.getAddObjects());
+        for (Entity entity : changedOrAdded)
         {
-            buf.append("all_reservations;");
+            final Reservation reservation = entity instanceof Appointment ? ((Appointment) entity).getReservation() : entity instanceof Reservation ? (Reservation) entity : null;
+            if (reservation != null)
+            {
+                changedReservationIds.add(reservation.getId());
+                newReservations.add(reservation);
+            }
         }
-        if (start != null)
+        synchronized (cachedAppointments)
         {
-            buf.append(start.getTime() + ";");
+            final Iterator<Map.Entry<AppointmentQuery, CachedAppointments>> it = cachedAppointments.entrySet().iterator();
+            while (it.hasNext())
+            {
+                final Map.Entry<AppointmentQuery, CachedAppointments> entry = it.next();
+                if (isAffected(entry.getKey(), entry.getValue(), changedReservationIds, newReservations))
+                {
+                    it.remove();
+                }
+            }
         }
-        if (end != null)
+    }
+
+    private static boolean isAffected(AppointmentQuery query, CachedAppointments cached, Set<String> changedReservationIds, Collection<Reservation> newReservations)
+    {
+        // the old version is in the result
+        for (String id : changedReservationIds)
         {
-            buf.append(end.getTime() + ";");
+            if (cached.reservationIds.contains(id) || cached.appointmentIds.contains(id))
+            {
+                return true;
+            }
+        }
+        // the new version would be in the result
+        for (Reservation reservation : newReservations)
+        {
+            if (!query.containsAny(reservation.getAllocatables()))
+            {
+                continue;
+            }
+            for (Appointment appointment : reservation.getAppointments())
+            {
+                if (query.overlaps(appointment))
+                {
+                    return true;
+                }
+            }
         }
-        return buf.toString();
+        return false;
     }
 
     public void setCachingEnabled(boolean enable)
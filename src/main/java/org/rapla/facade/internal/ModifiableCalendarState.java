@@ -46,13 +46,18 @@ public class ModifiableCalendarState
     public ModifiableCalendarState(ClientFacade facade,Provider<CalendarSelectionModel> calendarModel)
     {
         this.facade = facade;
-        this.calendarModel = calendarModel;
+        // the cache is invalidated in dataChanged
+        this.calendarModel = () -> {
+            final CalendarSelectionModel model = calendarModel.get();
+            ((CalendarModelImpl)model).setCachingEnabled( true);
+            return model;
+        };
     }
 
     public void dataChanged(ModificationEvent evt) throws RaplaException
     {
         final CalendarModelImpl model = (CalendarModelImpl) getModel();
-        model.invalidateCache();
+        model.invalidateCache(evt);
         Collection<RaplaObject> selectedObjects = model.getSelectedObjects();
         if (evt == null)
         {
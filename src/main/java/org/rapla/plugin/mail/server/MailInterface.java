@@ -2,6 +2,10 @@ package org.rapla.plugin.mail.server;
 
 import org.rapla.plugin.mail.MailException;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public interface MailInterface {
     /* Sends the mail.
        Callers should check if the parameters are all valid
@@ -11,5 +15,24 @@ public interface MailInterface {
     void sendMail(String senderMail, String recipient, String subject, String mailBody)
         throws MailException;
 
+    /** Sends all mails from the sender. Implementations can send the mails over one connection.
+     * A mail that can't be sent does not stop the others.
+     * @return the mails that could not be sent with the cause */
+    default Map<OutgoingMail, MailException> sendMails(String senderMail, Collection<OutgoingMail> mails)
+    {
+        final Map<OutgoingMail, MailException> failed = new LinkedHashMap<>();
+        for (OutgoingMail mail : mails)
+        {
+            try
+            {
+                sendMail(senderMail, mail.getRecipient(), mail.getSubject(), mail.getBody());
+            }
+            catch (MailException ex)
+            {
+                failed.put(mail, ex);
+            }
+        }
+        return failed;
+    }
 
 }
@@ -5,9 +5,12 @@ import org.rapla.entities.configuration.Preferences;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
 import org.rapla.logger.Logger;
+import org.rapla.plugin.mail.MailException;
 import org.rapla.plugin.mail.MailPlugin;
 
 import javax.inject.Inject;
+import java.util.Collection;
+import java.util.Map;
 
 public class MailToUserImpl
 {
@@ -25,6 +28,18 @@ public class MailToUserImpl
     }
 
     public void sendMail(String userName, String subject, String body) throws RaplaException
+    {
+        final OutgoingMail outgoingMail = createMail(userName, subject, body);
+        if (outgoingMail == null)
+        {
+            return;
+        }
+        mail.sendMail(getDefaultSender(), outgoingMail.getRecipient(), subject, body);
+        logger.getChildLogger("mail").info("Email send to user " + userName);
+    }
+
+    /** @return the mail to the email address of the user or null if the user has no email address */
+    public OutgoingMail createMail(String userName, String subject, String body) throws RaplaException
     {
         User recipientUser = facade.getUser(userName);
         // O.K. We need to generate the mail
@@ -32,12 +47,21 @@ public class MailToUserImpl
         if (recipientEmail == null || recipientEmail.trim().length() == 0)
         {
             logger.warn("No email address specified for user " + recipientUser.getUsername() + " Can't send mail.");
-            return;
+            return null;
         }
+        return new OutgoingMail(recipientEmail, subject, body);
+    }
 
+    /** sends the mails created with {@link #createMail(String, String, String)} together.
+     * @return the mails that could not be sent with the cause */
+    public Map<OutgoingMail, MailException> sendMails(Collection<OutgoingMail> mails) throws RaplaException
+    {
+        return mail.sendMails(getDefaultSender(), mails);
+    }
+
+    private String getDefaultSender() throws RaplaException
+    {
         Preferences prefs = facade.getSystemPreferences();
-        final String defaultSender = prefs.getEntryAsString(MailPlugin.DEFAULT_SENDER_ENTRY, "");
-        mail.sendMail(defaultSender, recipientEmail, subject, body);
-        logger.getChildLogger("mail").info("Email send to user " + userName);
+        return prefs.getEntryAsString(MailPlugin.DEFAULT_SENDER_ENTRY, "");
     }
 }
@@ -23,6 +23,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 @DefaultImplementation(of=MailInterface.class,context= InjectionContext.server)
@@ -42,6 +47,9 @@ public class MailapiClient implements MailInterface
     String password;
     RaplaFacade facade;
     Provider<Object> externalMailSessionProvider;
+    // the session of the last used server settings, so that the properties are not created for every mail
+    private List<Object> cachedSessionKey;
+    private Object cachedSession;
 
     @Inject
     public MailapiClient( RaplaFacade facade, @Named(ServerService.ENV_RAPLAMAIL_ID) Provider<Object> externalMailSessionProvider)  {
@@ -55,32 +63,79 @@ public class MailapiClient implements MailInterface
 
     public void sendMail( String senderMail, String recipient, String subject, String mailBody ) throws MailException
     {
-        Object externalMailSession;
-        if ( externalMailSessionProvider != null)
+        Object externalMailSession = getExternalMailSession();
+        if ( externalMailSession != null)
         {
-            try
+            send(senderMail, recipient, subject, mailBody, externalMailSession);
+            return;
+        }
+        else
+        {
+            sendMail(senderMail, recipient, subject, mailBody, null);
+        }
+
+    }
+
+    /** sends all mails over one connection to the mail server. If the connection can't be opened, all mails are returned as failed.*/
+    @Override
+    public Map<OutgoingMail, MailException> sendMails(String senderMail, Collection<OutgoingMail> mails)
+    {
+        final Map<OutgoingMail, MailException> failed = new LinkedHashMap<>();
+        if ( mails.isEmpty())
+        {
+            return failed;
+        }
+        Object session;
+        try
+        {
+            session = getExternalMailSession();
+            if ( session == null)
             {
-                externalMailSession = externalMailSessionProvider.get();
+                session = getSession( null);
             }
-            catch ( NullPointerException ex)
+        }
+        catch (MailException ex)
+        {
+            for (OutgoingMail mail : mails)
             {
-                externalMailSession = null;
+                failed.put(mail, ex);
             }
+            return failed;
         }
-        else
+        if ( session instanceof Properties)
         {
-            externalMailSession = null;
+            // the mailjet api has no connection to reuse
+            for (OutgoingMail mail : mails)
+            {
+                try
+                {
+                    send(senderMail, mail.getRecipient(), mail.getSubject(), mail.getBody(), session);
+                }
+                catch (MailException ex)
+                {
+                    failed.put(mail, ex);
+                }
+            }
+            return failed;
         }
-        if ( externalMailSession != null)
+        sendWithReflection(senderMail, mails, session, session.getClass().getClassLoader(), failed);
+        return failed;
+    }
+
+    private Object getExternalMailSession()
+    {
+        if ( externalMailSessionProvider == null)
         {
-            send(senderMail, recipient, subject, mailBody, externalMailSession);
-            return;
+            return null;
         }
-        else
+        try
         {
-            sendMail(senderMail, recipient, subject, mailBody, null);
+            return externalMailSessionProvider.get();
+        }
+        catch ( NullPointerException ex)
+        {
+            return null;
         }
-
     }
 
     public void setProtocol(SecurityProtocol protocol)
@@ -95,8 +150,12 @@ public class MailapiClient implements MailInterface
 
     public void sendMail( String senderMail, String recipient, String subject, String mailBody, Configuration config ) throws MailException
     {
-        Object session;
+        Object session = getSession( config);
+        send(senderMail, recipient, subject, mailBody,  session);
+    }
 
+    private Object getSession(Configuration config) throws MailException
+    {
         if ( config == null && facade != null)
         {
             Preferences systemPreferences;
@@ -115,13 +174,23 @@ public class MailapiClient implements MailInterface
             String username= config.getChild("username").getValue("");
             String password= config.getChild("password").getValue("");
             SecurityProtocol protocol = this.readSecurityProtocol(config);
-            session = createSessionFromProperties(mailhost, port, protocol, username, password);
+            return getSession(mailhost, port, protocol, username, password);
         }
         else
         {
-            session = createSessionFromProperties(mailhost,port, this.protocol, username, password);
+            return getSession(mailhost,port, this.protocol, username, password);
         }
-        send(senderMail, recipient, subject, mailBody,  session);
+    }
+
+    private synchronized Object getSession(String mailhost, int port, SecurityProtocol protocol, String username, String password) throws MailException
+    {
+        final List<Object> key = Arrays.asList(mailhost, port, protocol, username, password);
+        if ( cachedSession == null || !key.equals(cachedSessionKey))
+        {
+            cachedSession = createSessionFromProperties(mailhost, port, protocol, username, password);
+            cachedSessionKey = key;
+        }
+        return cachedSession;
     }
 
     private Object createSessionFromProperties(String mailhost, int port, SecurityProtocol protocol, String username, String password) throws MailException {
@@ -273,14 +342,123 @@ public class MailapiClient implements MailInterface
 			catch (Throwable ex)
 			{
 				
+			}
+			Class<?> MessageC = classLoader.loadClass("javax.mail.Message");
+			Class<?> TransportC = classLoader.loadClass("javax.mail.Transport");
+			Object message = createMessage(senderMail, recipient, subject, mailBody, session, classLoader);
+			//Transport.send(message);
+			TransportC.getMethod("send", MessageC).invoke( null, message);
+		
+		} catch (Exception ex) {
+			Throwable e = ex;
+			if ( ex instanceof InvocationTargetException){
+				e = ex.getCause();
+			}
+			String message = e.getMessage();
+		    throw new RaplaException( message, e);
+		}
+		finally
+		{
+			if ( changedClass)
+			{
+				currentThread.setContextClassLoader( original);
+			}
+		}
+	}
+
+	/** sends the mails with one transport, so the connection to the mail server is only opened once */
+	private void sendWithReflection(String senderMail, Collection<OutgoingMail> mails, Object session, ClassLoader classLoader,
+			Map<OutgoingMail, MailException> failed) {
+		Thread currentThread = Thread.currentThread();
+		ClassLoader original = currentThread.getContextClassLoader();
+		boolean changedClass =false;
+		Object transport = null;
+		Class<?> TransportC = null;
+		try {
+			try
+			{
+				currentThread.setContextClassLoader( classLoader);
+				changedClass = true;
+			}
+			catch (Throwable ex)
+			{
+
 			}
 			Class<?> SessionC = classLoader.loadClass("javax.mail.Session");
+			Class<?> MessageC = classLoader.loadClass("javax.mail.Message");
+			Class<?> AddressC = classLoader.loadClass("javax.mail.Address");
+			Object addressArrayDummy = Array.newInstance(AddressC, 0);
+			TransportC = classLoader.loadClass("javax.mail.Transport");
+			// the protocol of the session is used, so smtps sessions work too
+			//Transport transport = session.getTransport();
+			//transport.connect();
+			transport = SessionC.getMethod("getTransport").invoke( session);
+			TransportC.getMethod("connect").invoke( transport);
+			Method sendMessage = TransportC.getMethod("sendMessage", MessageC, addressArrayDummy.getClass());
+			for (OutgoingMail mail : mails)
+			{
+				try
+				{
+					Object message = createMessage(senderMail, mail.getRecipient(), mail.getSubject(), mail.getBody(), session, classLoader);
+					//message.saveChanges();
+					//transport.sendMessage(message, message.getAllRecipients());
+					MessageC.getMethod("saveChanges").invoke( message);
+					Object recipients = MessageC.getMethod("getAllRecipients").invoke( message);
+					sendMessage.invoke( transport, message, recipients);
+				}
+				catch (Exception ex)
+				{
+					failed.put(mail, toMailException(ex));
+				}
+			}
+		} catch (Exception ex) {
+			MailException mailException = toMailException(ex);
+			for (OutgoingMail mail : mails)
+			{
+				if ( !failed.containsKey(mail))
+				{
+					failed.put(mail, mailException);
+				}
+			}
+		}
+		finally
+		{
+			if ( transport != null)
+			{
+				try
+				{
+					//transport.close();
+					TransportC.getMethod("close").invoke( transport);
+				}
+				catch (Exception ex)
+				{
+					// the mails are already sent
+				}
+			}
+			if ( changedClass)
+			{
+				currentThread.setContextClassLoader( original);
+			}
+		}
+	}
+
+	private MailException toMailException(Exception ex)
+	{
+		Throwable e = ex;
+		if ( ex instanceof InvocationTargetException){
+			e = ex.getCause();
+		}
+		return new MailException( e.getMessage(), e);
+	}
+
+	private Object createMessage(String senderMail, String recipient, String subject, String mailBody, Object session,
+			ClassLoader classLoader) throws Exception {
+			Class<?> SessionC = classLoader.loadClass("javax.mail.Session");
 			Class<?> MimeMessageC = classLoader.loadClass("javax.mail.internet.MimeMessage");
 			Class<?> MessageC = classLoader.loadClass("javax.mail.Message");
 			Class<?> AddressC = classLoader.loadClass("javax.mail.Address");
 			Class<?> RecipientTypeC = classLoader.loadClass("javax.mail.Message$RecipientType");
 			Class<?> InternetAddressC = classLoader.loadClass("javax.mail.internet.InternetAddress");
-			Class<?> TransportC = classLoader.loadClass("javax.mail.Transport");
 			//Message message = new MimeMessage(session);
 			Object message = MimeMessageC.getConstructor( SessionC).newInstance( session);
 			if ( senderMail != null && senderMail.trim().length() > 0)
@@ -303,26 +481,7 @@ public class MailapiClient implements MailInterface
 			//message.setText(mailBody);
 			//MimeMessageC.getMethod("setText", String.class).invoke( message, mailBody);
 			MimeMessageC.getMethod("setContent", Object.class, String.class).invoke( message, mailBody, "text/plain; charset=UTF-8");
-
-			
-			//Transport.send(message);
-			TransportC.getMethod("send", MessageC).invoke( null, message);
-		
-		} catch (Exception ex) {
-			Throwable e = ex;
-			if ( ex instanceof InvocationTargetException){
-				e = ex.getCause();
-			}
-			String message = e.getMessage();
-		    throw new RaplaException( message, e);
-		}
-		finally
-		{
-			if ( changedClass)
-			{
-				currentThread.setContextClassLoader( original);
-			}
-		}
+			return message;
 	}
 
 
@@ -0,0 +1,36 @@
+package org.rapla.plugin.mail.server;
+
+/** A mail that is sent together with other mails with {@link MailInterface#sendMails(String, java.util.Collection)}.*/
+public class OutgoingMail
+{
+    private final String recipient;
+    private final String subject;
+    private final String body;
+
+    public OutgoingMail(String recipient, String subject, String body)
+    {
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+    }
+
+    public String getRecipient()
+    {
+        return recipient;
+    }
+
+    public String getSubject()
+    {
+        return subject;
+    }
+
+    public String getBody()
+    {
+        return body;
+    }
+
+    public String toString()
+    {
+        return "TO: " + recipient + "\n" + "Subject: " + subject;
+    }
+}
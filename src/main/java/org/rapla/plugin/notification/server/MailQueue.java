@@ -0,0 +1,194 @@
+package org.rapla.plugin.notification.server;
+
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.mail.MailException;
+import org.rapla.plugin.mail.server.MailToUserImpl;
+import org.rapla.plugin.mail.server.OutgoingMail;
+import org.rapla.plugin.notification.server.NotificationService.AllocationMail;
+
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Sends the notification mails in the background, so that the notification service does not wait for the mail server.
+ * The mails must be stored in the {@link NotificationStorage} before they are added, so they are not lost if the server stops.
+ * The workers send the mails in batches of {@link #BATCH_SIZE} over one connection to the mail server.
+ * Each mail is removed from the storage when it was sent, a mail that could not be sent stays in the storage and is tried again later.
+ */
+final class MailQueue
+{
+    static final int BATCH_SIZE = 20;
+    static final int WORKER_COUNT = 2;
+
+    private final NotificationStorage notificationStorage;
+    private final Provider<MailToUserImpl> mailToUserInterface;
+    private final Logger logger;
+    private final Queue<AllocationMail> pending = new ConcurrentLinkedQueue<>();
+    // the mails that are added and not yet sent or failed
+    private final AtomicInteger unfinished = new AtomicInteger();
+    private final ExecutorService workers;
+
+    MailQueue(NotificationStorage notificationStorage, Provider<MailToUserImpl> mailToUserInterface, Logger logger)
+    {
+        this.notificationStorage = notificationStorage;
+        this.mailToUserInterface = mailToUserInterface;
+        this.logger = logger;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(WORKER_COUNT, runnable ->
+        {
+            final Thread thread = new Thread(runnable, "rapla-notification-mail-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void add(Collection<AllocationMail> mails)
+    {
+        if (mails.isEmpty())
+        {
+            return;
+        }
+        unfinished.addAndGet(mails.size());
+        pending.addAll(mails);
+        final int batches = (mails.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        try
+        {
+            for (int i = 0; i < Math.min(batches, WORKER_COUNT); i++)
+            {
+                workers.execute(this::drain);
+            }
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // the queue is shut down, the mails are sent from the storage after the restart
+            pending.removeAll(mails);
+            unfinished.addAndGet(-mails.size());
+        }
+    }
+
+    /** @return true if all added mails are sent or failed */
+    boolean isIdle()
+    {
+        return unfinished.get() == 0;
+    }
+
+    void shutdown()
+    {
+        workers.shutdownNow();
+        unfinished.addAndGet(-pending.size());
+        pending.clear();
+    }
+
+    private void drain()
+    {
+        while (!Thread.currentThread().isInterrupted())
+        {
+            final List<AllocationMail> batch = new ArrayList<>(BATCH_SIZE);
+            AllocationMail mail;
+            while (batch.size() < BATCH_SIZE && (mail = pending.poll()) != null)
+            {
+                batch.add(mail);
+            }
+            if (batch.isEmpty())
+            {
+                return;
+            }
+            try
+            {
+                send(batch);
+            }
+            finally
+            {
+                unfinished.addAndGet(-batch.size());
+            }
+        }
+    }
+
+    private void send(List<AllocationMail> batch)
+    {
+        final MailToUserImpl mailToUser = mailToUserInterface.get();
+        final Map<AllocationMail, OutgoingMail> outgoingMails = new LinkedHashMap<>();
+        for (AllocationMail mail : batch)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Sending mail " + mail.toString());
+            logger.info("AllocationChange. Sending mail to " + mail.recipient);
+            try
+            {
+                final OutgoingMail outgoingMail = mailToUser.createMail(mail.recipient, mail.subject, mail.body);
+                if (outgoingMail != null)
+                {
+                    outgoingMails.put(mail, outgoingMail);
+                }
+                else
+                {
+                    // the user has no email address, so the mail can never be sent
+                    notificationStorage.markSent(mail);
+                }
+            }
+            catch (RaplaException ex)
+            {
+                failed(mail, ex);
+            }
+        }
+        if (outgoingMails.isEmpty())
+        {
+            return;
+        }
+        Map<OutgoingMail, MailException> failedMails;
+        try
+        {
+            failedMails = mailToUser.sendMails(outgoingMails.values());
+        }
+        catch (RaplaException ex)
+        {
+            for (AllocationMail mail : outgoingMails.keySet())
+            {
+                failed(mail, ex);
+            }
+            return;
+        }
+        for (Map.Entry<AllocationMail, OutgoingMail> entry : outgoingMails.entrySet())
+        {
+            final AllocationMail mail = entry.getKey();
+            final MailException cause = failedMails.get(entry.getValue());
+            if (cause != null)
+            {
+                failed(mail, cause);
+                continue;
+            }
+            try
+            {
+                notificationStorage.markSent(mail);
+                logger.info("AllocationChange. Mail sent.");
+            }
+            catch (RaplaException ex)
+            {
+                logger.error("Mail to " + mail.recipient + " sent but could not be removed from the queue. Cause: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private void failed(AllocationMail mail, RaplaException cause)
+    {
+        logger.error("Could not send mail to " + mail.recipient + " Cause: " + cause.getMessage(), cause);
+        try
+        {
+            notificationStorage.increateAndStoreRetryCount(mail);
+        }
+        catch (RaplaException ex)
+        {
+            logger.error("Could not store retry of mail to " + mail.recipient + " Cause: " + ex.getMessage(), ex);
+        }
+    }
+}
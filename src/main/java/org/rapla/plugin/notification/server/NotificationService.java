@@ -67,7 +67,6 @@ public class NotificationService implements ServerExtension
     static final String NOTIFICATION_LOCK_ID = "NOTIFICATION";
     private static final long VALID_LOCK = DateTools.MILLISECONDS_PER_MINUTE * 5;
     private final RaplaFacade raplaFacade;
-    private final Provider<MailToUserImpl> mailToUserInterface;
     protected CommandScheduler scheduler;
     private final AppointmentFormater appointmentFormater;
     private final NotificationResources notificationI18n;
@@ -76,6 +75,8 @@ public class NotificationService implements ServerExtension
 
     private final Logger logger;
     private final NotificationStorage notificationStorage;
+    private final NotificationSubscriptions subscriptions;
+    private final MailQueue mailQueue;
     private List<Disposable> scheduleList = new ArrayList<>();
 
     @Inject
@@ -89,12 +90,12 @@ public class NotificationService implements ServerExtension
         this.notificationStorage = notificationStorage;
         this.logger = logger.getChildLogger("notification");
         //setChildBundleName( NotificationPlugin.RESOURCE_FILE );
-        this.mailToUserInterface = mailToUserInterface;
         this.scheduler = scheduler;
         //raplaFacade.addAllocationChangedListener(this);
         this.appointmentFormater = appointmentFormater;
         this.operator = (CachableStorageOperator) facade.getOperator();
-
+        this.subscriptions = new NotificationSubscriptions(facade);
+        this.mailQueue = new MailQueue(notificationStorage, mailToUserInterface, this.logger);
     }
 
     @Override
@@ -129,12 +130,18 @@ public class NotificationService implements ServerExtension
         scheduleList.add( scheduler.schedule( sentUpdateMails,0,30000l));
         Action retryMails = () ->
         {
+            if (!mailQueue.isIdle())
+            {
+                // the storage must keep the mails of the queue until they are sent
+                return;
+            }
             Date lastUpdated = null;
             try
             {
                 lastUpdated = operator.requestLock(NOTIFICATION_LOCK_ID, VALID_LOCK);
-                final Collection<AllocationMail> mailsToSend = notificationStorage.getMailsToSend();
-                sendMails(mailsToSend);
+                // the mails are claimed in the storage before the lock is released
+                final Collection<AllocationMail> mailsToSend = notificationStorage.claimMailsToSend();
+                mailQueue.add(mailsToSend);
             }
             catch (Throwable t)
             {
@@ -154,6 +161,7 @@ public class NotificationService implements ServerExtension
     public void stop()
     {
         scheduleList.forEach(Disposable::dispose);
+        mailQueue.shutdown();
     }
 
     protected Logger getLogger()
@@ -171,13 +179,18 @@ public class NotificationService implements ServerExtension
         try
         {
             getLogger().debug("Mail check triggered");
-            User[] users = raplaFacade.getUsers();
+            subscriptions.update(updateResult);
+            // only the users that listen to one of the changed allocatables are checked
+            final Set<ReferenceInfo<Allocatable>> changedAllocatables = new HashSet<>();
+            for (AllocationChangeEvent event : AllocationChangeFinder.getTriggerEvents(updateResult, null, logger, operator))
+            {
+                changedAllocatables.add(event.getAllocatable().getReference());
+            }
             List<AllocationMail> mailList = new ArrayList<>();
-            // we check for each user if a mail must be sent
-            for (int i = 0; i < users.length; i++)
+            for (ReferenceInfo<User> userRef : subscriptions.getSubscribers(changedAllocatables))
             {
-                User user = users[i];
-                if (user.getEmail().trim().length() == 0)
+                User user = raplaFacade.tryResolve(userRef);
+                if (user == null || user.getEmail().trim().length() == 0)
                     continue;
 
                 Preferences preferences = raplaFacade.getPreferences(user);
@@ -206,40 +219,20 @@ public class NotificationService implements ServerExtension
             }
             if (!mailList.isEmpty())
             {
+                // the insert time stored with the lock held keeps the mails from being due for a retry on another server
                 notificationStorage.store(mailList);
-                sendMails(mailList);
+                // the mail server is not contacted while holding the notification lock
+                mailQueue.add(mailList);
             }
         }
         catch (RaplaException ex)
         {
+            // the index is built again with the next update
+            subscriptions.clear();
             getLogger().error("Can't trigger notification service." + ex.getMessage(), ex);
         }
     }
 
-    private void sendMails(Collection<AllocationMail> mails) throws RaplaException
-    {
-        Iterator<AllocationMail> it = mails.iterator();
-        while (it.hasNext())
-        {
-            AllocationMail mail = it.next();
-            if (getLogger().isDebugEnabled())
-                getLogger().debug("Sending mail " + mail.toString());
-            getLogger().info("AllocationChange. Sending mail to " + mail.recipient);
-            try
-            {
-
-                mailToUserInterface.get().sendMail(mail.recipient, mail.subject, mail.body);
-                notificationStorage.markSent(mail);
-                getLogger().info("AllocationChange. Mail sent.");
-            }
-            catch (RaplaException ex)
-            {
-                getLogger().error("Could not send mail to " + mail.recipient + " Cause: " + ex.getMessage(), ex);
-                notificationStorage.increateAndStoreRetryCount(mail);
-            }
-        }
-    }
-
     AllocationMail getAllocationMail(Collection<Allocatable> allocatablesTheUsersListensTo, UpdateResult updateResult, User owner, boolean notifyIfOwner)
             throws RaplaException
     {
@@ -524,11 +517,13 @@ public class NotificationService implements ServerExtension
         buf.append(")");
     }
 
-    class AllocationMail
+    static class AllocationMail
     {
         String recipient;
         String subject;
         String body;
+        // the id of the entry in the NotificationStorage, not part of the stored data
+        transient String exportId;
 
         public String toString()
         {
@@ -20,19 +20,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+/** Persistent queue of the notification mails that are not sent yet. A mail that could not be sent is tried again after
+ * {@link #getRetryDelay(int)}, which doubles with each failed try. */
 @Singleton
 public class NotificationStorage
 {
+    static final long FIRST_RETRY_DELAY = DateTools.MILLISECONDS_PER_MINUTE * 10;
+    static final long MAX_RETRY_DELAY = DateTools.MILLISECONDS_PER_DAY;
     private final CachableStorageOperator operator;
     private final RaplaFacade facade;
     private final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+    // the last known version of the stored mails. The mails refer to their entry with the exportId
     private  Map<String, ImportExportEntity> exportMails = new LinkedHashMap<>();
-    private final Map<AllocationMail, String> mailToRaplaId = new LinkedHashMap<>();
 
     public static class NotificationContext
     {
         private int retryCount = 0;
         private long insertTimestamp;
+        // 0 for mails stored by older versions and mails that were not tried yet
+        private long lastTryTimestamp;
     }
 
     @Inject
@@ -42,30 +48,59 @@ public class NotificationStorage
         this.operator = (CachableStorageOperator) facade.getOperator();
     }
 
-    public synchronized Collection<AllocationMail> getMailsToSend() throws RaplaException
+    /** Returns the mails that are due and stores the current time as their last try, so they are not due again before
+     * {@link #getRetryDelay(int)} has passed. Call it while holding the notification lock, then another server does not send
+     * the mails again while they are still in the mail queue. */
+    public Collection<AllocationMail> claimMailsToSend() throws RaplaException
+    {
+        return claimMailsToSend(System.currentTimeMillis());
+    }
+
+    synchronized Collection<AllocationMail> claimMailsToSend(long currentTimeMillis) throws RaplaException
     {
-        exportMails.clear();
-        mailToRaplaId.clear();
         final ArrayList<AllocationMail> result = new ArrayList<>();
-        exportMails = operator.getImportExportEntities(NotificationService.NOTIFICATION_LOCK_ID,
-                ImportExportDirections.EXPORT);
-        final long currentTimeMillis = System.currentTimeMillis();
+        final ArrayList<Entity> toStore = new ArrayList<>();
+        // the operator can return its own map. The mails in the queue keep their id, so they can still be removed when they are sent
+        exportMails = new LinkedHashMap<>(operator.getImportExportEntities(NotificationService.NOTIFICATION_LOCK_ID,
+                ImportExportDirections.EXPORT));
         for (ImportExportEntity exportMailDb : exportMails.values())
         {
             final AllocationMail mail = gson.fromJson(exportMailDb.getData(), AllocationMail.class);
-            final String id = exportMailDb.getId();
-            mailToRaplaId.put(mail, id);
+            mail.exportId = exportMailDb.getId();
             final NotificationContext context = gson.fromJson(exportMailDb.getContext(), NotificationContext.class);
-            final long nextTime = context.insertTimestamp + (context.retryCount + 1) * DateTools.MILLISECONDS_PER_MINUTE * 10;
+            final long lastTry = context.lastTryTimestamp > 0 ? context.lastTryTimestamp : context.insertTimestamp;
+            final long nextTime = lastTry + getRetryDelay(context.retryCount);
             if (nextTime < currentTimeMillis)
             {
+                context.lastTryTimestamp = currentTimeMillis;
+                final ImportExportEntityImpl edit = (ImportExportEntityImpl) facade.edit(exportMailDb);
+                edit.setContext(gson.toJson(context));
+                toStore.add(edit);
                 result.add(mail);
             }
         }
+        if (!toStore.isEmpty())
+        {
+            facade.storeObjects(toStore.toArray(Entity.ENTITY_ARRAY));
+            for (Entity edit : toStore)
+            {
+                exportMails.put(edit.getId(), (ImportExportEntity) edit);
+            }
+        }
         return result;
     }
 
-    public void store(List<AllocationMail> mailList) throws RaplaException
+    /** @return the time to wait after the last try of a mail that has failed retryCount times */
+    static long getRetryDelay(int retryCount)
+    {
+        if (retryCount >= 16)
+        {
+            return MAX_RETRY_DELAY;
+        }
+        return Math.min(FIRST_RETRY_DELAY << retryCount, MAX_RETRY_DELAY);
+    }
+
+    public synchronized void store(List<AllocationMail> mailList) throws RaplaException
     {
         final ArrayList<Entity> toStore = new ArrayList<>();
         for (AllocationMail allocationMail : mailList)
@@ -84,51 +119,34 @@ public class NotificationStorage
             importExportEntityImpl.setContext(gson.toJson(context));
             toStore.add(importExportEntityImpl);
             exportMails.put(raplaId, importExportEntityImpl);
-            mailToRaplaId.put(allocationMail, raplaId);
+            allocationMail.exportId = raplaId;
         }
         facade.storeObjects(toStore.toArray(Entity.ENTITY_ARRAY));
     }
 
-    public void increateAndStoreRetryCount(AllocationMail mail) throws RaplaException
+    public synchronized void increateAndStoreRetryCount(AllocationMail mail) throws RaplaException
     {
-        for (AllocationMail knownMail : mailToRaplaId.keySet())
+        final String exportId = mail.exportId;
+        final ImportExportEntity importExportEntity = exportId != null ? exportMails.get(exportId) : null;
+        if (importExportEntity != null)
         {
-            if (knownMail.subject.equals(mail.subject) && knownMail.recipient.equals(mail.recipient) && knownMail.body.equals(mail.body))
-            {
-                final String exportId = mailToRaplaId.get(knownMail);
-                final ImportExportEntity importExportEntity = exportMails.get(exportId);
-                if (importExportEntity != null)
-                {
-                    final NotificationContext context = gson.fromJson(importExportEntity.getContext(), NotificationContext.class);
-                    context.retryCount++;
-                    final ImportExportEntityImpl edit = (ImportExportEntityImpl) facade.edit(importExportEntity);
-                    edit.setContext(gson.toJson(context));
-                    facade.store(importExportEntity);
-                }
-            }
+            final NotificationContext context = gson.fromJson(importExportEntity.getContext(), NotificationContext.class);
+            context.retryCount++;
+            context.lastTryTimestamp = System.currentTimeMillis();
+            final ImportExportEntityImpl edit = (ImportExportEntityImpl) facade.edit(importExportEntity);
+            edit.setContext(gson.toJson(context));
+            facade.store(edit);
+            exportMails.put(exportId, edit);
         }
     }
 
     public synchronized void markSent(AllocationMail mail) throws RaplaException
     {
-        AllocationMail allocMailToRemove = null;
-        for (AllocationMail knownMail : mailToRaplaId.keySet())
-        {
-            if (knownMail.subject.equals(mail.subject) && knownMail.recipient.equals(mail.recipient) && knownMail.body.equals(mail.body))
-            {
-                final String exportId = mailToRaplaId.get(knownMail);
-                final ImportExportEntity importExportEntity = exportMails.get(exportId);
-                if (importExportEntity != null)
-                {
-                    facade.remove(importExportEntity);
-                    allocMailToRemove = knownMail;
-                    exportMails.remove(exportId);
-                }
-            }
-        }
-        if (allocMailToRemove != null)
+        final String exportId = mail.exportId;
+        final ImportExportEntity importExportEntity = exportId != null ? exportMails.remove(exportId) : null;
+        if (importExportEntity != null)
         {
-            mailToRaplaId.remove(allocMailToRemove);
+            facade.remove(importExportEntity);
         }
     }
 
@@ -0,0 +1,158 @@
+package org.rapla.plugin.notification.server;
+
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.configuration.RaplaMap;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.RaplaException;
+import org.rapla.plugin.notification.NotificationPlugin;
+import org.rapla.storage.UpdateOperation;
+import org.rapla.storage.UpdateResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Index from the allocatables to the users that listen to their changes, see {@link NotificationPlugin#ALLOCATIONLISTENERS_CONFIG}.
+ * The index is built from the preferences of all users once and then updated with the preferences changed in each {@link UpdateResult}.
+ * If an update result does not start where the last one ended, e.g. because another server sent the notifications in between, the index is built again.
+ */
+final class NotificationSubscriptions
+{
+    private final RaplaFacade raplaFacade;
+    private final Map<ReferenceInfo<Allocatable>, Set<ReferenceInfo<User>>> usersByAllocatable = new HashMap<>();
+    private final Map<ReferenceInfo<User>, Set<ReferenceInfo<Allocatable>>> allocatablesByUser = new HashMap<>();
+    // the time until the changes are contained in the index, null if the index is not built
+    private Date validUntil;
+
+    NotificationSubscriptions(RaplaFacade raplaFacade)
+    {
+        this.raplaFacade = raplaFacade;
+    }
+
+    /** brings the index up to date with the changes of the update result*/
+    synchronized void update(UpdateResult updateResult) throws RaplaException
+    {
+        final Date since = updateResult.getSince();
+        if (validUntil == null || since == null || !since.equals(validUntil))
+        {
+            rebuild();
+        }
+        else
+        {
+            final Set<ReferenceInfo<User>> changedUsers = new LinkedHashSet<>();
+            for (UpdateOperation operation : updateResult.getOperations())
+            {
+                final ReferenceInfo reference = operation.getReference();
+                final Class type = reference.getType();
+                if (type == Preferences.class)
+                {
+                    final Preferences preferences = (Preferences) updateResult.getLastKnown(reference);
+                    final ReferenceInfo<User> ownerRef = preferences != null ? preferences.getOwnerRef() : null;
+                    if (ownerRef != null)
+                    {
+                        changedUsers.add(ownerRef);
+                    }
+                }
+                else if (type == User.class)
+                {
+                    changedUsers.add(reference);
+                }
+            }
+            for (ReferenceInfo<User> userRef : changedUsers)
+            {
+                final User user = raplaFacade.tryResolve(userRef);
+                put(userRef, user != null ? getSubscribedAllocatables(user) : Collections.emptySet());
+            }
+        }
+        validUntil = updateResult.getUntil();
+    }
+
+    /** @return the users that listen to at least one of the allocatables */
+    synchronized Set<ReferenceInfo<User>> getSubscribers(Collection<ReferenceInfo<Allocatable>> allocatables)
+    {
+        final Set<ReferenceInfo<User>> result = new LinkedHashSet<>();
+        for (ReferenceInfo<Allocatable> allocatable : allocatables)
+        {
+            final Set<ReferenceInfo<User>> users = usersByAllocatable.get(allocatable);
+            if (users != null)
+            {
+                result.addAll(users);
+            }
+        }
+        return result;
+    }
+
+    synchronized void clear()
+    {
+        usersByAllocatable.clear();
+        allocatablesByUser.clear();
+        validUntil = null;
+    }
+
+    private void rebuild() throws RaplaException
+    {
+        usersByAllocatable.clear();
+        allocatablesByUser.clear();
+        for (User user : raplaFacade.getUsers())
+        {
+            put(user.getReference(), getSubscribedAllocatables(user));
+        }
+    }
+
+    private Set<ReferenceInfo<Allocatable>> getSubscribedAllocatables(User user) throws RaplaException
+    {
+        final Preferences preferences = raplaFacade.getPreferences(user);
+        if (preferences == null)
+        {
+            return Collections.emptySet();
+        }
+        final RaplaMap<Allocatable> allocatableMap = preferences.getEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG);
+        if (allocatableMap == null)
+        {
+            return Collections.emptySet();
+        }
+        final Set<ReferenceInfo<Allocatable>> result = new HashSet<>();
+        for (Allocatable allocatable : allocatableMap.values())
+        {
+            result.add(allocatable.getReference());
+        }
+        return result;
+    }
+
+    private void put(ReferenceInfo<User> userRef, Set<ReferenceInfo<Allocatable>> allocatables)
+    {
+        final Set<ReferenceInfo<Allocatable>> oldAllocatables = allocatablesByUser.remove(userRef);
+        if (oldAllocatables != null)
+        {
+            for (ReferenceInfo<Allocatable> allocatable : oldAllocatables)
+            {
+                final Set<ReferenceInfo<User>> users = usersByAllocatable.get(allocatable);
+                if (users != null)
+                {
+                    users.remove(userRef);
+                    if (users.isEmpty())
+                    {
+                        usersByAllocatable.remove(allocatable);
+                    }
+                }
+            }
+        }
+        if (allocatables.isEmpty())
+        {
+            return;
+        }
+        allocatablesByUser.put(userRef, allocatables);
+        for (ReferenceInfo<Allocatable> allocatable : allocatables)
+        {
+            usersByAllocatable.computeIfAbsent(allocatable, key -> new HashSet<>()).add(userRef);
+        }
+    }
+}
@@ -7,14 +7,29 @@ import org.rapla.components.util.DateTools;
 import org.rapla.facade.CalendarModel;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
+/** The values of the cells are computed when they are requested, so that a large table only computes the visible cells.
+ * The computed values are kept in windows of {@link #WINDOW_SIZE} rows and the {@link #MAX_CACHED_WINDOWS} last used windows are kept.
+ * A window holds the cells of all columns, so a sorted view that shows rows from many windows does not evict the windows it paints.
+ */
 @JsType
 public class RaplaTableModel<T>
 {
+    static final int WINDOW_SIZE = 64;
+    static final int MAX_CACHED_WINDOWS = 256;
+
     private List<T> rows = new ArrayList<>();
     private RaplaTableColumn<T>[] columns;
-    private List<Object[]> data = new ArrayList<>();
+    private static final Object NOT_COMPUTED = new Object();
+    // the key is the window index, the values are indexed by column and row in the window
+    private final Map<Integer, Object[][]> windows = new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest)
+        {
+            return size() > MAX_CACHED_WINDOWS;
+        }
+    };
     private List<String> columnNames = new ArrayList<>();
 
     public RaplaTableModel( Collection<RaplaTableColumn<T>> columnPlugins) {
@@ -66,11 +81,10 @@ public class RaplaTableModel<T>
         return columnNames;
     }
 
-    public RaplaTableModel<T> setObjects(List<T> objects)
+    public synchronized RaplaTableModel<T> setObjects(List<T> objects)
     {
-        data = objects.stream().parallel()
-                .map((obj) -> Arrays.stream(columns).map((column) -> column.getValue(obj)).toArray()).collect(Collectors.toList());
-        this.rows = objects;
+        this.rows = objects instanceof RandomAccess ? objects : new ArrayList<>(objects);
+        windows.clear();
         return this;
     }
 
@@ -83,30 +97,66 @@ public class RaplaTableModel<T>
     }
     
     public Object[][] getAllRows() {
-        if (data == null) {
-            return new Object[0][0];
+        final List<T> rows = this.rows;
+        final Object[][] result = new Object[rows.size()][];
+        for (int i = 0; i < result.length; i++)
+        {
+            // computed without the cache, so the windows of the visible rows are kept
+            final T row = rows.get(i);
+            final Object[] rowData = new Object[columns.length];
+            for (int column = 0; column < columns.length; column++)
+            {
+                rowData[column] = columns[column].getValue(row);
+            }
+            result[i] = rowData;
         }
-        return data.toArray(new Object[data.size()][columns.length]);
+        return result;
     }
     
     public int getRowCount() {
-        if ( data != null)
-            return data.size();
-        else
-            return 0;
+        return rows.size();
     }
 
 
-    public Object getValueAt( int rowIndex, int columnIndex )
+    public synchronized Object getValueAt( int rowIndex, int columnIndex )
     {
-        final Object[] rowData = data.get(rowIndex);
-        final Object o = rowData[columnIndex];
-        return o;
+        if (rowIndex < 0 || rowIndex >= rows.size())
+        {
+            throw new IndexOutOfBoundsException("Row " + rowIndex + " not in table with " + rows.size() + " rows");
+        }
+        final int window = rowIndex / WINDOW_SIZE;
+        final int windowStart = window * WINDOW_SIZE;
+        Object[][] columnValues = windows.get(window);
+        if (columnValues == null)
+        {
+            columnValues = new Object[columns.length][];
+            windows.put(window, columnValues);
+        }
+        Object[] values = columnValues[columnIndex];
+        if (values == null)
+        {
+            values = new Object[Math.min(WINDOW_SIZE, rows.size() - windowStart)];
+            Arrays.fill(values, NOT_COMPUTED);
+            columnValues[columnIndex] = values;
+        }
+        Object value = values[rowIndex - windowStart];
+        if (value == NOT_COMPUTED)
+        {
+            // only the requested cell is computed, the rows of a sorted view are spread over many windows
+            value = columns[columnIndex].getValue(rows.get(rowIndex));
+            values[rowIndex - windowStart] = value;
+        }
+        return value;
     }
     
     public Object[] getRowData( int rowIndex)
     {
-        return data.get(rowIndex);
+        final Object[] rowData = new Object[columns.length];
+        for (int column = 0; column < columns.length; column++)
+        {
+            rowData[column] = getValueAt(rowIndex, column);
+        }
+        return rowData;
     }
     
     public Class<?> getColumnClass(int columnIndex) {
@@ -117,7 +167,7 @@ public class RaplaTableModel<T>
     @Override
     public String toString()
     {
-        return data.toString();
+        return rows.toString();
     }
 
     private static final String LINE_BREAK = "\n";
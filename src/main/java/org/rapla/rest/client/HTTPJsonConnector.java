@@ -2,7 +2,30 @@ package org.rapla.rest.client;
 
 import org.rapla.rest.client.swing.HTTPWithJsonConnector;
 
-@Deprecated
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Requests compressed responses from the server. The server only compresses json responses and only if the request accepts gzip.*/
 public class HTTPJsonConnector extends HTTPWithJsonConnector
 {
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    @Override
+    public CallResult sendCallWithString(String requestMethod, URL methodURL, String body, String authenticationToken, String contentType,
+            Map<String, String> additionalHeaders) throws IOException
+    {
+        final Map<String, String> headers = new LinkedHashMap<>();
+        if (additionalHeaders != null)
+        {
+            headers.putAll(additionalHeaders);
+        }
+        if (!headers.containsKey(ACCEPT_ENCODING))
+        {
+            // the response is unpacked by the connector according to the content encoding
+            headers.put(ACCEPT_ENCODING, "gzip");
+        }
+        return super.sendCallWithString(requestMethod, methodURL, body, authenticationToken, contentType, headers);
+    }
 }
@@ -75,6 +75,8 @@ import java.util.stream.Collectors;
     @Inject RaplaResources i18n;
     @Inject Provider<MailInterface> mailInterface;
     @Inject UpdateDataManager updateDataManager;
+    /** the maximum time a client can wait in refreshWhenChanged */
+    static final int MAX_REFRESH_WAIT_SECONDS = 60;
     private final HttpServletRequest request;
 
     @Inject public RemoteStorageImpl(@Context HttpServletRequest request)
@@ -449,6 +451,35 @@ import java.util.stream.Collectors;
         }
     }
 
+    @Override
+    public Promise<UpdateEvent> refreshWhenChanged(String lastSyncedTime, int timeoutSeconds)
+    {
+        try
+        {
+            checkSessionUser();
+            final Date clientRepoVersion = SerializableDateTimeFormat.INSTANCE.parseTimestamp(lastSyncedTime);
+            final int timeout = Math.max(0, Math.min(timeoutSeconds, MAX_REFRESH_WAIT_SECONDS));
+            if (!operator.waitForUpdate(clientRepoVersion, timeout * 1000L))
+            {
+                // on timeout or if too many clients are waiting, the client only gets the new timestamp without calculating the changes
+                final Date unchangedUntil = operator.getUnchangedUntil(clientRepoVersion);
+                if (unchangedUntil != null)
+                {
+                    return new ResolvedPromise<>(updateDataManager.createEmptyUpdateEvent(unchangedUntil));
+                }
+            }
+            return new ResolvedPromise<>(refreshSync(lastSyncedTime));
+        }
+        catch (ParseDateException e)
+        {
+            return new ResolvedPromise<>(new RaplaException("Illegal last synced date " + lastSyncedTime + " caused " + e.getMessage(), e));
+        }
+        catch (RaplaException e)
+        {
+            return new ResolvedPromise<>(e);
+        }
+    }
+
     public Logger getLogger()
     {
         return session.getLogger();
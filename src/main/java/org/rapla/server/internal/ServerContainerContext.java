@@ -79,13 +79,18 @@ public class ServerContainerContext
     }
     
     public boolean isServiceEnabled(String serviceKey)
+    {
+        return isServiceEnabled(serviceKey, true);
+    }
+
+    public boolean isServiceEnabled(String serviceKey, boolean defaultValue)
     {
         if(services.containsKey(serviceKey))
         {
             final String s = services.get(serviceKey);
             return Boolean.valueOf( s );
         }
-        return true;
+        return defaultValue;
     }
 
 
@@ -12,7 +12,9 @@ import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.ImportExportManager;
 import org.rapla.storage.dbfile.FileOperator;
 import org.rapla.storage.dbsql.DBOperator;
+import org.rapla.storage.impl.server.EntityHistory;
 import org.rapla.storage.impl.server.ImportExportManagerImpl;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -56,7 +58,14 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         final String raplafile = containerContext.getMainFilesource();
         final String fileDatasource = raplafile != null ? raplafile : "data/data.xml";
-        return new FileOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, fileDatasource, permissionExtensions);
+        final FileOperator fileOperator = new FileOperator(logger, promiseWait, i18n, raplaLocale, scheduler, functionFactoryMap, fileDatasource, permissionExtensions);
+        // journal mode is enabled with filejournal=true in the raplaservices entry
+        fileOperator.setJournalEnabled(containerContext.isServiceEnabled(FileOperator.JOURNAL_SERVICE, false));
+        // binary snapshot is enabled with filesnapshot=true. An export from the database then writes the snapshot, too
+        fileOperator.setSnapshotEnabled(containerContext.isServiceEnabled(FileOperator.SNAPSHOT_SERVICE, false));
+        setHistoryMemoryBudget(fileOperator);
+        setQueryParallelism(fileOperator);
+        return fileOperator;
     }
 
     synchronized private ImportExportManager getImportExport()
@@ -77,7 +86,30 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         Provider<ImportExportManager> importExportMananger = getImportExportManager();
         final DataSource dbDatasource = containerContext.getMainDbDatasource();
-        return new DBOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        final DBOperator dbOperator = new DBOperator(logger, promiseWait, i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        // parallel load is enabled with dbparallelload=true in the raplaservices entry
+        dbOperator.setParallelLoad(containerContext.isServiceEnabled(DBOperator.PARALLEL_LOAD_SERVICE, false));
+        setHistoryMemoryBudget(dbOperator);
+        setQueryParallelism(dbOperator);
+        return dbOperator;
+    }
+
+    private void setHistoryMemoryBudget(LocalAbstractCachableOperator operator)
+    {
+        // moving old history to disk is enabled with historyoverflow=true in the raplaservices entry
+        if (containerContext.isServiceEnabled(EntityHistory.OVERFLOW_SERVICE, false))
+        {
+            operator.setHistoryMemoryBudget(EntityHistory.DEFAULT_MEMORY_BUDGET);
+        }
+    }
+
+    private void setQueryParallelism(LocalAbstractCachableOperator operator)
+    {
+        // evaluating appointment queries on all processors is enabled with parallelquery=true in the raplaservices entry
+        if (containerContext.isServiceEnabled(LocalAbstractCachableOperator.PARALLEL_QUERY_SERVICE, false))
+        {
+            operator.setQueryParallelism(Runtime.getRuntime().availableProcessors());
+        }
     }
 
 
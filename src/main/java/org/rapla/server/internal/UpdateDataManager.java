@@ -12,4 +12,7 @@ import java.util.Date;
 public interface UpdateDataManager
 {
     UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException;
+
+    /** creates an update event without changes for a client that has all changes until lastValidated */
+    UpdateEvent createEmptyUpdateEvent(Date lastValidated);
 }
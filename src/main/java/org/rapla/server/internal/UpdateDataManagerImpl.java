@@ -115,6 +115,21 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         return currentInterval;
     }
 
+    private int getTimezoneOffset(Date currentTimestamp)
+    {
+        TimeZone systemTimeZone = operator.getTimeZone();
+        return TimeZoneConverterImpl.getOffset(IOUtil.getTimeZone(), systemTimeZone, currentTimestamp.getTime());
+    }
+
+    @Override
+    public UpdateEvent createEmptyUpdateEvent(Date lastValidated)
+    {
+        final UpdateEvent event = new UpdateEvent();
+        event.setTimezoneOffset(getTimezoneOffset(operator.getCurrentTimestamp()));
+        event.setLastValidated(lastValidated);
+        return event;
+    }
+
     public UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException
     {
         Date currentTimestamp = operator.getCurrentTimestamp();
@@ -127,9 +142,7 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
             lastSynced = currentTimestamp;
         }
         final UpdateEvent safeResultEvent = new UpdateEvent();
-        TimeZone systemTimeZone = operator.getTimeZone();
-        int timezoneOffset = TimeZoneConverterImpl.getOffset(IOUtil.getTimeZone(), systemTimeZone, currentTimestamp.getTime());
-        safeResultEvent.setTimezoneOffset(timezoneOffset);
+        safeResultEvent.setTimezoneOffset(getTimezoneOffset(currentTimestamp));
         TimeInterval timeInterval= null;
         final UpdateResult updateResult = operator.getUpdateResult(lastSynced, user);
         safeResultEvent.setLastValidated(updateResult.getUntil());
@@ -0,0 +1,132 @@
+package org.rapla.server.provider.resteasy;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/** Compresses json responses with gzip, if the client accepts it.
+ * The compressed bytes are written to the response while the entity is serialized, so the response is not buffered.
+ */
+@Provider
+public class GzipEncodingInterceptor implements WriterInterceptor
+{
+    static final String GZIP = "gzip";
+    private static final int BUFFER_SIZE = 8192;
+
+    @Context
+    HttpHeaders httpHeaders;
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException
+    {
+        final MediaType mediaType = context.getMediaType();
+        final MultivaluedMap<String, Object> headers = context.getHeaders();
+        if (mediaType == null || !MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType) || headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+                || !acceptsGzip(httpHeaders != null ? httpHeaders.getRequestHeader(HttpHeaders.ACCEPT_ENCODING) : null))
+        {
+            context.proceed();
+            return;
+        }
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        final OutputStream original = context.getOutputStream();
+        final GZIPOutputStream gzipStream = new GZIPOutputStream(new UncloseableOutputStream(original), BUFFER_SIZE);
+        context.setOutputStream(gzipStream);
+        try
+        {
+            context.proceed();
+        }
+        finally
+        {
+            // writes the trailer, the servlet container closes the response stream
+            gzipStream.finish();
+            context.setOutputStream(original);
+        }
+    }
+
+    static boolean acceptsGzip(List<String> acceptEncodingHeaders)
+    {
+        if (acceptEncodingHeaders == null)
+        {
+            return false;
+        }
+        for (String header : acceptEncodingHeaders)
+        {
+            for (String encoding : header.split(","))
+            {
+                final String[] parts = encoding.trim().split(";");
+                final String name = parts[0].trim();
+                if (!name.equalsIgnoreCase(GZIP) && !name.equals("*"))
+                {
+                    continue;
+                }
+                boolean disabled = false;
+                for (int i = 1; i < parts.length; i++)
+                {
+                    final String parameter = parts[i].trim().replace(" ", "");
+                    if (parameter.startsWith("q="))
+                    {
+                        try
+                        {
+                            disabled = Double.parseDouble(parameter.substring(2)) <= 0;
+                        }
+                        catch (NumberFormatException ex)
+                        {
+                            disabled = true;
+                        }
+                    }
+                }
+                if (!disabled)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static class UncloseableOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+
+        UncloseableOutputStream(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            // the json writer closes the stream after the entity, but the gzip trailer is written afterwards
+            out.flush();
+        }
+    }
+}
@@ -50,6 +50,14 @@ public interface CachableStorageOperator extends StorageOperator {
     UpdateResult getUpdateResult(Date since) throws RaplaException;
     UpdateResult getUpdateResult(Date since,User user) throws RaplaException;
 
+    /** blocks until the data was changed after the passed timestamp or the timeout is reached.
+     * @return true if there is a change after since and false on timeout, disconnect or if too many requests are already waiting */
+    boolean waitForUpdate(Date since, long timeoutMillis) throws RaplaException;
+
+    /** @return a timestamp not before since, until which nothing was changed after since, or null if there are changes after since
+     * or since is too old to tell. A client can use it as its last synced time without asking for the changes.*/
+    Date getUnchangedUntil(Date since) throws RaplaException;
+
     Date getHistoryValidStart();
     Date getConnectStart();
 
@@ -16,11 +16,14 @@ import org.rapla.components.util.Assert;
 import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.EntityNotFoundException;
+import org.rapla.entities.Ownable;
 import org.rapla.entities.User;
 import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.internal.PreferencesImpl;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Permission;
+import org.rapla.entities.domain.PermissionContainer;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.internal.AllocatableImpl;
 import org.rapla.entities.domain.internal.ReservationImpl;
@@ -31,8 +34,10 @@ import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.UserImpl;
 import org.rapla.entities.storage.EntityResolver;
+import org.rapla.entities.storage.IdPool;
 import org.rapla.entities.storage.ParentEntity;
 import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.entities.storage.internal.ReferenceHandler;
 import org.rapla.entities.storage.internal.SimpleEntity;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.internal.ConflictImpl;
@@ -40,10 +45,17 @@ import org.rapla.framework.RaplaException;
 
 import javax.inject.Provider;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class LocalCache implements EntityResolver
+public class LocalCache implements EntityResolver, IdPool
 {
+    /** the number of changed entities that are merged into a snapshot, before all entities are copied*/
+    static final int MAX_PENDING_CHANGES = 1024;
+
     Map<String, String> passwords = new HashMap<>();
+    // the type and attribute keys of the classifications, each key is only stored once
+    private final Map<String, String> sharedKeys = new HashMap<>();
     Map<String, Entity> entities;
 
     //Map<String,ConflictImpl> disabledConflicts = new HashMap<String,ConflictImpl>();
@@ -58,8 +70,20 @@ public class LocalCache implements EntityResolver
     Map<ReferenceInfo<Allocatable>, GraphNode> graph = new LinkedHashMap<>();
 
     private String clientUserId;
+    // see getNamesVersion
+    private final AtomicLong namesVersion = new AtomicLong();
     private final PermissionController permissionController;
 
+    // the changes since the last published snapshot, a null value marks a removed entity
+    private final Map<String, Entity> pendingChanges = new HashMap<>();
+    // set if there are too many pending changes or the cache was cleared. The next snapshot copies all entities
+    private boolean copyAllEntities = true;
+    private boolean usersChanged = true;
+    private boolean resourcesChanged = true;
+    private boolean dynamicTypesChanged = true;
+    private volatile boolean snapshotOutdated = true;
+    private volatile Snapshot snapshot;
+
     public LocalCache(PermissionController permissionController)
     {
         this.permissionController = permissionController;
@@ -69,6 +93,8 @@ public class LocalCache implements EntityResolver
         users = new LinkedHashMap<>();
         resources = new LinkedHashMap<>();
         dynamicTypes = new LinkedHashMap<>();
+        snapshot = new Snapshot(permissionController, namesVersion, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList());
         //initSuperCategory();
     }
 
@@ -104,6 +130,10 @@ public class LocalCache implements EntityResolver
         Class<? extends Entity> typeClass = info.getType();
         boolean bResult = true;
         bResult = entities.remove(entityId) != null;
+        if (entityId != null)
+        {
+            changed(entityId, null, typeClass);
+        }
         Map<String, ? extends Entity> entitySet = getMap(typeClass);
         if (entitySet != null)
         {
@@ -197,7 +227,23 @@ public class LocalCache implements EntityResolver
             }
         }
 
+        if (entity instanceof ReferenceHandler)
+        {
+            // the references use the id instances of the cached entities, so equal ids are only stored once
+            ((ReferenceHandler) entity).shareIds(this);
+        }
+        if (typeClass == DynamicType.class)
+        {
+            // the classifications use the key instances of the type
+            final DynamicType type = (DynamicType) entity;
+            getSharedKey(type.getKey());
+            for (Attribute attribute : type.getAttributeIterable())
+            {
+                getSharedKey(attribute.getKey());
+            }
+        }
         entities.put(entityId, entity);
+        changed(entityId, entity, typeClass);
         Map<String, Entity> entitySet = getMap(typeClass);
         if (entitySet != null)
         {
@@ -278,10 +324,131 @@ public class LocalCache implements EntityResolver
         resources.clear();
         dynamicTypes.clear();
         entities.clear();
+        sharedKeys.clear();
         disabledConflictApp1.clear();
         disabledConflictApp2.clear();
         conflictLastChanged.clear();
         graph.clear();
+        if (permissionController != null)
+        {
+            permissionController.clearCache();
+        }
+        synchronized (this)
+        {
+            pendingChanges.clear();
+            copyAllEntities = true;
+            usersChanged = true;
+            resourcesChanged = true;
+            dynamicTypesChanged = true;
+            snapshotOutdated = true;
+        }
+    }
+
+    private synchronized void changed(String entityId, Entity entity, Class<? extends Entity> typeClass)
+    {
+        snapshotOutdated = true;
+        if (permissionController != null)
+        {
+            // the groups of the users depend on the users and the category tree
+            if (typeClass == User.class || typeClass == Category.class)
+            {
+                permissionController.clearCache();
+            }
+            else
+            {
+                permissionController.removeFromCache(entityId);
+            }
+        }
+        if (typeClass == User.class)
+        {
+            usersChanged = true;
+        }
+        else if (typeClass == Allocatable.class)
+        {
+            resourcesChanged = true;
+        }
+        else if (typeClass == DynamicType.class)
+        {
+            dynamicTypesChanged = true;
+        }
+        if (copyAllEntities)
+        {
+            return;
+        }
+        if (pendingChanges.size() >= MAX_PENDING_CHANGES && !pendingChanges.containsKey(entityId))
+        {
+            // e.g. a complete load. Copying all entities is cheaper than merging
+            pendingChanges.clear();
+            copyAllEntities = true;
+            return;
+        }
+        pendingChanges.put(entityId, entity);
+    }
+
+    /** @return false if the cache was changed after the last {@link #publishSnapshot()}*/
+    public boolean isSnapshotUpToDate()
+    {
+        return !snapshotOutdated;
+    }
+
+    /** returns the last published snapshot. The snapshot can be read without a lock, but does not contain the changes
+     * of a writer that has not yet called {@link #publishSnapshot()}. Check {@link #isSnapshotUpToDate()} if you need them.*/
+    public Snapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /** Publishes the current state of the cache as new snapshot for the lock free readers.
+     * Call this at the end of a write, while still holding the write lock, so readers never see the changes of an unfinished write.
+     * Only the entities changed since the last snapshot are copied, until the changes get large compared to the cache, then all entities are copied.
+     */
+    public synchronized Snapshot publishSnapshot()
+    {
+        if (!snapshotOutdated)
+        {
+            return snapshot;
+        }
+        final Snapshot old = snapshot;
+        Map<String, Entity> base = old.base;
+        Map<String, Entity> changes;
+        if (copyAllEntities)
+        {
+            changes = null;
+        }
+        else
+        {
+            changes = new HashMap<>(old.changes);
+            changes.putAll(pendingChanges);
+            if (changes.size() > Math.max(MAX_PENDING_CHANGES, base.size() / 8))
+            {
+                changes = null;
+            }
+        }
+        if (changes == null)
+        {
+            base = Collections.unmodifiableMap(new HashMap<>(entities));
+            changes = Collections.emptyMap();
+        }
+        else
+        {
+            changes = Collections.unmodifiableMap(changes);
+        }
+        final Collection<User> snapshotUsers = usersChanged ? copy(getUsers()) : old.users;
+        final Collection<Allocatable> snapshotResources = resourcesChanged ? copy(getAllocatables()) : old.resources;
+        final Collection<DynamicType> snapshotDynamicTypes = dynamicTypesChanged ? copy(getDynamicTypes()) : old.dynamicTypes;
+        snapshot = new Snapshot(permissionController, namesVersion, base, changes, snapshotUsers, snapshotResources, snapshotDynamicTypes);
+        pendingChanges.clear();
+        copyAllEntities = false;
+        usersChanged = false;
+        resourcesChanged = false;
+        dynamicTypesChanged = false;
+        snapshotOutdated = false;
+        return snapshot;
+    }
+
+    private static <T> Collection<T> copy(Collection<T> collection)
+    {
+        return Collections.unmodifiableList(new ArrayList<>(collection));
     }
 
     public CategoryImpl getSuperCategory()
@@ -322,32 +489,34 @@ public class LocalCache implements EntityResolver
     }
 
     public List<Entity> getVisibleEntities(final User forUser)
+    {
+        return getVisibleEntities(forUser, this, getSuperCategory(), getDynamicTypes(), getUsers(), getAllocatables(), permissionController);
+    }
+
+    private static List<Entity> getVisibleEntities(final User forUser, EntityResolver resolver, CategoryImpl superCategory,
+            Collection<DynamicType> dynamicTypes, Collection<User> users, Collection<Allocatable> allocatables, PermissionController permissionController)
     {
         List<Entity> result = new ArrayList<>();
-        final CategoryImpl superCategory = getSuperCategory();
+        addSharedVisibleEntities(result, forUser, resolver, superCategory, dynamicTypes, users, allocatables, permissionController);
+        addOwnEntities(result, forUser, resolver);
+        return result;
+    }
+
+    /** adds the entities that are visible for all users with the same groups and admin flag as forUser. The own user object and preferences are not added*/
+    private static void addSharedVisibleEntities(List<Entity> result, final User forUser, EntityResolver resolver, CategoryImpl superCategory,
+            Collection<DynamicType> dynamicTypes, Collection<User> users, Collection<Allocatable> allocatables, PermissionController permissionController)
+    {
         result.addAll(CategoryImpl.getRecursive(superCategory));
-        result.addAll(getDynamicTypes());
+        result.addAll(dynamicTypes);
         final Collection<Category> adminGroups = forUser != null && !forUser.isAdmin() ?  PermissionController.getGroupsToAdmin(forUser) : Collections.emptyList();
-        for (User user : getUsers())
+        for (User user : users)
         {
-            boolean add = forUser == null || forUser.isAdmin() || forUser.getId().equals(user.getId());
-            if (!add && !user.isAdmin())
-            {
-                for (Category adminGroup : adminGroups)
-                {
-                    if (((UserImpl) user).isMemberOf(adminGroup) )
-                    {
-                        add = true;
-                        break;
-                    }
-                }
-            }
-            if (add)
+            if (isVisibleUser(forUser, adminGroups, user))
             {
                 result.add(user);
             }
         }
-        for (Allocatable alloc : getAllocatables())
+        for (Allocatable alloc : allocatables)
         {
             if (forUser == null || forUser.isAdmin() || permissionController.canReadOnlyInformation(alloc, forUser))
             {
@@ -356,24 +525,56 @@ public class LocalCache implements EntityResolver
         }
         // add system preferences
         {
-            PreferencesImpl preferences = getPreferencesForUserId(null);
+            PreferencesImpl preferences = (PreferencesImpl) resolver.tryResolve(PreferencesImpl.getPreferenceIdFromUser(null));
             if (preferences != null)
             {
                 result.add(preferences);
             }
         }
+    }
+
+    /** adds the user object of forUser, if its not already visible as member of an admin group, and the preferences of forUser*/
+    private static void addOwnEntities(List<Entity> result, final User forUser, EntityResolver resolver)
+    {
+        if (forUser == null)
+        {
+            return;
+        }
+        String userId = forUser.getId();
+        Assert.notNull(userId);
+        final Collection<Category> adminGroups = !forUser.isAdmin() ? PermissionController.getGroupsToAdmin(forUser) : Collections.emptyList();
+        final User user = resolver.tryResolve(forUser.getReference());
+        if (user != null && !isVisibleUser(forUser, adminGroups, user))
+        {
+            result.add(user);
+        }
         // add forUser preferences
-        if (forUser != null)
+        PreferencesImpl preferences = (PreferencesImpl) resolver.tryResolve(PreferencesImpl.getPreferenceIdFromUser(userId));
+        if (preferences != null)
         {
-            String userId = forUser.getId();
-            Assert.notNull(userId);
-            PreferencesImpl preferences = getPreferencesForUserId(userId);
-            if (preferences != null)
+            result.add(preferences);
+        }
+    }
+
+    /** checks if the user is visible for forUser without the rule that forUser can see itself*/
+    private static boolean isVisibleUser(User forUser, Collection<Category> adminGroups, User user)
+    {
+        if (forUser == null || forUser.isAdmin())
+        {
+            return true;
+        }
+        if (user.isAdmin())
+        {
+            return false;
+        }
+        for (Category adminGroup : adminGroups)
+        {
+            if (((UserImpl) user).isMemberOf(adminGroup))
             {
-                result.add(preferences);
+                return true;
             }
         }
-        return result;
+        return false;
     }
 
     @Override public <T extends Entity> T tryResolve(ReferenceInfo<T> referenceInfo)
@@ -404,6 +605,32 @@ public class LocalCache implements EntityResolver
         return casted;
     }
 
+    @Override
+    public long getNamesVersion()
+    {
+        return namesVersion.get();
+    }
+
+    /** is called when categories, types or resources are stored or removed, so the cached names of the classifications are formatted again */
+    public void invalidateNames()
+    {
+        namesVersion.incrementAndGet();
+    }
+
+    @Override
+    public String getSharedId(String id)
+    {
+        final Entity entity = entities.get(id);
+        return entity != null ? entity.getId() : id;
+    }
+
+    @Override
+    public String getSharedKey(String key)
+    {
+        final String sharedKey = sharedKeys.putIfAbsent(key, key);
+        return sharedKey != null ? sharedKey : key;
+    }
+
     public String getPassword(ReferenceInfo<User> userReferenceInfo)
     {
         return passwords.get(userReferenceInfo.getId());
@@ -514,6 +741,202 @@ public class LocalCache implements EntityResolver
         return disabled;
     }
 
+    /**
+     * Immutable state of the cache at the time of a {@link LocalCache#publishSnapshot()}. Can be used by any number of threads without a lock.
+     * The entities are stored as a base map plus the changes since the base was copied, so a publish does not need to copy the whole cache.
+     * Reservations, passwords and the conflict states are not part of the snapshot.
+     */
+    public static final class Snapshot implements EntityResolver
+    {
+        private final PermissionController permissionController;
+        // the version is shared with the cache, because the names don't depend on the state of the snapshot
+        private final AtomicLong namesVersion;
+        private final Map<String, Entity> base;
+        // a null value marks an entity removed since the base was copied
+        private final Map<String, Entity> changes;
+        private final Collection<User> users;
+        private final Collection<Allocatable> resources;
+        private final Collection<DynamicType> dynamicTypes;
+        // the shared visible entities for each permission class, see getPermissionClass
+        private final Map<String, List<Entity>> visibleEntitiesCache = new ConcurrentHashMap<>();
+        // the ids of the users that are referenced as owner or in a permission of a resource or type
+        private volatile Set<String> referencedUserIds;
+
+        private Snapshot(PermissionController permissionController, AtomicLong namesVersion, Map<String, Entity> base, Map<String, Entity> changes,
+                Collection<User> users, Collection<Allocatable> resources, Collection<DynamicType> dynamicTypes)
+        {
+            this.permissionController = permissionController;
+            this.namesVersion = namesVersion;
+            this.base = base;
+            this.changes = changes;
+            this.users = users;
+            this.resources = resources;
+            this.dynamicTypes = dynamicTypes;
+        }
+
+        public Entity get(String id)
+        {
+            if (id == null)
+                throw new RuntimeException("id is null");
+            final Entity changed = changes.get(id);
+            if (changed != null || changes.containsKey(id))
+            {
+                return changed;
+            }
+            return base.get(id);
+        }
+
+        @Override public <T extends Entity> T tryResolve(String id, Class<T> entityClass)
+        {
+            @SuppressWarnings("unchecked") T casted = (T) get(id);
+            return casted;
+        }
+
+        @Override public <T extends Entity> T tryResolve(ReferenceInfo<T> referenceInfo)
+        {
+            final Class<T> type = (Class<T>) referenceInfo.getType();
+            return tryResolve(referenceInfo.getId(), type);
+        }
+
+        @Override public <T extends Entity> T resolve(String id, Class<T> entityClass) throws EntityNotFoundException
+        {
+            T entity = tryResolve(id, entityClass);
+            SimpleEntity.checkResolveResult(id, entityClass, entity);
+            return entity;
+        }
+
+        @Override public <T extends Entity> T resolve(ReferenceInfo<T> referenceInfo) throws EntityNotFoundException
+        {
+            final Class<T> type = (Class<T>) referenceInfo.getType();
+            return resolve(referenceInfo.getId(), type);
+        }
+
+        @Override public DynamicType getDynamicType(String elementKey)
+        {
+            for (DynamicType dt : dynamicTypes)
+            {
+                if (dt.getKey().equals(elementKey))
+                    return dt;
+            }
+            return null;
+        }
+
+        @Override public long getNamesVersion()
+        {
+            return namesVersion.get();
+        }
+
+        public CategoryImpl getSuperCategory()
+        {
+            return (CategoryImpl) get(Category.SUPER_CATEGORY_REF.getId());
+        }
+
+        public Collection<User> getUsers()
+        {
+            return users;
+        }
+
+        public Collection<Allocatable> getAllocatables()
+        {
+            return resources;
+        }
+
+        public Collection<DynamicType> getDynamicTypes()
+        {
+            return dynamicTypes;
+        }
+
+        /** the shared part of the visible entities is calculated only once for all users with the same permission class*/
+        public List<Entity> getVisibleEntities(final User forUser)
+        {
+            final String permissionClass = getPermissionClass(forUser);
+            if (permissionClass == null)
+            {
+                return LocalCache.getVisibleEntities(forUser, this, getSuperCategory(), dynamicTypes, users, resources, permissionController);
+            }
+            final List<Entity> shared = visibleEntitiesCache.computeIfAbsent(permissionClass, (key) ->
+            {
+                final List<Entity> result = new ArrayList<>();
+                addSharedVisibleEntities(result, forUser, this, getSuperCategory(), dynamicTypes, users, resources, permissionController);
+                return Collections.unmodifiableList(result);
+            });
+            final List<Entity> result = new ArrayList<>(shared.size() + 2);
+            result.addAll(shared);
+            addOwnEntities(result, forUser, this);
+            return result;
+        }
+
+        /**
+         * Users with the same permission class see the same resources, types and users.
+         * Admins form one class and the other users are grouped by their groups. A user that owns a resource or a type, or is named
+         * directly in a permission of one, gets no class. If a permission extension is not group based, it can decide by other
+         * properties of the user, so only the request without a user gets a class.
+         * @return the permission class or null if the visible entities must be calculated for the user alone
+         */
+        private String getPermissionClass(User forUser)
+        {
+            final boolean groupBased = permissionController == null || permissionController.isGroupBased();
+            if (forUser == null)
+            {
+                return groupBased ? "admin" : "all";
+            }
+            if (!groupBased)
+            {
+                return null;
+            }
+            if (forUser.isAdmin())
+            {
+                return "admin";
+            }
+            if (getReferencedUserIds().contains(forUser.getId()))
+            {
+                return null;
+            }
+            final List<String> groupIds = new ArrayList<>(((UserImpl) forUser).getGroupIdList());
+            Collections.sort(groupIds);
+            return "groups:" + String.join(",", groupIds);
+        }
+
+        private Set<String> getReferencedUserIds()
+        {
+            Set<String> result = referencedUserIds;
+            if (result == null)
+            {
+                result = new HashSet<>();
+                addReferencedUserIds(result, resources);
+                addReferencedUserIds(result, dynamicTypes);
+                referencedUserIds = result;
+            }
+            return result;
+        }
+
+        private static void addReferencedUserIds(Set<String> result, Collection<? extends Entity> entities)
+        {
+            for (Entity entity : entities)
+            {
+                if (entity instanceof Ownable)
+                {
+                    final ReferenceInfo<User> ownerRef = ((Ownable) entity).getOwnerRef();
+                    if (ownerRef != null)
+                    {
+                        result.add(ownerRef.getId());
+                    }
+                }
+                if (entity instanceof PermissionContainer)
+                {
+                    for (Permission permission : ((PermissionContainer) entity).getPermissionList())
+                    {
+                        final String userId = permission.getUserId();
+                        if (userId != null)
+                        {
+                            result.add(userId);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     static class GraphNode
     {
         private final ReferenceInfo<Allocatable> alloc;
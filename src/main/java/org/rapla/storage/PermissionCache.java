@@ -0,0 +1,123 @@
+package org.rapla.storage;
+
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.internal.UserImpl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Results of the permission checks of the {@link PermissionController} for the read only entities of the cache.
+ * A result is stored for the version of the entity and the subject, e.g. the group set of the user, so users with the same groups share the results.
+ * The groups of a user including the parent groups are computed only once for each version of the user.
+ */
+final class PermissionCache
+{
+    // if more entities are cached, the cache is cleared
+    static final int MAX_ENTITIES = 100000;
+
+    static final class Subject
+    {
+        final User user;
+        /** the ids of the groups of the user including the parents*/
+        final Collection<String> groups;
+        /** the same for all users with the same groups*/
+        final String groupKey;
+
+        private Subject(User user)
+        {
+            this.user = user;
+            final Collection<String> groupsIncludingParents = UserImpl.getGroupsIncludingParents(user);
+            this.groups = Collections.unmodifiableCollection(groupsIncludingParents);
+            final List<String> sorted = new ArrayList<>(groupsIncludingParents);
+            Collections.sort(sorted);
+            this.groupKey = "groups:" + String.join(",", sorted);
+        }
+    }
+
+    private static final class Decisions
+    {
+        final Entity entity;
+        final Map<Object, Map<String, Boolean>> results = new ConcurrentHashMap<>();
+
+        private Decisions(Entity entity)
+        {
+            this.entity = entity;
+        }
+    }
+
+    private final Map<String, Subject> subjects = new ConcurrentHashMap<>();
+    private final Map<String, Decisions> decisions = new ConcurrentHashMap<>();
+    // incremented on clear, so that results calculated before a clear are not stored
+    private volatile long generation;
+
+    long getGeneration()
+    {
+        return generation;
+    }
+
+    Subject getSubject(User user)
+    {
+        final long startGeneration = generation;
+        final String userId = user.getId();
+        Subject subject = subjects.get(userId);
+        if (subject == null || subject.user != user)
+        {
+            subject = new Subject(user);
+            if (startGeneration == generation)
+            {
+                subjects.put(userId, subject);
+            }
+        }
+        return subject;
+    }
+
+    /** @return null if there is no result for the version of the entity*/
+    Boolean get(Entity entity, Object check, String subjectKey)
+    {
+        final Decisions entityDecisions = decisions.get(entity.getId());
+        if (entityDecisions == null || entityDecisions.entity != entity)
+        {
+            return null;
+        }
+        final Map<String, Boolean> results = entityDecisions.results.get(check);
+        return results != null ? results.get(subjectKey) : null;
+    }
+
+    /** stores the result, if the cache was not cleared since startGeneration*/
+    void put(Entity entity, Object check, String subjectKey, boolean result, long startGeneration)
+    {
+        if (startGeneration != generation)
+        {
+            return;
+        }
+        final String entityId = entity.getId();
+        Decisions entityDecisions = decisions.get(entityId);
+        if (entityDecisions == null || entityDecisions.entity != entity)
+        {
+            if (decisions.size() >= MAX_ENTITIES)
+            {
+                decisions.clear();
+            }
+            entityDecisions = new Decisions(entity);
+            decisions.put(entityId, entityDecisions);
+        }
+        entityDecisions.results.computeIfAbsent(check, key -> new ConcurrentHashMap<>()).put(subjectKey, result);
+    }
+
+    void remove(String entityId)
+    {
+        decisions.remove(entityId);
+    }
+
+    synchronized void clear()
+    {
+        generation++;
+        subjects.clear();
+        decisions.clear();
+    }
+}
@@ -35,14 +35,44 @@ import java.util.Set;
 
 public class PermissionController
 {
+    // check for the read permission of a dynamic type in the cache
+    private static final Object READ_TYPE_CHECK = "readType";
     private final Set<PermissionExtension> permissionExtensions;
     StorageOperator operator;
+    private final PermissionCache cache = new PermissionCache();
+    // results of the extensions can only be cached, if they depend on the groups of the user
+    private final boolean extensionsGroupBased;
 
     public PermissionController(Set<PermissionExtension> permissionExtensions, StorageOperator operator)
     {
         super();
         this.permissionExtensions = permissionExtensions;
         this.operator = operator;
+        boolean groupBased = true;
+        for (PermissionExtension permissionExtension : permissionExtensions)
+        {
+            groupBased &= permissionExtension.isGroupBased();
+        }
+        this.extensionsGroupBased = groupBased;
+    }
+
+    /** true if all permission extensions are group based, see {@link PermissionExtension#isGroupBased()}.
+     * Then users with the same admin flag and groups have the same access to entities.*/
+    public boolean isGroupBased()
+    {
+        return extensionsGroupBased;
+    }
+
+    /** removes all cached permission checks. Must be called if a user or a category changes*/
+    public void clearCache()
+    {
+        cache.clear();
+    }
+
+    /** removes the cached permission checks for the entity */
+    public void removeFromCache(String entityId)
+    {
+        cache.remove(entityId);
     }
 
     public static boolean isOwner(Ownable classifiable, User user)
@@ -110,6 +140,17 @@ public class PermissionController
      */
     private boolean hasAccess(Entity entity, User user, Permission.AccessLevel accessLevel)
     {
+        final long generation = cache.getGeneration();
+        final String subjectKey = extensionsGroupBased ? getSubjectKey(entity, user) : null;
+        if (subjectKey != null)
+        {
+            final Boolean cached = cache.get(entity, accessLevel, subjectKey);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+        boolean result = true;
         for (PermissionExtension permissionExtension : permissionExtensions)
         {
             final Date start = null;
@@ -117,10 +158,57 @@ public class PermissionController
             final Date today = null;
             if (!permissionExtension.hasAccess(entity, user, accessLevel, start, end, today,false))
             {
-                return false;
+                result = false;
+                break;
             }
         }
-        return true;
+        if (subjectKey != null)
+        {
+            cache.put(entity, accessLevel, subjectKey, result, generation);
+        }
+        return result;
+    }
+
+    /** returns the key under which the result of a permission check of the user on the entity is cached or null if it can't be cached.
+     * Users with the same groups share the key, unless the user is the owner or has an own permission on the entity.
+     */
+    private String getSubjectKey(Entity entity, User user)
+    {
+        // changeable entities are copies for editing
+        if (user == null || !entity.isReadOnly() || !user.isReadOnly() || entity.getId() == null)
+        {
+            return null;
+        }
+        if (user.isAdmin())
+        {
+            return "admin";
+        }
+        final String userId = user.getId();
+        if (entity instanceof Ownable && isOwner((Ownable) entity, user))
+        {
+            return "user:" + userId;
+        }
+        if (entity instanceof PermissionContainer)
+        {
+            for (Permission p : ((PermissionContainer) entity).getPermissionList())
+            {
+                if (userId.equals(p.getUserId()))
+                {
+                    return "user:" + userId;
+                }
+            }
+        }
+        return cache.getSubject(user).groupKey;
+    }
+
+    /** returns the groups of the user including the parent groups*/
+    private Collection<String> getGroupsIncludingParents(User user)
+    {
+        if (user != null && user.isReadOnly() && user.getId() != null)
+        {
+            return cache.getSubject(user).groups;
+        }
+        return UserImpl.getGroupsIncludingParents(user);
     }
 
     private boolean hasAccess(Entity entity, User user, final AccessLevel permission, final Date start, final Date end, final Date today,
@@ -255,8 +343,22 @@ public class PermissionController
         }
         if (container instanceof DynamicType)
         {
+            final long generation = cache.getGeneration();
+            final String subjectKey = getSubjectKey(container, user);
+            if (subjectKey != null)
+            {
+                final Boolean cached = cache.get(container, READ_TYPE_CHECK, subjectKey);
+                if (cached != null)
+                {
+                    return cached;
+                }
+            }
             Collection<Permission> permissionList = ((DynamicType)container).getPermissionList();
             boolean result = matchesAccessLevel(permissionList, user, Permission.READ_TYPE, Permission.CREATE, Permission.ADMIN);
+            if (subjectKey != null)
+            {
+                cache.put(container, READ_TYPE_CHECK, subjectKey, result, generation);
+            }
             return result;
         }
         else
@@ -299,7 +401,7 @@ public class PermissionController
 
     public boolean hasPermissionToAllocate(User user, Allocatable a)
     {
-        Collection<String> groups = UserImpl.getGroupsIncludingParents(user);
+        Collection<String> groups = getGroupsIncludingParents(user);
         final ReferenceInfo<User> ownerRef = a.getOwnerRef();
         if ( user != null && ownerRef != null && user.getReference().equals(ownerRef))
         {
@@ -365,7 +467,7 @@ public class PermissionController
         {
             return true;
         }
-        Collection<String> groups = UserImpl.getGroupsIncludingParents(user);
+        Collection<String> groups = getGroupsIncludingParents(user);
 
         Date start = appointment.getStart();
         Date end = appointment.getMaxEnd();
@@ -465,7 +567,7 @@ public class PermissionController
         if (user == null || user.isAdmin())
             return true;
 
-        Collection<String> groups = UserImpl.getGroupsIncludingParents(user);
+        Collection<String> groups = getGroupsIncludingParents(user);
         for (Permission p : permissions)
         {
             for (AccessLevel accessLevel : accessLevels)
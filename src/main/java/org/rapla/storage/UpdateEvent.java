@@ -159,6 +159,7 @@ public class UpdateEvent
             put(Preferences.class, preferences);
             put(Reservation.class, reservations);
             put(Conflict.class, conflicts);
+            put(ImportExportEntity.class, importExports);
         }
         return listMap;
     }
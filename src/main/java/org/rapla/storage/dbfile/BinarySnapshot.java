@@ -0,0 +1,282 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org .       |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.dbfile;
+
+import org.rapla.entities.Entity;
+import org.rapla.entities.configuration.internal.PreferencesImpl;
+import org.rapla.entities.domain.internal.AllocatableImpl;
+import org.rapla.entities.domain.internal.ReservationImpl;
+import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
+import org.rapla.entities.internal.CategoryImpl;
+import org.rapla.entities.internal.UserImpl;
+import org.rapla.entities.storage.internal.ImportExportEntityImpl;
+import org.rapla.facade.internal.ConflictImpl;
+import org.rapla.rest.JsonParserWrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/** Binary copy of the data file of the {@link FileOperator}, that is faster to load than the xml.
+ * <p>
+ * The snapshot is written next to the xml file after the xml file and remembers its modification time and size.
+ * If the xml file was changed after the snapshot, e.g. by hand, the snapshot is stale and the xml is read instead.
+ * <p>
+ * Layout: magic, version, modification time and size of the xml file, a string table with the type names, user ids and passwords,
+ * the entity records and the passwords, and at last a CRC32 checksum of everything before. Each record references its type
+ * in the string table and contains the entity in the json format of the change journal, so the records can be parsed in parallel.
+ * The id of an entity is only stored in its json.
+ * <p>
+ * The file is read into memory with a {@link FileChannel} and not mapped. On Windows a mapped file can't be replaced until the
+ * mapping is garbage collected, so the next write of the snapshot would fail.
+ */
+final class BinarySnapshot
+{
+    static final int MAGIC = 0x52534E50;
+    static final int VERSION = 2;
+
+    private static final List<Class<? extends Entity>> TYPES = Arrays.asList(CategoryImpl.class, DynamicTypeImpl.class, UserImpl.class,
+            PreferencesImpl.class, AllocatableImpl.class, ReservationImpl.class, ConflictImpl.class, ImportExportEntityImpl.class);
+
+    static final class Content
+    {
+        final List<Entity> entities;
+        /** the passwords of the users, key is the user id*/
+        final Map<String, String> passwords;
+
+        Content(List<Entity> entities, Map<String, String> passwords)
+        {
+            this.entities = entities;
+            this.passwords = passwords;
+        }
+    }
+
+    private final File file;
+
+    BinarySnapshot(File file)
+    {
+        this.file = file;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /** writes the entities into a new snapshot that belongs to the passed xml file */
+    void write(File xmlFile, Collection<? extends Entity> entities, Map<String, String> passwords) throws IOException
+    {
+        final List<Entity> entityList = new ArrayList<>(entities);
+        final String[] types = new String[entityList.size()];
+        final byte[][] records = new byte[entityList.size()][];
+        // each thread uses its own parser
+        final ThreadLocal<JsonParserWrapper.JsonParser> parsers = ThreadLocal.withInitial(() -> JsonParserWrapper.defaultJson().get());
+        IntStream.range(0, records.length).parallel().forEach(i ->
+        {
+            final Entity entity = entityList.get(i);
+            types[i] = entity.getClass().getSimpleName();
+            records[i] = parsers.get().toJson(entity).getBytes(StandardCharsets.UTF_8);
+        });
+        final Map<String, Integer> stringTable = new LinkedHashMap<>();
+        for (int i = 0; i < records.length; i++)
+        {
+            addString(stringTable, types[i]);
+        }
+        for (Map.Entry<String, String> password : passwords.entrySet())
+        {
+            addString(stringTable, password.getKey());
+            addString(stringTable, password.getValue());
+        }
+
+        final File newFile = new File(file.getPath() + ".new");
+        try (FileOutputStream fileOut = new FileOutputStream(newFile))
+        {
+            final CRC32 crc = new CRC32();
+            final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(xmlFile.lastModified());
+            out.writeLong(xmlFile.length());
+            out.writeInt(stringTable.size());
+            for (String string : stringTable.keySet())
+            {
+                writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+            }
+            out.writeInt(records.length);
+            for (int i = 0; i < records.length; i++)
+            {
+                out.writeInt(stringTable.get(types[i]));
+                writeBytes(out, records[i]);
+            }
+            out.writeInt(passwords.size());
+            for (Map.Entry<String, String> password : passwords.entrySet())
+            {
+                out.writeInt(stringTable.get(password.getKey()));
+                out.writeInt(stringTable.get(password.getValue()));
+            }
+            // the checksum is not part of the checksum
+            out.flush();
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+            fileOut.getFD().sync();
+        }
+        if (file.exists() && !file.delete() || !newFile.renameTo(file))
+        {
+            throw new IOException("Can't replace " + file + " with " + newFile);
+        }
+    }
+
+    /** reads the snapshot, if it exists and belongs to the current state of the xml file.
+     * @return null if there is no usable snapshot*/
+    Content read(File xmlFile) throws IOException
+    {
+        if (!file.exists() || !xmlFile.exists())
+        {
+            return null;
+        }
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Snapshot " + file + " is too large");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+        }
+        try
+        {
+            if (buffer.limit() < 32 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            {
+                return null;
+            }
+            if (buffer.getLong() != xmlFile.lastModified() || buffer.getLong() != xmlFile.length())
+            {
+                return null;
+            }
+            final int contentLength = buffer.limit() - 8;
+            final CRC32 crc = new CRC32();
+            final ByteBuffer content = buffer.duplicate();
+            content.position(0);
+            content.limit(contentLength);
+            crc.update(content);
+            if (crc.getValue() != buffer.getLong(contentLength))
+            {
+                throw new IOException("Checksum of " + file + " does not match");
+            }
+            final String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++)
+            {
+                strings[i] = new String(readBytes(buffer), StandardCharsets.UTF_8);
+            }
+            final int recordCount = buffer.getInt();
+            final String[] types = new String[recordCount];
+            final int[] offsets = new int[recordCount];
+            final int[] lengths = new int[recordCount];
+            for (int i = 0; i < recordCount; i++)
+            {
+                types[i] = strings[buffer.getInt()];
+                lengths[i] = buffer.getInt();
+                offsets[i] = buffer.position();
+                buffer.position(offsets[i] + lengths[i]);
+            }
+            final Map<String, String> passwords = new LinkedHashMap<>();
+            final int passwordCount = buffer.getInt();
+            for (int i = 0; i < passwordCount; i++)
+            {
+                final String userId = strings[buffer.getInt()];
+                passwords.put(userId, strings[buffer.getInt()]);
+            }
+            final Map<String, Class<? extends Entity>> typeMap = new HashMap<>();
+            for (Class<? extends Entity> type : TYPES)
+            {
+                typeMap.put(type.getSimpleName(), type);
+            }
+            for (String type : types)
+            {
+                if (!typeMap.containsKey(type))
+                {
+                    throw new IOException("Unknown type " + type + " in " + file);
+                }
+            }
+            final Entity[] entities = new Entity[recordCount];
+            final ThreadLocal<JsonParserWrapper.JsonParser> parsers = ThreadLocal.withInitial(() -> JsonParserWrapper.defaultJson().get());
+            IntStream.range(0, recordCount).parallel().forEach(i ->
+            {
+                final byte[] bytes = new byte[lengths[i]];
+                final ByteBuffer record = buffer.duplicate();
+                record.position(offsets[i]);
+                record.get(bytes);
+                entities[i] = parsers.get().fromJson(new String(bytes, StandardCharsets.UTF_8), typeMap.get(types[i]));
+            });
+            return new Content(Arrays.asList(entities), passwords);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex)
+        {
+            throw new IOException("Corrupt snapshot " + file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    void delete() throws IOException
+    {
+        if (file.exists() && !file.delete())
+        {
+            throw new IOException("Can't delete " + file);
+        }
+    }
+
+    private static void addString(Map<String, Integer> stringTable, String string)
+    {
+        if (!stringTable.containsKey(string))
+        {
+            stringTable.put(string, stringTable.size());
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer)
+    {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
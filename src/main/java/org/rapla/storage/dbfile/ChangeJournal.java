@@ -0,0 +1,186 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org .       |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.dbfile;
+
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.storage.UpdateEvent;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** Append only log of the changes that are not yet written to the xml file of the {@link FileOperator}.
+ * Every entry is one line of json and is synced to disk before {@link #append(Entry)} returns.
+ * A line that was only partially written, because the server stopped during the append, is ignored on read.
+ */
+final class ChangeJournal
+{
+    static final class Entry
+    {
+        /** the stored entities with their new state and the removed ids*/
+        UpdateEvent event;
+        /** the passwords of the stored users, key is the user id*/
+        Map<String, String> passwords;
+
+        Entry()
+        {
+        }
+
+        Entry(UpdateEvent event, Map<String, String> passwords)
+        {
+            this.event = event;
+            this.passwords = passwords;
+        }
+    }
+
+    private final File file;
+    private final JsonParserWrapper.JsonParser gson;
+    private FileOutputStream out;
+    private Writer writer;
+    private int size;
+
+    ChangeJournal(File file)
+    {
+        this.file = file;
+        gson = JsonParserWrapper.defaultJson().get();
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    boolean exists()
+    {
+        return file.exists();
+    }
+
+    /** the number of entries in the journal*/
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /** reads all complete entries of the journal. A partially written last entry is removed from the file. */
+    synchronized List<Entry> read() throws IOException
+    {
+        close();
+        size = 0;
+        if (!file.exists())
+        {
+            return Collections.emptyList();
+        }
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (!line.trim().isEmpty())
+                {
+                    lines.add(line);
+                }
+            }
+        }
+        final List<Entry> result = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++)
+        {
+            final Entry entry;
+            try
+            {
+                entry = gson.fromJson(lines.get(i), Entry.class);
+            }
+            catch (RuntimeException ex)
+            {
+                if (i < lines.size() - 1)
+                {
+                    throw new IOException("Corrupt entry in line " + (i + 1) + " of " + file + ": " + ex.getMessage(), ex);
+                }
+                // the last append did not finish, so the change was never confirmed
+                rewrite(lines.subList(0, i));
+                break;
+            }
+            result.add(entry);
+        }
+        size = result.size();
+        return result;
+    }
+
+    synchronized void append(Entry entry) throws IOException
+    {
+        final String json = gson.toJson(entry);
+        if (writer == null)
+        {
+            out = new FileOutputStream(file, true);
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+        writer.write(json);
+        writer.write('\n');
+        writer.flush();
+        out.getFD().sync();
+        size++;
+    }
+
+    /** removes all entries. Call this only after the changes are written to the xml file. */
+    synchronized void clear() throws IOException
+    {
+        close();
+        if (file.exists() && !file.delete())
+        {
+            throw new IOException("Can't delete " + file);
+        }
+        size = 0;
+    }
+
+    synchronized void close() throws IOException
+    {
+        if (writer != null)
+        {
+            final Writer toClose = writer;
+            writer = null;
+            out = null;
+            toClose.close();
+        }
+    }
+
+    private void rewrite(List<String> lines) throws IOException
+    {
+        final File newFile = new File(file.getPath() + ".new");
+        try (FileOutputStream newOut = new FileOutputStream(newFile))
+        {
+            final Writer newWriter = new BufferedWriter(new OutputStreamWriter(newOut, StandardCharsets.UTF_8));
+            for (String line : lines)
+            {
+                newWriter.write(line);
+                newWriter.write('\n');
+            }
+            newWriter.flush();
+            newOut.getFD().sync();
+        }
+        if (!file.delete() || !newFile.renameTo(file))
+        {
+            throw new IOException("Can't replace " + file + " with " + newFile);
+        }
+    }
+}
@@ -32,6 +32,8 @@ import org.rapla.entities.dynamictype.Attribute;
 import org.rapla.entities.dynamictype.AttributeType;
 import org.rapla.entities.dynamictype.Classifiable;
 import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
 import org.rapla.entities.extensionpoints.FunctionFactory;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.ModifiableTimestamp;
@@ -156,6 +158,18 @@ final public class FileOperator extends LocalAbstractCachableOperator
 
     private final Map<ImportExportMapKey, Map<String,ImportExportEntity>> importExportEntities = new LinkedHashMap<>();
 
+    public static final String JOURNAL_SERVICE = "filejournal";
+    /** the changes are compacted into the xml file after this period or after JOURNAL_MAX_ENTRIES changes */
+    static final long JOURNAL_COMPACTION_PERIOD = DateTools.MILLISECONDS_PER_MINUTE * 5;
+    static final long JOURNAL_CHECK_PERIOD = DateTools.MILLISECONDS_PER_MINUTE;
+    static final int JOURNAL_MAX_ENTRIES = 1000;
+    private boolean journalEnabled = false;
+    private ChangeJournal journal;
+    private long lastCompaction;
+
+    public static final String SNAPSHOT_SERVICE = "filesnapshot";
+    private boolean snapshotEnabled = false;
+
     public FileOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
             Map<String, FunctionFactory> functionFactoryMap, @Named(ServerService.ENV_RAPLAFILE_ID) String resolvedPath,
             Set<PermissionExtension> permissionExtensions) throws RaplaInitializationException
@@ -178,6 +192,42 @@ final public class FileOperator extends LocalAbstractCachableOperator
 
     }
 
+    /** If enabled, dispatched changes are appended to a journal next to the data file instead of rewriting the whole
+     * xml file on every change. The journal is replayed on connect and compacted into the xml file in the background
+     * and on disconnect. Must be set before connect.*/
+    public void setJournalEnabled(boolean journalEnabled)
+    {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+    /** If enabled, a binary snapshot is written next to the data file whenever the data file is written, and it is loaded
+     * instead of the xml on connect as long as the data file was not changed since. The snapshot is also written on export
+     * into this operator. Only works with a data file on the local file system. Must be set before connect.*/
+    public void setSnapshotEnabled(boolean snapshotEnabled)
+    {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+
+    public boolean isSnapshotEnabled()
+    {
+        return snapshotEnabled;
+    }
+
+    private File getDataFile()
+    {
+        return new File(storageURL);
+    }
+
+    private BinarySnapshot getSnapshot()
+    {
+        return new BinarySnapshot(new File(getDataFile().getPath() + ".snapshot"));
+    }
+
     public String getURL()
     {
         return storageURL.toString();
@@ -205,9 +255,16 @@ final public class FileOperator extends LocalAbstractCachableOperator
             cache.clearAll();
             importExportEntities.clear();
             addInternalTypes(cache);
+            journal = journalEnabled ? new ChangeJournal(new File(new File(storageURL).getPath() + ".journal")) : null;
             loadData(cache);
+            cache.publishSnapshot();
             changeStatus(InitStatus.Loaded);
             initIndizes();
+            if (journal != null)
+            {
+                lastCompaction = System.currentTimeMillis();
+                scheduleConnectedTasks(() -> compactJournal(false), JOURNAL_CHECK_PERIOD, JOURNAL_CHECK_PERIOD);
+            }
             changeStatus(InitStatus.Connected);
 
         }
@@ -231,8 +288,31 @@ final public class FileOperator extends LocalAbstractCachableOperator
     @Override
     final public void disconnect() throws RaplaException
     {
+        if (journal != null && isConnected())
+        {
+            try
+            {
+                compactJournal(true);
+            }
+            catch (RaplaException ex)
+            {
+                getLogger().error("Could not write journal to " + getURL() + ". Changes are replayed from " + journal.getFile() + " on next start. " + ex.getMessage(), ex);
+            }
+        }
         super.disconnect();
         importExportEntities.clear();
+        if (journal != null)
+        {
+            try
+            {
+                journal.close();
+            }
+            catch (IOException ex)
+            {
+                getLogger().warn("Could not close " + journal.getFile() + ": " + ex.getMessage());
+            }
+            journal = null;
+        }
     }
 
     @Override
@@ -272,13 +352,26 @@ final public class FileOperator extends LocalAbstractCachableOperator
         RaplaDefaultXMLContext inputContext = new IOContext().createInputContext(logger, raplaLocale, i18n, entityStore, this, superCategory);
         RaplaMainReader contentHandler = new RaplaMainReader(inputContext);
         boolean isLowerThen1_2 = false;
+        boolean writeSnapshot = false;
         try
         {
-            parseData(contentHandler);
-            isLowerThen1_2 = inputContext.lookup(RaplaMainReader.VERSION) < 1.2;
+            if (!readSnapshot(entityStore))
+            {
+                parseData(contentHandler);
+                isLowerThen1_2 = inputContext.lookup(RaplaMainReader.VERSION) < 1.2;
+                writeSnapshot = snapshotEnabled;
+            }
+            if (journal != null)
+            {
+                replayJournal(entityStore);
+            }
         }
         catch (FileNotFoundException ex)
         {
+            if (journal != null && journal.exists())
+            {
+                throw new RaplaException("Found change journal " + journal.getFile() + " but no data file " + getURL() + ". Restore the data file or remove the journal.");
+            }
             getLogger().warn("Data file not found " + getURL() + " creating default system.");
             createDefaultSystem(entityStore);
             isLowerThen1_2 = false;
@@ -359,6 +452,11 @@ final public class FileOperator extends LocalAbstractCachableOperator
                     }
                 }
             }
+            // the snapshot must match the data file, so we don't write it if there are changes from the journal
+            if (writeSnapshot && (journal == null || journal.size() == 0))
+            {
+                writeSnapshot(cache);
+            }
         }
         catch (RaplaException ex)
         {
@@ -366,6 +464,204 @@ final public class FileOperator extends LocalAbstractCachableOperator
         }
     }
 
+    /** puts the entities of the snapshot into the entity store, if the snapshot is enabled and up to date.
+     * @return false if the xml file must be read instead*/
+    private boolean readSnapshot(EntityStore entityStore)
+    {
+        if (!snapshotEnabled)
+        {
+            return false;
+        }
+        final BinarySnapshot snapshot = getSnapshot();
+        final BinarySnapshot.Content content;
+        try
+        {
+            content = snapshot.read(getDataFile());
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            getLogger().warn("Can't read snapshot " + snapshot.getFile() + ". Reading " + getURL() + " instead. " + ex.getMessage());
+            return false;
+        }
+        if (content == null)
+        {
+            getLogger().info("Snapshot " + snapshot.getFile() + " is missing or older than " + getURL());
+            return false;
+        }
+        getLogger().info("Reading " + content.entities.size() + " entities from snapshot " + snapshot.getFile());
+        entityStore.addAll(content.entities);
+        for (Map.Entry<String, String> password : content.passwords.entrySet())
+        {
+            entityStore.putPassword(new ReferenceInfo<>(password.getKey(), User.class), password.getValue());
+        }
+        return true;
+    }
+
+    /** writes the content of the cache and the import/export entries into the snapshot. A failed write only removes the old snapshot, because the data file is already written */
+    private void writeSnapshot(LocalCache cache)
+    {
+        final BinarySnapshot snapshot = getSnapshot();
+        final List<Entity> entities = new ArrayList<>();
+        entities.addAll(CategoryImpl.getRecursive(cache.getSuperCategory()));
+        for (DynamicType type : cache.getDynamicTypes())
+        {
+            // the internal types are created on connect, like for the xml file
+            if (!((DynamicTypeImpl) type).isInternal())
+            {
+                entities.add(type);
+            }
+        }
+        final Map<String, String> passwords = new LinkedHashMap<>();
+        final Preferences systemPreferences = cache.getPreferencesForUserId(null);
+        if (systemPreferences != null)
+        {
+            entities.add(systemPreferences);
+        }
+        for (User user : cache.getUsers())
+        {
+            entities.add(user);
+            final Preferences preferences = cache.getPreferencesForUserId(user.getId());
+            if (preferences != null)
+            {
+                entities.add(preferences);
+            }
+            final String password = cache.getPassword(user.getReference());
+            if (password != null)
+            {
+                passwords.put(user.getId(), password);
+            }
+        }
+        entities.addAll(cache.getAllocatables());
+        entities.addAll(cache.getReservations());
+        entities.addAll(cache.getDisabledConflicts());
+        for (Map<String, ImportExportEntity> importExportEntitiyCollection : importExportEntities.values())
+        {
+            entities.addAll(importExportEntitiyCollection.values());
+        }
+        try
+        {
+            snapshot.write(getDataFile(), entities, passwords);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            getLogger().error("Can't write snapshot " + snapshot.getFile() + ": " + ex.getMessage(), ex);
+            try
+            {
+                snapshot.delete();
+            }
+            catch (IOException e)
+            {
+                getLogger().error(e.getMessage());
+            }
+        }
+    }
+
+    /** applies the changes in the journal, that are newer than the xml file, to the parsed entities */
+    private void replayJournal(EntityStore entityStore) throws RaplaException
+    {
+        final List<ChangeJournal.Entry> entries;
+        try
+        {
+            entries = journal.read();
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Can't read change journal " + journal.getFile() + ": " + ex.getMessage(), ex);
+        }
+        if (entries.isEmpty())
+        {
+            return;
+        }
+        getLogger().info("Replaying " + entries.size() + " changes from " + journal.getFile());
+        for (ChangeJournal.Entry entry : entries)
+        {
+            final UpdateEvent evt = entry.event;
+            for (Entity entity : evt.getStoreObjects())
+            {
+                entityStore.put(entity);
+            }
+            for (ReferenceInfo id : evt.getRemoveIds())
+            {
+                entityStore.remove(id);
+            }
+            if (entry.passwords != null)
+            {
+                for (Map.Entry<String, String> password : entry.passwords.entrySet())
+                {
+                    entityStore.putPassword(new ReferenceInfo<>(password.getKey(), User.class), password.getValue());
+                }
+            }
+        }
+    }
+
+    /** appends the dispatched changes, as they are stored in the cache, to the journal. */
+    private void appendToJournal(UpdateEvent evt) throws RaplaException
+    {
+        final UpdateEvent journalEvent = new UpdateEvent();
+        final Map<String, String> passwords = new LinkedHashMap<>();
+        for (Entity entity : evt.getStoreObjects())
+        {
+            journalEvent.addStore(entity);
+            if (entity instanceof User)
+            {
+                final String password = cache.getPassword(((User) entity).getReference());
+                if (password != null)
+                {
+                    passwords.put(entity.getId(), password);
+                }
+            }
+        }
+        // we store the patched preferences, so the replay doesn't depend on the previous version
+        for (PreferencePatch patch : evt.getPreferencePatches())
+        {
+            final Preferences preferences = cache.getPreferencesForUserId(patch.getUserId());
+            if (preferences != null)
+            {
+                journalEvent.addStore(preferences);
+            }
+        }
+        for (ReferenceInfo id : evt.getRemoveIds())
+        {
+            journalEvent.putRemoveId(id);
+        }
+        try
+        {
+            journal.append(new ChangeJournal.Entry(journalEvent, passwords.isEmpty() ? null : passwords));
+        }
+        catch (IOException ex)
+        {
+            // we can't confirm the change without the journal, so we fall back to the full write
+            getLogger().error("Can't append to change journal " + journal.getFile() + ". Writing whole data file. " + ex.getMessage(), ex);
+            saveData(cache, null, includeIds);
+        }
+    }
+
+    /** writes the cache to the xml file and clears the journal, if the journal is full or the compaction period is over.
+     * The read lock keeps the clients reading while writing. */
+    private void compactJournal(boolean force) throws RaplaException
+    {
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "compacting change journal");
+        try
+        {
+            final ChangeJournal journal = this.journal;
+            if (journal == null || !isConnected() || (journal.size() == 0 && !journal.exists()))
+            {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            if (!force && journal.size() < JOURNAL_MAX_ENTRIES && now - lastCompaction < JOURNAL_COMPACTION_PERIOD)
+            {
+                return;
+            }
+            saveData(cache, null, includeIds);
+            lastCompaction = now;
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+    }
+
     private void migrateSpecialAttributes(Collection<Entity> list)
     {
         for (Entity entity : list)
@@ -486,11 +782,18 @@ final public class FileOperator extends LocalAbstractCachableOperator
             }
             removeFromImportExportCache(removedImports);
             refresh(since, until, storeObjects, preferencePatches, removeIds);
-            saveData(cache, null, includeIds);
+            if (journal != null)
+            {
+                appendToJournal(evt);
+            }
+            else
+            {
+                saveData(cache, null, includeIds);
+            }
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            unlockAndPublish(writeLock);
         }
     }
 
@@ -644,6 +947,15 @@ final public class FileOperator extends LocalAbstractCachableOperator
                     throw new IOException(e.getMessage(), e);
                 }
             }, storageURL);
+            if (snapshotEnabled)
+            {
+                writeSnapshot(cache);
+            }
+            // the xml file now contains all changes, so the journal is not needed anymore
+            if (journal != null)
+            {
+                journal.clear();
+            }
         }
         catch (IOException e)
         {
@@ -0,0 +1,364 @@
+package org.rapla.storage.dbrm;
+
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.ReservationImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Client side cache of the {@link AppointmentMap}s returned by the server for the queries of the {@link RemoteOperator}.
+ * <p>
+ * For each combination of allocatables and annotation query the cache remembers the time intervals that have been fetched
+ * and the reservations with their appointments in these intervals, so a query only needs to fetch the parts of its interval that are not yet covered.
+ * The reservations are not transferred with the update events, so an update removes the interval that the server marked as invalid
+ * together with the reservations in it from the cache and the next query fetches that interval again.
+ */
+final class AppointmentCache
+{
+    // if more queries are cached, the least recently used is removed
+    static final int MAX_QUERIES = 20;
+
+    private static final long OPEN_START = Long.MIN_VALUE;
+    private static final long OPEN_END = Long.MAX_VALUE;
+
+    private static final class Key
+    {
+        final Set<String> allocatableIds;
+        final Map<String, String> annotations;
+
+        private Key(String[] allocatableIds, Map<String, String> annotations)
+        {
+            this.allocatableIds = new HashSet<>(Arrays.asList(allocatableIds));
+            this.annotations = annotations != null ? new HashMap<>(annotations) : Collections.emptyMap();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) o;
+            return allocatableIds.equals(other.allocatableIds) && annotations.equals(other.annotations);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(allocatableIds, annotations);
+        }
+    }
+
+    private static final class Entry
+    {
+        /** sorted and disjoint intervals with start and end in millis, that contain all appointments of the query */
+        final List<long[]> covered = new ArrayList<>();
+        final Map<String, ReservationImpl> reservations = new LinkedHashMap<>();
+        final Map<String, Set<String>> allocatableIdToAppointmentIds = new LinkedHashMap<>();
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+        {
+            return size() > MAX_QUERIES;
+        }
+    };
+    // incremented on each invalidation, so that results fetched before an invalidation are not stored
+    private long generation;
+
+    synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /** @return the appointments of the query, or null if the interval is not completely covered by the cache */
+    synchronized AppointmentMap get(String[] allocatableIds, Map<String, String> annotations, Date start, Date end)
+    {
+        final Entry entry = entries.get(new Key(allocatableIds, annotations));
+        final long startMillis = toStart(start);
+        final long endMillis = toEnd(end);
+        if (entry == null || !getMissing(entry, startMillis, endMillis).isEmpty())
+        {
+            return null;
+        }
+        final Set<ReservationImpl> reservations = new LinkedHashSet<>();
+        final Set<String> appointmentIds = new HashSet<>();
+        for (ReservationImpl reservation : entry.reservations.values())
+        {
+            boolean found = false;
+            for (Appointment appointment : reservation.getAppointmentList())
+            {
+                // the same check as the server
+                if (((AppointmentImpl) appointment).overlaps(start, end, false))
+                {
+                    appointmentIds.add(appointment.getId());
+                    found = true;
+                }
+            }
+            if (found)
+            {
+                reservations.add(reservation);
+            }
+        }
+        final Map<String, Set<String>> allocatableIdToAppointmentIds = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> allocatableEntry : entry.allocatableIdToAppointmentIds.entrySet())
+        {
+            final Set<String> ids = new LinkedHashSet<>(allocatableEntry.getValue());
+            ids.retainAll(appointmentIds);
+            allocatableIdToAppointmentIds.put(allocatableEntry.getKey(), ids);
+        }
+        return new AppointmentMap(reservations, allocatableIdToAppointmentIds);
+    }
+
+    /** @return the smallest interval that contains all parts of the query interval that are not covered by the cache, or null if everything is covered */
+    synchronized TimeInterval getMissingInterval(String[] allocatableIds, Map<String, String> annotations, Date start, Date end)
+    {
+        final Entry entry = entries.get(new Key(allocatableIds, annotations));
+        if (entry == null)
+        {
+            return new TimeInterval(start, end);
+        }
+        final List<long[]> missing = getMissing(entry, toStart(start), toEnd(end));
+        if (missing.isEmpty())
+        {
+            return null;
+        }
+        final long missingStart = missing.get(0)[0];
+        final long missingEnd = missing.get(missing.size() - 1)[1];
+        return new TimeInterval(missingStart == OPEN_START ? null : new Date(missingStart), missingEnd == OPEN_END ? null : new Date(missingEnd));
+    }
+
+    /** adds the result of the server for the passed interval, if the cache was not invalidated since startGeneration.
+     * The reservations of the result must already be initialized with the resolver.
+     * @return false if the result was not added */
+    synchronized boolean add(String[] allocatableIds, Map<String, String> annotations, Date start, Date end, AppointmentMap fetched, long startGeneration)
+    {
+        if (startGeneration != generation)
+        {
+            return false;
+        }
+        final Entry entry = entries.computeIfAbsent(new Key(allocatableIds, annotations), key -> new Entry());
+        for (ReservationImpl reservation : fetched.getReservations())
+        {
+            // the new version of a reservation is only fetched after an invalidation that removed the old version
+            entry.reservations.put(reservation.getId(), reservation);
+        }
+        for (Map.Entry<String, Set<String>> allocatableEntry : fetched.getAllocatableIdToAppointmentIds().entrySet())
+        {
+            entry.allocatableIdToAppointmentIds.computeIfAbsent(allocatableEntry.getKey(), key -> new LinkedHashSet<>()).addAll(allocatableEntry.getValue());
+        }
+        addCovered(entry.covered, toStart(start), toEnd(end));
+        return true;
+    }
+
+    /** removes the interval from all cached queries. A reservation with an appointment in the interval is removed completely,
+     * so the interval is extended by the time span of its appointments. */
+    synchronized void invalidate(TimeInterval interval)
+    {
+        generation++;
+        if (interval == null)
+        {
+            return;
+        }
+        final long invalidStart = toStart(interval.getStart());
+        final long invalidEnd = toEnd(interval.getEnd());
+        if (invalidStart == OPEN_START && invalidEnd == OPEN_END)
+        {
+            entries.clear();
+            return;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); )
+        {
+            final Entry entry = it.next();
+            long start = invalidStart;
+            long end = invalidEnd;
+            final Set<ReservationImpl> toRemove = new LinkedHashSet<>();
+            boolean extended = true;
+            while (extended)
+            {
+                extended = false;
+                for (ReservationImpl reservation : entry.reservations.values())
+                {
+                    if (toRemove.contains(reservation))
+                    {
+                        continue;
+                    }
+                    final long[] span = getSpan(reservation);
+                    if (span[0] < end && start < span[1])
+                    {
+                        toRemove.add(reservation);
+                        if (span[0] < start || span[1] > end)
+                        {
+                            start = Math.min(start, span[0]);
+                            end = Math.max(end, span[1]);
+                            extended = true;
+                        }
+                    }
+                }
+            }
+            for (ReservationImpl reservation : toRemove)
+            {
+                entry.reservations.remove(reservation.getId());
+                final Collection<String> appointmentIds = new HashSet<>();
+                for (Appointment appointment : reservation.getAppointmentList())
+                {
+                    appointmentIds.add(appointment.getId());
+                }
+                for (Set<String> ids : entry.allocatableIdToAppointmentIds.values())
+                {
+                    ids.removeAll(appointmentIds);
+                }
+            }
+            removeCovered(entry.covered, start, end);
+            if (entry.covered.isEmpty())
+            {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+    }
+
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+    private static long[] getSpan(ReservationImpl reservation)
+    {
+        long start = OPEN_END;
+        long end = OPEN_START;
+        for (Appointment appointment : reservation.getAppointmentList())
+        {
+            start = Math.min(start, appointment.getStart().getTime());
+            final Date maxEnd = appointment.getMaxEnd();
+            end = Math.max(end, maxEnd != null ? maxEnd.getTime() : OPEN_END);
+        }
+        return new long[] { start, end };
+    }
+
+    private static List<long[]> getMissing(Entry entry, long start, long end)
+    {
+        final List<long[]> missing = new ArrayList<>();
+        long current = start;
+        for (long[] interval : entry.covered)
+        {
+            if (interval[1] <= current)
+            {
+                continue;
+            }
+            if (interval[0] >= end)
+            {
+                break;
+            }
+            if (interval[0] > current)
+            {
+                missing.add(new long[] { current, interval[0] });
+            }
+            current = interval[1];
+            if (current >= end)
+            {
+                return missing;
+            }
+        }
+        if (current < end)
+        {
+            missing.add(new long[] { current, end });
+        }
+        return missing;
+    }
+
+    private static void addCovered(List<long[]> covered, long start, long end)
+    {
+        final List<long[]> result = new ArrayList<>();
+        long newStart = start;
+        long newEnd = end;
+        boolean added = false;
+        for (long[] interval : covered)
+        {
+            if (interval[1] < newStart)
+            {
+                result.add(interval);
+            }
+            else if (interval[0] > newEnd)
+            {
+                if (!added)
+                {
+                    result.add(new long[] { newStart, newEnd });
+                    added = true;
+                }
+                result.add(interval);
+            }
+            else
+            {
+                // overlapping or adjacent intervals are merged
+                newStart = Math.min(newStart, interval[0]);
+                newEnd = Math.max(newEnd, interval[1]);
+            }
+        }
+        if (!added)
+        {
+            result.add(new long[] { newStart, newEnd });
+        }
+        covered.clear();
+        covered.addAll(result);
+    }
+
+    private static void removeCovered(List<long[]> covered, long start, long end)
+    {
+        final List<long[]> result = new ArrayList<>();
+        for (long[] interval : covered)
+        {
+            if (interval[1] <= start || interval[0] >= end)
+            {
+                result.add(interval);
+                continue;
+            }
+            if (interval[0] < start)
+            {
+                result.add(new long[] { interval[0], start });
+            }
+            if (interval[1] > end)
+            {
+                result.add(new long[] { end, interval[1] });
+            }
+        }
+        covered.clear();
+        covered.addAll(result);
+    }
+
+    private static long toStart(Date date)
+    {
+        return date != null ? date.getTime() : OPEN_START;
+    }
+
+    private static long toEnd(Date date)
+    {
+        return date != null ? date.getTime() : OPEN_END;
+    }
+}
@@ -36,6 +36,12 @@ public class AppointmentMap
         }
     }
 
+    AppointmentMap(Collection<ReservationImpl> reservations, Map<String, Set<String>> allocatableIdToAppointmentIds)
+    {
+        this.reservations = new LinkedHashSet<>(reservations);
+        this.allocatableIdToAppointmentIds = allocatableIdToAppointmentIds;
+    }
+
     public AppointmentMap(Map<Allocatable, Collection<Appointment>> map)
     {
         this.allocatableIdToAppointmentIds = new LinkedHashMap<>();
@@ -65,6 +71,16 @@ public class AppointmentMap
         }
     }
 
+    Set<ReservationImpl> getReservations()
+    {
+        return reservations;
+    }
+
+    Map<String, Set<String>> getAllocatableIdToAppointmentIds()
+    {
+        return allocatableIdToAppointmentIds;
+    }
+
     public Map<Allocatable, Collection<Appointment>> getResult(ClassificationFilter[] filters)
     {
         Map<String, Appointment> appointmentIdToAppointment = new LinkedHashMap<>();
@@ -111,6 +111,7 @@ public class RemoteOperator
     Date lastSyncedTime;
     int timezoneOffset;
     RemoteConnectionInfo connectionInfo;
+    final AppointmentCache appointmentCache = new AppointmentCache();
 
     @Inject
     public RemoteOperator(Logger logger, RaplaResources i18n, RaplaLocale locale, CommandScheduler scheduler,
@@ -273,7 +274,23 @@ public class RemoteOperator
         }
     }
 
+    /** the time the server holds a refreshWhenChanged request, below the usual 60 seconds timeout of proxies */
+    public static final int DEFAULT_WAIT_FOR_CHANGES_SECONDS = 50;
     boolean refreshInProgress;
+    private boolean waitForChanges = true;
+    private int waitForChangesSeconds = DEFAULT_WAIT_FOR_CHANGES_SECONDS;
+
+    /** if set, triggerRefresh lets the server hold the request until the data changes, instead of asking for changes once per refresh interval.
+     * A change is then received right after it is stored. Default is true. */
+    public void setWaitForChanges(boolean waitForChanges) {
+        this.waitForChanges = waitForChanges;
+    }
+
+    /** the maximum time in seconds the server holds the request if {@link #setWaitForChanges(boolean)} is set. Independent of the refresh interval.
+     * The server limits it to one minute. */
+    public void setWaitForChangesSeconds(int waitForChangesSeconds) {
+        this.waitForChangesSeconds = waitForChangesSeconds;
+    }
 
     public void triggerRefresh()
     {
@@ -284,7 +301,39 @@ public class RemoteOperator
         if (lockManager.isWriteLocked() && !isConnected()) {
             return;
         }
-        refreshAsync();
+        if (waitForChanges) {
+            refreshWhenChanged();
+        } else {
+            refreshAsync();
+        }
+    }
+
+    private void refreshWhenChanged() {
+        String clientRepoVersion = getLastSyncedTime();
+        RemoteStorage serv = getRemoteStorage();
+        final int timeoutSeconds = Math.max(1, waitForChangesSeconds);
+        final long requestStart = System.currentTimeMillis();
+        refreshInProgress = true;
+        serv.refreshWhenChanged(clientRepoVersion, timeoutSeconds).thenAccept((evt) -> {
+            try {
+                refresh(evt);
+            } catch (EntityNotFoundException ex) {
+                getLogger().error("Refreshing all resources due to " + ex.getMessage(), ex);
+                refreshAll();
+            } finally {
+                refreshInProgress = false;
+            }
+            // there was a change or the server held the request until the timeout, so we wait for the next one right away.
+            // An early empty result means the server is busy, then the next scheduled triggerRefresh starts the next request
+            final boolean heldUntilTimeout = System.currentTimeMillis() - requestStart >= timeoutSeconds * 1000L;
+            if ((!evt.isEmpty() || heldUntilTimeout) && isConnected()) {
+                triggerRefresh();
+            }
+        }).exceptionally((ex) -> {
+            refreshInProgress = false;
+            getLogger().warn("Waiting for changes failed. Doing a normal refresh. " + ex.getMessage());
+            refreshAsync();
+        });
     }
     @Override
      public Promise<Void> refreshAsync() {
@@ -338,6 +387,7 @@ public class RemoteOperator
         try {
             bSessionActive = false;
             cache.clearAll();
+            appointmentCache.clear();
         } catch (Exception e) {
             throw new RaplaException("Could not disconnect", e);
         }
@@ -457,6 +507,7 @@ public class RemoteOperator
             updateTimestamps(evt);
             Collection<Entity> storeObjects = evt.getStoreObjects();
             cache.clearAll();
+            appointmentCache.clear();
             testResolveInitial(storeObjects);
             setResolver(storeObjects);
             for (Entity entity : storeObjects) {
@@ -737,24 +788,46 @@ public class RemoteOperator
         final RemoteStorage serv = getRemoteStorage();
         Promise<Map<Allocatable, Collection<Appointment>>> result = refreshIfIdle().thenCompose((refreshed) -> {
             String[] allocatableId = getIdList(allocatables);
-            return serv.queryAppointments(new QueryAppointments(allocatableId, start, end, annotationQuery)).thenApply(list -> {
-                Map<Allocatable, Collection<Appointment>> filtered;
-                {
-                    long time = System.currentTimeMillis();
-                    logger.debug("event server call took  " + (System.currentTimeMillis() - time) + " ms");
+            final AppointmentMap cached = appointmentCache.get(allocatableId, annotationQuery, start, end);
+            if (cached != null) {
+                logger.debug("events from " + start + " to " + end + " found in cache");
+                return new ResolvedPromise<>(processReservationResult(cached, filters));
+            }
+            // only the part of the interval that is not in the cache is requested from the server
+            final long generation = appointmentCache.getGeneration();
+            final TimeInterval missing = appointmentCache.getMissingInterval(allocatableId, annotationQuery, start, end);
+            final long time = System.currentTimeMillis();
+            return serv.queryAppointments(new QueryAppointments(allocatableId, missing.getStart(), missing.getEnd(), annotationQuery)).thenCompose(list -> {
+                logger.debug("event server call took  " + (System.currentTimeMillis() - time) + " ms");
+                initAppointmentMap(list);
+                final boolean added = appointmentCache.add(allocatableId, annotationQuery, missing.getStart(), missing.getEnd(), list, generation);
+                final AppointmentMap appointmentMap = added ? appointmentCache.get(allocatableId, annotationQuery, start, end) : null;
+                if (appointmentMap != null) {
+                    return new ResolvedPromise<>(processReservationResult(appointmentMap, filters));
                 }
-                {
-                    long time = System.currentTimeMillis();
-                    filtered = processReservationResult(list, filters);
-                    logger.debug("event post processing took  " + (System.currentTimeMillis() - time) + " ms");
+                if (missing.equals(new TimeInterval(start, end))) {
+                    return new ResolvedPromise<>(processReservationResult(list, filters));
                 }
-
-                return filtered;
+                // the cache was invalidated while the request was running, so the rest of the interval is not up to date
+                logger.debug("event cache invalidated during request. Requesting complete interval.");
+                return serv.queryAppointments(new QueryAppointments(allocatableId, start, end, annotationQuery)).thenApply(completeList -> {
+                    initAppointmentMap(completeList);
+                    return processReservationResult(completeList, filters);
+                });
             });
         });
         return result;
     }
 
+    private void initAppointmentMap(AppointmentMap appointmentMap) {
+        RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "initAppointmentMap");
+        try {
+            appointmentMap.init(this);
+        } finally {
+            lockManager.unlock(lock);
+        }
+    }
+
     protected Promise<Promise<Boolean>> refreshIfIdle() {
         return getScheduler().supply(() -> {
             // if a refresh is due, we assume the system went to sleep so we refresh before we continue
@@ -771,9 +844,10 @@ public class RemoteOperator
             throws RaplaException {
         RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "processReservationResult");
         try {
-            final RemoteOperator resolver = this;
-            appointmentMap.init(resolver);
-            return appointmentMap.getResult(filters);
+            long time = System.currentTimeMillis();
+            final Map<Allocatable, Collection<Appointment>> result = appointmentMap.getResult(filters);
+            logger.debug("event post processing took  " + (System.currentTimeMillis() - time) + " ms");
+            return result;
         } finally {
             lockManager.unlock(lock);
         }
@@ -816,6 +890,7 @@ public class RemoteOperator
             refreshAll();
             return;
         }
+        invalidateAppointmentCache(evt);
         UpdateResult result = null;
 
         // we don't test the references of the removed objects
@@ -846,6 +921,19 @@ public class RemoteOperator
         }
     }
 
+    /** the reservations are not part of the update event, so the server sends the interval that contains the changed appointments*/
+    private void invalidateAppointmentCache(UpdateEvent evt) throws RaplaException {
+        boolean typeChanged = false;
+        for (Entity entity : evt.getStoreObjects()) {
+            typeChanged |= entity.getTypeClass() == DynamicType.class;
+        }
+        for (ReferenceInfo id : evt.getRemoveIds()) {
+            typeChanged |= id.getType() == DynamicType.class;
+        }
+        // the classifications of the cached reservations could depend on the changed type
+        appointmentCache.invalidate(typeChanged ? new TimeInterval(null, null) : evt.getInvalidateInterval());
+    }
+
     protected void refreshAll() throws RaplaException {
         UpdateResult result;
         Collection<Entity> oldEntities;
@@ -175,6 +175,13 @@ public interface RemoteStorage
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     Promise<UpdateEvent> refresh(@QueryParam("lastSynched") String lastSyncedTime);
 
+    /** same as refresh but the server holds the request until the data changed after lastSyncedTime or the timeout in seconds passed.
+     * The server can return earlier with an empty result, e.g. if too many clients are waiting. */
+    @POST
+    @Path("refreshWhenChanged")
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+    Promise<UpdateEvent> refreshWhenChanged(@QueryParam("lastSynched") String lastSyncedTime, @QueryParam("timeout") int timeoutSeconds);
+
     @POST
     @Path("restart")
     Promise<Void> restartServer();
@@ -88,6 +88,9 @@ import java.util.Set;
     private String connectionName;
     Provider<ImportExportManager> importExportManager;
 
+    public static final String PARALLEL_LOAD_SERVICE = "dbparallelload";
+    private boolean parallelLoad = false;
+
     public DBOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale locale, final CommandScheduler scheduler, Map<String, FunctionFactory> functionFactoryMap,
             Provider<ImportExportManager> importExportManager, DataSource dataSource, Set<PermissionExtension> permissionExtensions)
     {
@@ -166,6 +169,18 @@ import java.util.Set;
         }
     }
 
+    /** If enabled, the tables are loaded on several connections at once on connect. See {@link RaplaSQL#loadAllParallel}.
+     * Must be set before connect.*/
+    public void setParallelLoad(boolean parallelLoad)
+    {
+        this.parallelLoad = parallelLoad;
+    }
+
+    public boolean isParallelLoad()
+    {
+        return parallelLoad;
+    }
+
     public boolean supportsActiveMonitoring()
     {
         return true;
@@ -459,7 +474,7 @@ import java.util.Set;
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            unlockAndPublish(writeLock);
             close(c);
             c = null;
         }
@@ -742,7 +757,7 @@ import java.util.Set;
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            unlockAndPublish(writeLock);
         }
         // TODO check if still needed
         //fireStorageUpdated(result);
@@ -1033,7 +1048,14 @@ import java.util.Set;
         entityStore.put( superCategory);
         final RaplaDefaultXMLContext inputContext = createInputContext(entityStore, this, superCategory);
         RaplaSQL raplaSQLInput = new RaplaSQL(inputContext);
-        raplaSQLInput.loadAll(connection);
+        if (parallelLoad)
+        {
+            raplaSQLInput.loadAllParallel(connection, this::createConnection);
+        }
+        else
+        {
+            raplaSQLInput.loadAll(connection);
+        }
 
         final Collection<ReferenceInfo> entitiesToRemove = removeInconsistentReservations(entityStore);
 
@@ -1057,6 +1079,7 @@ import java.util.Set;
         Collection<ReferenceInfo> removeObjects = (Collection)entitiesToRemove;
         dbStore(migratedTemplates, preferencePatches, removeObjects, connection, null);
         // It is important to do the read only later because some resolve might involve write to referenced objects
+        final List<Entity> historyEntities = new ArrayList<>();
         for (Entity entity : list)
         {
             ((RefEntity) entity).setReadOnly();
@@ -1065,10 +1088,12 @@ import java.util.Set;
                 Date lastChanged = ((Timestamp) entity).getLastChanged();
                 if ( lastChanged != null)
                 {
-                    history.addHistoryEntry(entity, lastChanged, false);
+                    historyEntities.add(entity);
                 }
             }
         }
+        // the entities are read only now, so they can be serialized in parallel
+        history.addHistoryEntries(historyEntities);
         for (Entity entity : migratedTemplates)
         {
             ((RefEntity) entity).setReadOnly();
@@ -37,13 +37,21 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage implements Storage<T> {
 	//String searchForIdSql;
+    /** number of rows the driver fetches at once on a full load. Without it some drivers (e.g. PostgreSQL) read the whole table into memory first */
+    static final int LOAD_FETCH_SIZE = 2000;
+    /** number of rows that are sent to the database in one batch */
+    static final int MAX_BATCH_SIZE = 1000;
+    /** maximum number of parameters in an IN (...) clause */
+    static final int MAX_IN_LIST_SIZE = 500;
 
     protected LocalCache cache;
     protected EntityStore entityStore;
@@ -219,8 +227,15 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
     }
 
 	public void loadAll() throws SQLException,RaplaException {
+        loadRows();
+        for (Storage storage: subStores) {
+            storage.loadAll();
+        }
+    }
 
-        try (Statement stmt = con.createStatement())
+    /** loads the rows of this table without the sub stores*/
+    void loadRows() throws SQLException,RaplaException {
+        try (Statement stmt = createLoadStatement())
 		{
 			try (ResultSet rset = stmt.executeQuery(selectSql))
 			{
@@ -230,9 +245,14 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
 				}
 			}
 		}
-        for (Storage storage: subStores) {
-            storage.loadAll();
-        }
+    }
+
+    /** creates a forward only statement that streams the rows of a full load */
+    protected Statement createLoadStatement() throws SQLException
+    {
+        final Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(LOAD_FETCH_SIZE);
+        return stmt;
     }
 
     public void insert(Iterable<T> entities) throws SQLException,RaplaException {
@@ -240,21 +260,40 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
         {
             storage.insert(entities);
         }
+        insertRows(entities);
+    }
+
+    /** inserts the rows of this table without the sub stores. The batch is sent every {@link #MAX_BATCH_SIZE} rows*/
+    protected void insertRows(Iterable<T> entities) throws SQLException,RaplaException {
         try (PreparedStatement stmt = con.prepareStatement(insertSql)){
             int count = 0;
             for ( T entity: entities)
             {
                 count+= write(stmt, entity);
+                if ( count >= MAX_BATCH_SIZE)
+                {
+                    stmt.executeBatch();
+                    count = 0;
+                }
             }
             if ( count > 0)
             {
                 stmt.executeBatch();
             }
-        } catch (SQLException ex) {
-            throw ex;
         }
     }
 
+    /** the rows that {@link #write(PreparedStatement, Entity)} creates for the entity in this table, without the sub stores*/
+    List<List<Object>> getRows(T entity) throws SQLException,RaplaException {
+        final RowRecorder recorder = new RowRecorder();
+        write(recorder.getStatement(), entity);
+        return recorder.getRows();
+    }
+
+    public boolean hasSameRows(T storedVersion, T entity) throws SQLException,RaplaException {
+        return getRows(storedVersion).equals(getRows(entity));
+    }
+
 //    public void update(Collection<Entity>> entities ) throws SQLException,RaplaException {
 //        for (Storage<T> storage: subStores) {
 //            storage.delete( entities );
@@ -302,14 +341,30 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
 //        }
 //    }
 
+    /** Replaces the rows of the entities. The rows of the sub stores are only rewritten for an entity, if they differ from
+     * the version in the cache. This is only possible if the database contained the cached version, which is ensured by
+     * the last changed check on delete. Otherwise all sub store rows of the entity are rewritten.*/
     public void save( Iterable<T> entities ) throws RaplaException, SQLException{
+        List<T> entityList = new ArrayList<>();
         Collection<ReferenceInfo<T>> toDelete = new ArrayList<>();
-        for (Entity entity:entities)
+        for (T entity:entities)
         {
+            entityList.add( entity);
             toDelete.add( entity.getReference());
         }
-        deleteEntities(  toDelete );
-		for (Entity entity:entities)
+        final Set<String> checkedIds = deleteRows( toDelete );
+        final Map<String, T> storedVersions = new HashMap<>();
+        for (String id : checkedIds)
+        {
+            @SuppressWarnings("unchecked")
+            final T storedVersion = (T) cache.get(id);
+            if (storedVersion != null)
+            {
+                storedVersions.put(id, storedVersion);
+            }
+        }
+        saveSubStores(entityList, storedVersions);
+		for (Entity entity:entityList)
 		{
 			if (entity instanceof ModifiableTimestamp)
 			{
@@ -317,7 +372,32 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
 				updateTimestamp( timestamp );
 			}
 		}
-        insert( entities );
+        insertRows( entityList );
+    }
+
+    /** rewrites the sub store rows of all entities, that have no stored version or whose rows differ from the stored version
+     * @param storedVersions the versions of the entities that are in the database, key is the id*/
+    protected void saveSubStores(Collection<T> entities, Map<String, T> storedVersions) throws RaplaException, SQLException
+    {
+        for (SubStorage<T> subStore : subStores)
+        {
+            final List<T> changed = new ArrayList<>();
+            final Set<String> changedIds = new HashSet<>();
+            for (T entity : entities)
+            {
+                final T storedVersion = storedVersions.get(entity.getId());
+                if (storedVersion == null || !subStore.hasSameRows(storedVersion, entity))
+                {
+                    changed.add(entity);
+                    changedIds.add(entity.getId());
+                }
+            }
+            if (!changed.isEmpty())
+            {
+                subStore.deleteIds(changedIds);
+                subStore.insert(changed);
+            }
+        }
     }
 
 	protected void updateTimestamp(ModifiableTimestamp timestamp)
@@ -337,9 +417,26 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
             return;
         }
         deleteFromSubStores(ids);
+        deleteRows(entities);
+    }
+
+    /** deletes the rows of this table without the sub stores.
+     * @return the ids of the rows that were deleted with the last changed timestamp of the cached version*/
+    protected Set<String> deleteRows(Iterable<ReferenceInfo<T>> entities) throws SQLException, RaplaException {
+        Set<String> ids = new HashSet<>();
+        for ( ReferenceInfo entity: entities)
+        {
+            ids.add( entity.getId());
+        }
+        Set<String> checkedIds = new HashSet<>();
+        if(ids.isEmpty())
+        {
+            return checkedIds;
+        }
         Set<String> idsToDelete = new HashSet<>();
         if(checkLastChanged)
         {
+            final Set<String> existingIds = getExistingIds(ids);
             PreparedStatement stmt = null;
             try
             {
@@ -349,13 +446,14 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
                 {
                     final String id = referenceInfo.getId();
                     final Timestamp loadedEntities = (Timestamp)cache.get(id);
-                    if(has(id))
+                    if(existingIds.contains(id))
                     {
                         if ( loadedEntities != null)
                         {
                             stmt.setString(1, id);
                             setTimestamp(stmt, 2, loadedEntities.getLastChanged());
                             stmt.addBatch();
+                            checkedIds.add( id );
                             commitNeeded = true;
                         }
                         else
@@ -390,6 +488,34 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
             idsToDelete = ids;
         }
         deleteIds(idsToDelete);
+        return checkedIds;
+    }
+
+    /** returns the ids that are in the table. The ids are queried in chunks of {@link #MAX_IN_LIST_SIZE} instead of one statement per id*/
+    protected Set<String> getExistingIds(Collection<String> ids) throws SQLException
+    {
+        final Set<String> result = new HashSet<>();
+        final List<String> idList = new ArrayList<>(ids);
+        for (int start = 0; start < idList.size(); start += MAX_IN_LIST_SIZE)
+        {
+            final List<String> chunk = idList.subList(start, Math.min(idList.size(), start + MAX_IN_LIST_SIZE));
+            final String sql = "SELECT " + idName + " FROM " + getTableName() + " WHERE " + idName + " IN (" + getMarkerList(chunk.size()) + ")";
+            try (PreparedStatement stmt = con.prepareStatement(sql))
+            {
+                for (int i = 0; i < chunk.size(); i++)
+                {
+                    stmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rset = stmt.executeQuery())
+                {
+                    while (rset.next())
+                    {
+                        result.add(rset.getString(1));
+                    }
+                }
+            }
+        }
+        return result;
     }
 
     protected void deleteFromSubStores(Set<String> ids) throws SQLException, RaplaException
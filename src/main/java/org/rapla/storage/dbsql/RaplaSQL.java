@@ -96,6 +96,10 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 class RaplaSQL
@@ -107,6 +111,8 @@ class RaplaSQL
     PreferenceStorage preferencesStorage;
     LockStorage lockStorage;
     private final ImportExportStorage importExportStorage;
+    /** maximum number of connections used by {@link #loadAllParallel(Connection, ConnectionFactory)}*/
+    static final int PARALLEL_LOAD_THREADS = 4;
 
     RaplaSQL(RaplaXMLContext context) throws RaplaException
     {
@@ -232,6 +238,165 @@ class RaplaSQL
         }
     }
 
+    interface ConnectionFactory
+    {
+        Connection createConnection() throws RaplaException;
+    }
+
+    private interface LoadTask
+    {
+        void load() throws SQLException, RaplaException;
+    }
+
+    /** Same as {@link #loadAll(Connection)} but the tables that don't depend on each other are loaded at the same time, each on its own connection.
+     * Categories, users and types are loaded first, because all other tables refer to them. Then the resources, the conflicts and the
+     * reservations with their appointments are loaded in parallel, followed by the exceptions and allocations of the appointments.
+     * Preferences, history and import/export entries are loaded at last on the passed connection.
+     * All connections use the timestamp of the passed connection.
+     * <p>
+     * The connections can't share one transaction, so the global lock is held during the load. Other servers can't write then and all
+     * connections read the same state. If the lock is not available, the tables are loaded one after the other with {@link #loadAll(Connection)}.
+     */
+    synchronized public void loadAllParallel(Connection con, ConnectionFactory connectionFactory) throws SQLException, RaplaException
+    {
+        final Date connectionTimestamp = getDatabaseTimestamp(con);
+        final Collection<String> globalLock = Collections.singleton(LockStorage.GLOBAL_LOCK);
+        try
+        {
+            requestLocks(con, connectionTimestamp, globalLock, null, false);
+            // the other servers must see the lock
+            commit(con);
+        }
+        catch (RaplaException ex)
+        {
+            getLogger().warn("Can't get the global lock for a parallel load. Loading on one connection. " + ex.getMessage());
+            loadAll(con);
+            return;
+        }
+        try
+        {
+            loadAllParallel(con, connectionFactory, connectionTimestamp);
+        }
+        finally
+        {
+            removeLocks(con, globalLock, null, false);
+            commit(con);
+        }
+    }
+
+    private static void commit(Connection con) throws SQLException
+    {
+        if (con.getMetaData().supportsTransactions())
+        {
+            con.commit();
+        }
+    }
+
+    private void loadAllParallel(Connection con, ConnectionFactory connectionFactory, Date connectionTimestamp) throws SQLException, RaplaException
+    {
+        final RaplaTypeStorage allocatableStorage = stores.get(Allocatable.class);
+        final RaplaTypeStorage reservationStorage = stores.get(Reservation.class);
+        // the reservation storage sets its connection on the shared appointment storage, so the appointments are loaded with their own storage
+        final AppointmentStorage appointmentStorage = new AppointmentStorage(context);
+        final RaplaTypeStorage conflictStorage = stores.get(Conflict.class);
+        final Collection<RaplaTypeStorage> parallelStores = Arrays.asList(allocatableStorage, reservationStorage, stores.get(Appointment.class), conflictStorage);
+        final Collection<RaplaTypeStorage> lastStores = Arrays.asList(preferencesStorage, history, importExportStorage);
+        for (RaplaTypeStorage storage : stores.values())
+        {
+            if (!parallelStores.contains(storage) && !lastStores.contains(storage))
+            {
+                load(storage, con, connectionTimestamp, storage::loadAll);
+            }
+        }
+        final int threads = Math.min(PARALLEL_LOAD_THREADS, Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(2, threads));
+        try
+        {
+            final LoadTask reservationsAndAppointments = () ->
+            {
+                // the appointments are added to the reservations, so the reservations with their attributes must be loaded first
+                loadWithNewConnection(reservationStorage, connectionFactory, connectionTimestamp, reservationStorage::loadAll);
+                loadWithNewConnection(appointmentStorage, connectionFactory, connectionTimestamp, appointmentStorage::loadRows);
+            };
+            waitFor(Arrays.asList(
+                    loadAsync(executor, () -> loadWithNewConnection(allocatableStorage, connectionFactory, connectionTimestamp, allocatableStorage::loadAll)),
+                    loadAsync(executor, () -> loadWithNewConnection(conflictStorage, connectionFactory, connectionTimestamp, conflictStorage::loadAll)),
+                    loadAsync(executor, reservationsAndAppointments)));
+            // exceptions and allocations need the appointments, allocations also the resources. Each sub store is only used by one worker
+            final List<CompletableFuture<Void>> appointmentSubStores = new ArrayList<>();
+            for (SubStorage<Appointment> subStorage : appointmentStorage.getSubStores())
+            {
+                appointmentSubStores.add(loadAsync(executor, () -> loadWithNewConnection(subStorage, connectionFactory, connectionTimestamp, subStorage::loadAll)));
+            }
+            waitFor(appointmentSubStores);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        for (RaplaTypeStorage storage : lastStores)
+        {
+            load(storage, con, connectionTimestamp, storage::loadAll);
+        }
+    }
+
+    private void loadWithNewConnection(TableStorage storage, ConnectionFactory connectionFactory, Date connectionTimestamp, LoadTask task) throws SQLException, RaplaException
+    {
+        try (Connection con = connectionFactory.createConnection())
+        {
+            load(storage, con, connectionTimestamp, task);
+        }
+    }
+
+    private void load(TableStorage storage, Connection con, Date connectionTimestamp, LoadTask task) throws SQLException, RaplaException
+    {
+        storage.setConnection(con, connectionTimestamp);
+        try
+        {
+            task.load();
+        }
+        finally
+        {
+            storage.removeConnection();
+        }
+    }
+
+    private CompletableFuture<Void> loadAsync(ExecutorService executor, LoadTask task)
+    {
+        return CompletableFuture.runAsync(() ->
+        {
+            try
+            {
+                task.load();
+            }
+            catch (SQLException | RaplaException ex)
+            {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    private void waitFor(List<CompletableFuture<Void>> futures) throws SQLException, RaplaException
+    {
+        try
+        {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+        }
+        catch (CompletionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof SQLException)
+            {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RaplaException)
+            {
+                throw (RaplaException) cause;
+            }
+            throw new RaplaException(cause != null ? cause : ex);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     synchronized public void remove(Connection con, ReferenceInfo referenceInfo, Date connectionTimestamp) throws SQLException, RaplaException
     {
@@ -1352,15 +1517,10 @@ class ReservationStorage extends RaplaTypeStorage<Reservation>
     }
 
     @Override
-    public void save(Iterable<Reservation> entities) throws RaplaException, SQLException
+    protected void saveSubStores(Collection<Reservation> entities, Map<String, Reservation> storedVersions) throws RaplaException, SQLException
     {
-        super.save(entities);
-        Collection<Appointment> appointments = new ArrayList<>();
-        for (Reservation r : entities)
-        {
-            appointments.addAll(Arrays.asList(r.getAppointments()));
-        }
-        appointmentStorage.insert(appointments);
+        super.saveSubStores(entities, storedVersions);
+        appointmentStorage.saveAppointments(entities, storedVersions);
     }
 
     @Override
@@ -1686,26 +1846,31 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
 
     void deleteAppointments(Collection<String> reservationIds) throws SQLException, RaplaException
     {
+        if (reservationIds.isEmpty())
+        {
+            return;
+        }
         // look for all appointment ids, as the sub storages must be deleted with appointment id
         final Set<String> ids = new HashSet<>();
-        final String sql = "SELECT ID FROM APPOINTMENT WHERE EVENT_ID=?";
-        for (String eventId : reservationIds)
+        final List<String> reservationIdList = new ArrayList<>(reservationIds);
+        for (int start = 0; start < reservationIdList.size(); start += MAX_IN_LIST_SIZE)
         {
-            ResultSet rset = null;
+            final List<String> chunk = reservationIdList.subList(start, Math.min(reservationIdList.size(), start + MAX_IN_LIST_SIZE));
+            final String sql = "SELECT ID FROM APPOINTMENT WHERE EVENT_ID IN (" + getMarkerList(chunk.size()) + ")";
             try (final PreparedStatement stmt = con.prepareStatement(sql))
             {
-                setString(stmt, 1, eventId);
-                rset = stmt.executeQuery();
-                while (rset.next())
+                for (int i = 0; i < chunk.size(); i++)
                 {
-                    String appointmentId = readId(rset, 1, Appointment.class).getId();
-                    ids.add(appointmentId);
+                    setString(stmt, i + 1, chunk.get(i));
+                }
+                try (ResultSet rset = stmt.executeQuery())
+                {
+                    while (rset.next())
+                    {
+                        String appointmentId = readId(rset, 1, Appointment.class).getId();
+                        ids.add(appointmentId);
+                    }
                 }
-            }
-            finally
-            {
-                if (rset != null)
-                    rset.close();
             }
         }
         // and delete them
@@ -1713,6 +1878,77 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
         deleteFromSubStores(ids);
     }
 
+    /** Writes the appointments of the reservations. For a reservation with a stored version only the appointments that
+     * are new, removed or changed compared to the stored version are written, and of the changed ones only the tables
+     * that differ. All appointments of the other reservations are rewritten.
+     * @param storedReservations the versions of the reservations that are in the database, key is the id*/
+    void saveAppointments(Collection<Reservation> reservations, Map<String, Reservation> storedReservations) throws SQLException, RaplaException
+    {
+        final Collection<String> rewrittenReservationIds = new ArrayList<>();
+        final Map<String, Appointment> storedAppointments = new HashMap<>();
+        final Set<String> removedIds = new LinkedHashSet<>();
+        final List<Appointment> appointments = new ArrayList<>();
+        for (Reservation reservation : reservations)
+        {
+            final Reservation storedReservation = storedReservations.get(reservation.getId());
+            if (storedReservation == null)
+            {
+                rewrittenReservationIds.add(reservation.getId());
+            }
+            else
+            {
+                for (Appointment storedAppointment : storedReservation.getAppointments())
+                {
+                    storedAppointments.put(storedAppointment.getId(), storedAppointment);
+                    removedIds.add(storedAppointment.getId());
+                }
+            }
+            for (Appointment appointment : reservation.getAppointments())
+            {
+                appointments.add(appointment);
+                removedIds.remove(appointment.getId());
+            }
+        }
+        deleteAppointments(rewrittenReservationIds);
+        final List<Appointment> changed = new ArrayList<>();
+        final Set<String> changedIds = new HashSet<>(removedIds);
+        for (Appointment appointment : appointments)
+        {
+            final Appointment storedAppointment = storedAppointments.get(appointment.getId());
+            if (storedAppointment == null)
+            {
+                changed.add(appointment);
+            }
+            else if (!hasSameRows(storedAppointment, appointment))
+            {
+                changed.add(appointment);
+                changedIds.add(appointment.getId());
+            }
+        }
+        deleteAppointmentRows(changedIds);
+        deleteFromSubStores(removedIds);
+        saveSubStores(appointments, storedAppointments);
+        insertRows(changed);
+    }
+
+    private void deleteAppointmentRows(Collection<String> appointmentIds) throws SQLException
+    {
+        if (appointmentIds.isEmpty())
+        {
+            return;
+        }
+        // deleteIds deletes by the reservation id, so we need our own statement
+        try (PreparedStatement stmt = con.prepareStatement("DELETE FROM APPOINTMENT WHERE ID=?"))
+        {
+            for (String id : appointmentIds)
+            {
+                setString(stmt, 1, id);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
     @Override
     void insertAll() throws SQLException, RaplaException
     {
@@ -2346,7 +2582,7 @@ class PreferenceStorage extends RaplaTypeStorage<Preferences>
     }
 
     @Override
-    public void deleteEntities(Iterable<ReferenceInfo<Preferences>> entities) throws SQLException
+    protected Set<String> deleteRows(Iterable<ReferenceInfo<Preferences>> entities) throws SQLException
     {
         PreparedStatement stmt = null;
         boolean deleteNullUserPreference = false;
@@ -2386,6 +2622,7 @@ class PreferenceStorage extends RaplaTypeStorage<Preferences>
             PreparedStatement deleteNullStmt = con.prepareStatement("DELETE FROM " + getTableName() + " WHERE USER_ID IS NULL OR USER_ID=0");
             deleteNullStmt.execute();
         }
+        return Collections.emptySet();
     }
 }
 
@@ -2493,7 +2730,7 @@ class ConflictStorage extends RaplaTypeStorage<Conflict>
     }
 
     @Override
-    public void deleteEntities(Iterable<ReferenceInfo<Conflict>> entities) throws SQLException, RaplaException
+    protected Set<String> deleteRows(Iterable<ReferenceInfo<Conflict>> entities) throws SQLException, RaplaException
     {
         PreparedStatement stmt = null;
         try
@@ -2526,6 +2763,7 @@ class ConflictStorage extends RaplaTypeStorage<Conflict>
             if (stmt != null)
                 stmt.close();
         }
+        return Collections.emptySet();
     }
 
     @Override
@@ -2915,7 +3153,7 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
     @Override
     public void loadAll() throws SQLException, RaplaException
     {
-        try (Statement stmt = con.createStatement(); ResultSet rset = stmt.executeQuery(selectSql))
+        try (Statement stmt = createLoadStatement(); ResultSet rset = stmt.executeQuery(selectSql))
         {
             final HashSet<String> finishedIdsToLoad = new HashSet<>();
             while (rset.next())
@@ -0,0 +1,71 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.dbsql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A statement that records the rows added with addBatch instead of sending them to the database.
+ * Used to compare the rows that {@link EntityStorage} writes for two versions of an entity.
+ * Only the set methods, addBatch and clearParameters are supported.
+ */
+final class RowRecorder implements InvocationHandler
+{
+    private final List<List<Object>> rows = new ArrayList<>();
+    // like in a real statement the parameters are kept after addBatch
+    private final Map<Integer, Object> parameters = new TreeMap<>();
+    private final PreparedStatement statement;
+
+    RowRecorder()
+    {
+        statement = (PreparedStatement) Proxy.newProxyInstance(RowRecorder.class.getClassLoader(), new Class[] { PreparedStatement.class }, this);
+    }
+
+    PreparedStatement getStatement()
+    {
+        return statement;
+    }
+
+    List<List<Object>> getRows()
+    {
+        return rows;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+    {
+        final String name = method.getName();
+        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+        {
+            parameters.put((Integer) args[0], args[1]);
+            return null;
+        }
+        if (name.equals("addBatch") && (args == null || args.length == 0))
+        {
+            rows.add(new ArrayList<>(parameters.values()));
+            return null;
+        }
+        if (name.equals("clearParameters"))
+        {
+            parameters.clear();
+            return null;
+        }
+        throw new UnsupportedOperationException(name + " is not supported when recording rows");
+    }
+}
@@ -10,4 +10,6 @@ public interface SubStorage<T extends Entity<T>> extends  Storage<T>
 {
     void updateWithForeignId(String foreignId) throws SQLException,RaplaException;
     void deleteIds(Collection<String> ids) throws SQLException,RaplaException;
+    /** true if the storage would write the same rows for both versions of the entity*/
+    boolean hasSameRows(T storedVersion, T entity) throws SQLException,RaplaException;
 }
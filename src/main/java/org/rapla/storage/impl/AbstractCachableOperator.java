@@ -969,11 +969,41 @@ public abstract class AbstractCachableOperator implements StorageOperator
         }
         setResolver(updatedEntities);
         updatePeriods(updatedEntities, toRemove);
+        invalidateNames(updatedEntities, toRemove);
         final UpdateResult updateResult = createUpdateResult(oldEntities, updatedEntities, toRemove, since, until);
         setLastRefreshed(until);
         return updateResult;
     }
 
+    /** the formatted names of the classifications can show categories, types and resources, e.g. the category of a resource */
+    private void invalidateNames(Collection<Entity> updatedEntities, Collection<ReferenceInfo> toRemove) {
+        boolean invalidate = false;
+        for (Entity entity : updatedEntities) {
+            if (isNameDependency(entity.getTypeClass())) {
+                invalidate = true;
+                break;
+            }
+        }
+        for (ReferenceInfo id : toRemove) {
+            if (isNameDependency(id.getType())) {
+                invalidate = true;
+                break;
+            }
+        }
+        if (invalidate) {
+            cache.invalidateNames();
+        }
+    }
+
+    private static boolean isNameDependency(Class<? extends Entity> type) {
+        return type == Category.class || type == DynamicType.class || type == Allocatable.class;
+    }
+
+    @Override public long getNamesVersion()
+    {
+        return cache.getNamesVersion();
+    }
+
     private void updatePeriods(Collection<Entity> updatedEntities,Collection<ReferenceInfo> toRemove) {
         if (periodModel != null ) {
             try {
@@ -7,10 +7,11 @@ import org.rapla.inject.InjectionContext;
 import org.rapla.logger.Logger;
 
 import javax.inject.Inject;
-import java.util.Stack;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @DefaultImplementation(of = RaplaLock.class, context = { InjectionContext.server, InjectionContext.swing })
@@ -18,9 +19,12 @@ public class DefaultRaplaLock implements RaplaLock
 {
     public static final int DEFAULT_READLOCK_TIMEOUT_SECONDS = 20;
     public static final int DEFAULT_WRITELOCK_TIMEOUT_SECONDS = 60;
-    final protected ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    Stack<WriteLock> writeLocks = new Stack<>();
-    Stack<ReadLock> readLocks = new Stack<>();
+    final protected ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    // serializes the writers, so a writer that lets the readers in with runWithReadersAllowed gets the write lock back before any other writer
+    final protected ReentrantLock writerLock = new ReentrantLock();
+    // the lock infos are only used for logging, concurrent sets avoid that all readers synchronize on one collection
+    Collection<WriteLock> writeLocks = ConcurrentHashMap.newKeySet();
+    Collection<ReadLock> readLocks = ConcurrentHashMap.newKeySet();
     Logger logger;
 
     @Inject
@@ -90,7 +94,7 @@ public class DefaultRaplaLock implements RaplaLock
         }
     }
 
-    private void logLongLocks(Stack<? extends LockInfo> lockCollection, int logThreshholdTime)
+    private void logLongLocks(Collection<? extends LockInfo> lockCollection, int logThreshholdTime)
     {
         final long currentTime = System.currentTimeMillis();
         final LockInfo[] locks = lockCollection.toArray(new LockInfo[] {});
@@ -115,16 +119,35 @@ public class DefaultRaplaLock implements RaplaLock
         final long currentTime = System.currentTimeMillis();
         if (seconds > 0)
         {
-            lock = new WriteLock(lock(this.readWriteLock.writeLock(), seconds, false),clazz, name, stackTrace, currentTime);
+            lock(writerLock, seconds, false);
+            final Lock writeLock;
+            try
+            {
+                final int secondsLeft = Math.max(1, seconds - (int) ((System.currentTimeMillis() - currentTime) / 1000));
+                writeLock = lock(this.readWriteLock.writeLock(), secondsLeft, false);
+            }
+            catch (RaplaException ex)
+            {
+                writerLock.unlock();
+                throw ex;
+            }
+            lock = new WriteLock(writeLock, clazz, name, stackTrace, currentTime);
         }
         else
         {
             Lock writeLock = this.readWriteLock.writeLock();
             // dispatch also does an refresh without lock so we get the new data each time a store is called
-            boolean tryLock = writeLock.tryLock();
-            if (tryLock)
+            if (writerLock.tryLock())
             {
-                lock = new WriteLock(writeLock,clazz, name, stackTrace, currentTime);
+                if (writeLock.tryLock())
+                {
+                    lock = new WriteLock(writeLock, clazz, name, stackTrace, currentTime);
+                }
+                else
+                {
+                    writerLock.unlock();
+                    lock = null;
+                }
             }
             else
             {
@@ -217,6 +240,36 @@ public class DefaultRaplaLock implements RaplaLock
         }
         ((Lock) lock.lock).unlock();
         writeLocks.remove(lock);
+        writerLock.unlock();
+    }
+
+    @Override
+    public <T> T runWithReadersAllowed(Class clazz, String name, Task<T> task) throws RaplaException
+    {
+        // a nested write lock is not released, because the outer lock holder could rely on the exclusive access
+        if (readWriteLock.getWriteHoldCount() != 1)
+        {
+            return task.run();
+        }
+        final Lock writeLock = readWriteLock.writeLock();
+        final Lock readLock = readWriteLock.readLock();
+        // downgrade to the read lock. The readers can continue, the other writers still wait for the writer lock
+        readLock.lock();
+        writeLock.unlock();
+        StackTraceElement[] stackTrace = logger.isTraceEnabled() ? getStackTrace() : new StackTraceElement[] {};
+        final ReadLock readLockInfo = new ReadLock(readLock, clazz, name, stackTrace, System.currentTimeMillis());
+        readLocks.add(readLockInfo);
+        try
+        {
+            return task.run();
+        }
+        finally
+        {
+            readLocks.remove(readLockInfo);
+            readLock.unlock();
+            // waits only for the current readers, because no other writer can get the write lock while we hold the writer lock
+            writeLock.lock();
+        }
     }
 
 }
@@ -29,6 +29,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+/** Collects the entities during a load. The methods are synchronized, so several tables can be loaded into the same store at once.*/
 public class EntityStore implements EntityResolver {
     HashMap<String,Entity> entities = new LinkedHashMap<>();
     HashMap<String,DynamicType> dynamicTypes = new HashMap<>();
@@ -51,7 +52,7 @@ public class EntityStore implements EntityResolver {
         }
     }
 
-    public void put(Entity entity) {
+    synchronized public void put(Entity entity) {
         String id = entity.getId();
         Assert.notNull(id);
         final Class<? extends Entity> raplaType = entity.getTypeClass();
@@ -80,7 +81,7 @@ public class EntityStore implements EntityResolver {
         entities.put(id,entity);
     }
 
-    public void remove(ReferenceInfo ref)
+    synchronized public void remove(ReferenceInfo ref)
     {
         String id = ref.getId();
         entities.remove(id);
@@ -106,7 +107,11 @@ public class EntityStore implements EntityResolver {
 
     public DynamicType getDynamicType(String key)
     {
-        DynamicType type =  dynamicTypes.get(key);
+        DynamicType type;
+        synchronized (this)
+        {
+            type = dynamicTypes.get(key);
+        }
         if ( type == null )
         {
             type = parent.getDynamicType( key);
@@ -114,7 +119,13 @@ public class EntityStore implements EntityResolver {
         return type;
     }
 
-    public Collection<Entity>getList() {
+    @Override
+    public long getNamesVersion()
+    {
+        return parent.getNamesVersion();
+    }
+
+    synchronized public Collection<Entity>getList() {
         return entities.values();
     }
 
@@ -125,12 +136,12 @@ public class EntityStore implements EntityResolver {
     }
     */
 
-    public void putPassword( ReferenceInfo<User> userid, String password )
+    synchronized public void putPassword( ReferenceInfo<User> userid, String password )
     {
         passwordList.put(userid, password);
     }
     
-    public String getPassword( ReferenceInfo<User> userid)
+    synchronized public String getPassword( ReferenceInfo<User> userid)
     {
         return passwordList.get(userid);
     }
@@ -158,7 +169,11 @@ public class EntityStore implements EntityResolver {
     @Override
     public <T extends Entity> T tryResolve(String id,Class<T> entityClass)  {
         Assert.notNull( id);
-        Entity entity = entities.get(id);
+        Entity entity;
+        synchronized (this)
+        {
+            entity = entities.get(id);
+        }
         if (entity != null) {
             @SuppressWarnings("unchecked")
             T casted = (T) entity;
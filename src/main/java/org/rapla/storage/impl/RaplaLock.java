@@ -20,6 +20,17 @@ public interface RaplaLock
     void unlock(ReadLock lock);
     void unlock(WriteLock lock);
 
+    /** Runs a long task of the current write lock holder with the write lock downgraded to a read lock, so readers are not
+     * blocked by the task. Other writers stay blocked and the write lock is held again when the method returns.
+     * The task must only modify state that is safe for concurrent readers. If the current thread holds no write lock
+     * or holds it more than once, the task is run without releasing anything.*/
+    <T> T runWithReadersAllowed(Class callerClass, String name, Task<T> task) throws RaplaException;
+
+    interface Task<T>
+    {
+        T run() throws RaplaException;
+    }
+
     interface LockInfo
     {
         StackTraceElement[] getStackTrace();
@@ -4,9 +4,11 @@ import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
 
 import java.util.Collection;
-import java.util.SortedSet;
+import java.util.Date;
 
 public interface AllocationMap {
-	SortedSet<Appointment> getAppointments(Allocatable allocatable);
+	Collection<Appointment> getAppointments(Allocatable allocatable);
+	/** returns the appointments of the allocatable that overlap the period, excluding the exceptions of repeatings*/
+	Collection<Appointment> getAppointments(Allocatable allocatable, Date start, Date end);
 	Collection<Allocatable> getAllocatables();
 }
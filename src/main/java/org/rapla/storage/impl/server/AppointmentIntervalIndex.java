@@ -0,0 +1,404 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.impl.server;
+
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Augmented interval tree over the appointments that are bound to one allocatable.
+ * <p>
+ * The appointments are kept in an AVL tree ordered by the {@link AppointmentStartComparator}. Every node also stores the
+ * largest {@link Appointment#getMaxEnd()} of its subtree, so a query only descends into subtrees that can contain an
+ * appointment overlapping the requested period. A query takes logarithmic time plus the number of candidates found,
+ * instead of a scan over all appointments that start before the end of the period.
+ * <p>
+ * Appointments repeating forever have no max end. They are kept in a separate set and are always returned as candidates,
+ * otherwise a single one of them would set the max end of all its ancestors to infinity and disable the pruning.
+ * <p>
+ * The index is not thread safe. Access must be guarded by the lock of the operator, as for the other index maps.
+ */
+final class AppointmentIntervalIndex extends AbstractCollection<Appointment>
+{
+    private static final class Node
+    {
+        final Appointment appointment;
+        final long maxEnd;
+        long subtreeMaxEnd;
+        int height = 1;
+        Node left;
+        Node right;
+
+        Node(Appointment appointment, long maxEnd)
+        {
+            this.appointment = appointment;
+            this.maxEnd = maxEnd;
+            this.subtreeMaxEnd = maxEnd;
+        }
+    }
+
+    private final Comparator<Appointment> comparator = new AppointmentStartComparator();
+    private final SortedSet<Appointment> unbounded = new TreeSet<>(comparator);
+    private Node root;
+    private int treeSize;
+    // set by the recursive insert and delete methods
+    private boolean modified;
+
+    @Override
+    public int size()
+    {
+        return treeSize + unbounded.size();
+    }
+
+    @Override
+    public boolean add(Appointment appointment)
+    {
+        final Date maxEnd = appointment.getMaxEnd();
+        if (maxEnd == null)
+        {
+            return unbounded.add(appointment);
+        }
+        modified = false;
+        root = insert(root, appointment, maxEnd.getTime());
+        if (modified)
+        {
+            treeSize++;
+        }
+        return modified;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (!(o instanceof Appointment))
+        {
+            return false;
+        }
+        final Appointment appointment = (Appointment) o;
+        if (unbounded.remove(appointment))
+        {
+            return true;
+        }
+        modified = false;
+        root = delete(root, appointment);
+        if (modified)
+        {
+            treeSize--;
+        }
+        return modified;
+    }
+
+    /** removes the appointment by comparing all stored appointments with equals. Use this only as fallback if
+     * the appointment could have changed since it was added, because it rebuilds the whole tree. */
+    boolean removeWithFullSearch(Appointment appointment)
+    {
+        boolean found = false;
+        final Iterator<Appointment> it = unbounded.iterator();
+        while (it.hasNext())
+        {
+            if (appointment.equals(it.next()))
+            {
+                it.remove();
+                found = true;
+            }
+        }
+        final List<Node> nodes = new ArrayList<>(treeSize);
+        collectNodes(root, nodes);
+        final List<Node> remaining = new ArrayList<>(nodes.size());
+        for (Node node : nodes)
+        {
+            if (appointment.equals(node.appointment))
+            {
+                found = true;
+            }
+            else
+            {
+                remaining.add(node);
+            }
+        }
+        if (remaining.size() != nodes.size())
+        {
+            root = build(remaining, 0, remaining.size() - 1);
+            treeSize = remaining.size();
+        }
+        return found;
+    }
+
+    @Override
+    public void clear()
+    {
+        root = null;
+        treeSize = 0;
+        unbounded.clear();
+    }
+
+    /** Iterates over the bounded appointments in start order followed by the appointments that repeat forever.*/
+    @Override
+    public Iterator<Appointment> iterator()
+    {
+        final List<Node> stack = new ArrayList<>();
+        pushLeft(root, stack);
+        final Iterator<Appointment> unboundedIterator = unbounded.iterator();
+        return new Iterator<Appointment>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return !stack.isEmpty() || unboundedIterator.hasNext();
+            }
+
+            @Override
+            public Appointment next()
+            {
+                if (stack.isEmpty())
+                {
+                    if (!unboundedIterator.hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return unboundedIterator.next();
+                }
+                final Node node = stack.remove(stack.size() - 1);
+                pushLeft(node.right, stack);
+                return node.appointment;
+            }
+        };
+    }
+
+    /**
+     * Adds all appointments that start before end and whose max end is after start to the result collection.
+     * These are candidates only, the caller must still check the exact overlap with the repeatings and exceptions.
+     * @param start the start of the period or null for an open start
+     * @param end the end of the period or null for an open end
+     */
+    void collectCandidates(Date start, Date end, Collection<Appointment> result)
+    {
+        final long startTime = start != null ? start.getTime() : Long.MIN_VALUE;
+        final long endTime = end != null ? end.getTime() : Long.MAX_VALUE;
+        collectCandidates(root, startTime, endTime, result);
+        for (Appointment appointment : unbounded)
+        {
+            if (appointment.getStart().getTime() > endTime)
+            {
+                break;
+            }
+            result.add(appointment);
+        }
+    }
+
+    private void collectCandidates(Node node, long start, long end, Collection<Appointment> result)
+    {
+        while (node != null)
+        {
+            // no appointment in this subtree ends after the start of the period
+            if (node.subtreeMaxEnd <= start)
+            {
+                return;
+            }
+            collectCandidates(node.left, start, end, result);
+            final long nodeStart = node.appointment.getStart().getTime();
+            // all appointments in the right subtree start after this one
+            if (nodeStart > end)
+            {
+                return;
+            }
+            if (node.maxEnd > start)
+            {
+                result.add(node.appointment);
+            }
+            node = node.right;
+        }
+    }
+
+    private Node insert(Node node, Appointment appointment, long maxEnd)
+    {
+        if (node == null)
+        {
+            modified = true;
+            return new Node(appointment, maxEnd);
+        }
+        final int compare = comparator.compare(appointment, node.appointment);
+        if (compare < 0)
+        {
+            node.left = insert(node.left, appointment, maxEnd);
+        }
+        else if (compare > 0)
+        {
+            node.right = insert(node.right, appointment, maxEnd);
+        }
+        else
+        {
+            return node;
+        }
+        return balance(node);
+    }
+
+    private Node delete(Node node, Appointment appointment)
+    {
+        if (node == null)
+        {
+            return null;
+        }
+        final int compare = comparator.compare(appointment, node.appointment);
+        if (compare < 0)
+        {
+            node.left = delete(node.left, appointment);
+        }
+        else if (compare > 0)
+        {
+            node.right = delete(node.right, appointment);
+        }
+        else
+        {
+            modified = true;
+            if (node.left == null)
+            {
+                return node.right;
+            }
+            if (node.right == null)
+            {
+                return node.left;
+            }
+            Node successor = node.right;
+            while (successor.left != null)
+            {
+                successor = successor.left;
+            }
+            final Node replacement = new Node(successor.appointment, successor.maxEnd);
+            replacement.right = deleteMin(node.right);
+            replacement.left = node.left;
+            node = replacement;
+        }
+        return balance(node);
+    }
+
+    private Node deleteMin(Node node)
+    {
+        if (node.left == null)
+        {
+            return node.right;
+        }
+        node.left = deleteMin(node.left);
+        return balance(node);
+    }
+
+    private static int height(Node node)
+    {
+        return node != null ? node.height : 0;
+    }
+
+    private static void update(Node node)
+    {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        long max = node.maxEnd;
+        if (node.left != null && node.left.subtreeMaxEnd > max)
+        {
+            max = node.left.subtreeMaxEnd;
+        }
+        if (node.right != null && node.right.subtreeMaxEnd > max)
+        {
+            max = node.right.subtreeMaxEnd;
+        }
+        node.subtreeMaxEnd = max;
+    }
+
+    private static Node balance(Node node)
+    {
+        update(node);
+        final int balance = height(node.left) - height(node.right);
+        if (balance > 1)
+        {
+            if (height(node.left.left) < height(node.left.right))
+            {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1)
+        {
+            if (height(node.right.right) < height(node.right.left))
+            {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Node rotateRight(Node node)
+    {
+        final Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node)
+    {
+        final Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static void pushLeft(Node node, List<Node> stack)
+    {
+        while (node != null)
+        {
+            stack.add(node);
+            node = node.left;
+        }
+    }
+
+    private static void collectNodes(Node node, List<Node> nodes)
+    {
+        final List<Node> stack = new ArrayList<>();
+        pushLeft(node, stack);
+        while (!stack.isEmpty())
+        {
+            final Node next = stack.remove(stack.size() - 1);
+            nodes.add(next);
+            pushLeft(next.right, stack);
+        }
+    }
+
+    private static Node build(List<Node> nodes, int from, int to)
+    {
+        if (from > to)
+        {
+            return null;
+        }
+        final int middle = (from + to) >>> 1;
+        final Node original = nodes.get(middle);
+        final Node node = new Node(original.appointment, original.maxEnd);
+        node.left = build(nodes, from, middle - 1);
+        node.right = build(nodes, middle + 1, to);
+        update(node);
+        return node;
+    }
+}
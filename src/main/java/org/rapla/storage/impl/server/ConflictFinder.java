@@ -39,25 +39,30 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class ConflictFinder {
 	AllocationMap  allocationMap;
     // stores all conflicts (can be without enable/disable information)
-    private Map<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> conflictMap;
+    // readers can access the conflicts while they are updated, so the conflicts of an allocatable are never modified after they are put in the map.
+    // Updates are synchronized on the finder
+    private final Map<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> conflictMap;
     Logger logger;
     EntityResolver resolver;
     private final PermissionController permissionController;
+    // if set only the changed appointments are checked on an update, otherwise all conflicts of the resource are recalculated
+    private boolean incrementalUpdate = true;
     public ConflictFinder( AllocationMap  allocationMap, Date today, Logger logger, EntityResolver resolver,  PermissionController permissionController)  {
     	this.logger = logger;
     	this.allocationMap = allocationMap;
         this.permissionController = permissionController;
-    	conflictMap = new HashMap<>();
+    	conflictMap = new ConcurrentHashMap<>();
     	long startTime = System.currentTimeMillis();
     	int conflictSize = 0;
         for (Allocatable allocatable:allocationMap.getAllocatables())
@@ -70,6 +75,16 @@ class ConflictFinder {
         this.resolver = resolver;
 	}
     
+    public void setIncrementalUpdate(boolean incrementalUpdate)
+    {
+        this.incrementalUpdate = incrementalUpdate;
+    }
+
+    public boolean isIncrementalUpdate()
+    {
+        return incrementalUpdate;
+    }
+
     public Conflict findConflict(ReferenceInfo<Conflict> ref)
     {
         Date dummyLastChanged = new Date();
@@ -101,7 +116,7 @@ class ConflictFinder {
         {
             return Collections.emptyMap();
         }
-        Set<Appointment> allAppointments = allocationMap.getAppointments(allocatable);
+        Collection<Appointment> allAppointments = allocationMap.getAppointments(allocatable);
 //        Set<Appointment> changedAppointments;
 //        Set<Appointment> removedAppointments;
 //        if ( change == null)
@@ -230,7 +245,7 @@ class ConflictFinder {
 //        }
 //    }
     
-    private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Set<Appointment> allAppointments) {
+    private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Collection<Appointment> allAppointments) {
         Collection<AppointmentBlock> allAppointmentBlocks = new LinkedList<>();
         createBlocks(today,allAppointments,allAppointmentBlocks);
 //        Collection<AppointmentBlock> appointmentBlocks =  new LinkedList<AppointmentBlock>();
@@ -425,51 +440,169 @@ class ConflictFinder {
 	
     private void createBlocks(Date today, Collection<Appointment> appointmentSet,  Collection<AppointmentBlock> allAppointmentBlocks) {
         // overlaps will be checked  260 weeks (5 years) from now on
-		long maxCheck = System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+		long maxCheck = getMaxCheck();
 		//Appointment last = appointmentSet.last();
 		
 		// Get all time blocks of all appointments
 		for (Appointment appointment:appointmentSet)
 		{
-			// Get the end date of the appointment (if repeating, end date of last occurence)
-			Date maxEnd = appointment.getMaxEnd();
-		       // Check if the appointment is repeating forever
-            if ( maxEnd == null || maxEnd.getTime() > maxCheck)
+		    createBlocks(today, maxCheck, appointment, allAppointmentBlocks);
+		}
+    }
+
+    private long getMaxCheck()
+    {
+        return System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+    }
+
+    private void createBlocks(Date today, long maxCheck, Appointment appointment, Collection<AppointmentBlock> blocks)
+    {
+        Date maxEnd = getConflictCheckEnd(today, maxCheck, appointment);
+        if ( maxEnd == null)
+        {
+            return;
+        }
+        /*
+         * If the appointment has a repeating, get all single time blocks of it. If it is no
+         * repeating, this will just createInfoDialog one block, which is equal to the appointment
+         * itself.
+         */
+        Date start = appointment.getStart();
+        if ( start.before( today))
+        {
+            start = today;
+        }
+        ((AppointmentImpl)appointment).createBlocks(start, DateTools.fillDate(maxEnd), blocks);
+    }
+
+    /** returns the end of the period in which the appointment is checked for conflicts or null if the appointment can't cause conflicts */
+    private Date getConflictCheckEnd(Date today, long maxCheck, Appointment appointment)
+    {
+        // Get the end date of the appointment (if repeating, end date of last occurence)
+        Date maxEnd = appointment.getMaxEnd();
+        // Check if the appointment is repeating forever
+        if ( maxEnd == null || maxEnd.getTime() > maxCheck)
+        {
+            // If the repeating has no end, set the end to the start of the last appointment in the set + 100 weeks (~2 years)
+            maxEnd = new Date(maxCheck);
+        }
+        if ( maxEnd.before( today))
+        {
+            return null;
+        }
+
+        if ( RaplaComponent.isTemplate(appointment.getReservation()))
+        {
+            return null;
+        }
+
+        Reservation r1 = appointment.getReservation();
+        DynamicType type1 = r1 != null ? r1.getClassification().getType() : null;
+        String annotation1 = ConflictImpl.getConflictAnnotation( type1);
+        if ( ConflictImpl.isNoConflicts( annotation1 ) )
+        {
+            return null;
+        }
+        return maxEnd;
+    }
+
+    /**
+     * Updates the conflicts of the allocatable only for the changed and removed appointments. All conflicts with a changed or removed
+     * appointment are dropped, then the blocks of the changed appointments are probed against the appointment index of the allocatable.
+     * All other conflicts are left untouched, so only the changed appointments need to be expanded and not all appointments of the resource.
+     */
+    private Map<ReferenceInfo<Conflict>,Conflict> updateConflictsIncremental(Allocatable allocatable, Date today, Map<ReferenceInfo<Conflict>,Conflict> conflictListBefore, AllocationChange change)
+    {
+        if ( isConflictIgnored(allocatable))
+        {
+            return Collections.emptyMap();
+        }
+        Set<ReferenceInfo<Appointment>> changedIds = new HashSet<>();
+        for (Appointment appointment:change.toRemove)
+        {
+            changedIds.add( appointment.getReference());
+        }
+        for (Appointment appointment:change.toChange)
+        {
+            changedIds.add( appointment.getReference());
+        }
+        Map<ReferenceInfo<Conflict>,Conflict> conflictList = new HashMap<>();
+        for (Conflict conflict:conflictListBefore.values())
+        {
+            if ( changedIds.contains( conflict.getAppointment1()) || changedIds.contains( conflict.getAppointment2()))
+            {
+                continue;
+            }
+            conflictList.put( conflict.getReference(), conflict);
+        }
+        long maxCheck = getMaxCheck();
+        for (Appointment appointment1:change.toChange)
+        {
+            List<AppointmentBlock> blocks = new ArrayList<>();
+            createBlocks(today, maxCheck, appointment1, blocks);
+            if ( blocks.isEmpty())
             {
-                // If the repeating has no end, set the end to the start of the last appointment in the set + 100 weeks (~2 years)
-                maxEnd = new Date(maxCheck); 
+                continue;
             }
-            if ( maxEnd.before( today))
+            Date start = new Date(blocks.get(0).getStart());
+            Date end = new Date(blocks.get(blocks.size() - 1).getEnd());
+            Collection<Appointment> candidates = allocationMap.getAppointments(allocatable, start, end);
+            // the appointment could be changed and removed in the same update
+            if ( !candidates.contains( appointment1))
             {
                 continue;
             }
-   		
-			if ( RaplaComponent.isTemplate(appointment.getReservation()))
-			{
-			    continue;
-			}
-			
-			Reservation r1 = appointment.getReservation();
-	        DynamicType type1 = r1 != null ? r1.getClassification().getType() : null;
-	        String annotation1 = ConflictImpl.getConflictAnnotation( type1);
-	        if ( ConflictImpl.isNoConflicts( annotation1 ) )
-	        {
-	            continue;
-	        }
-			/*
-			 * If the appointment has a repeating, get all single time blocks of it. If it is no
-			 * repeating, this will just createInfoDialog one block, which is equal to the appointment
-			 * itself.
-			 */
-			Date start = appointment.getStart();
-			if ( start.before( today))
-			{
-			    start = today;
-			}
-            ((AppointmentImpl)appointment).createBlocks(start, DateTools.fillDate(maxEnd), allAppointmentBlocks);
-		}
+            for (Appointment appointment2:candidates)
+            {
+                if ( appointment1.equals( appointment2))
+                {
+                    continue;
+                }
+                String id = ConflictImpl.createId(allocatable.getReference(), appointment1.getReference(), appointment2.getReference());
+                if ( conflictList.containsKey( new ReferenceInfo<>(id, Conflict.class)))
+                {
+                    continue;
+                }
+                if ( getConflictCheckEnd(today, maxCheck, appointment2) == null)
+                {
+                    continue;
+                }
+                if ( !overlapsBlocks(appointment2, blocks) || !appointment2.overlapsAppointment(appointment1))
+                {
+                    continue;
+                }
+                // Check if allocatable is directly reserved by one of the  reservations
+                final Reservation reservation1 = appointment1.getReservation();
+                final Reservation reservation2 = appointment2.getReservation();
+                if (!reservation1.hasAllocatedOn(allocatable, appointment1)
+                        && !reservation2.hasAllocatedOn(allocatable,appointment2)) {
+                    continue;
+                }
+                if (ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today))
+                {
+                    final ConflictImpl conflict = new ConflictImpl(allocatable,appointment1, appointment2, today, id);
+                    conflictList.put(conflict.getReference(), conflict);
+                }
+            }
+        }
+        if ( conflictList.isEmpty())
+        {
+            return Collections.emptyMap();
+        }
+        return conflictList;
     }
 
+    private boolean overlapsBlocks(Appointment appointment, List<AppointmentBlock> blocks)
+    {
+        for (AppointmentBlock block:blocks)
+        {
+            if ( appointment.overlapsBlock( block))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
 
 	/**
 	 * Determines all conflicts which occur after a given start date.
@@ -574,7 +707,7 @@ class ConflictFinder {
         }
     }
 
-	public Collection<ConflictChangeOperation> updateConflicts(LocalAbstractCachableOperator.UpdateBindingsResult bindingsResult,UpdateResult currentUpdateResult, Date today)
+	synchronized public Collection<ConflictChangeOperation> updateConflicts(LocalAbstractCachableOperator.UpdateBindingsResult bindingsResult,UpdateResult currentUpdateResult, Date today)
 	{
         Collection<ConflictChangeOperation> conflictChanges = new ArrayList<>();
         Map<ReferenceInfo<Allocatable>, AllocationChange> toUpdate = bindingsResult.toUpdate;
@@ -623,10 +756,12 @@ class ConflictFinder {
     		}
             Allocatable allocatable = resolver.tryResolve( allocatableId);
 			Map<ReferenceInfo<Conflict>,Conflict> conflictListAfter;
-            if  (allocatable != null)
-             conflictListAfter = calculateConflicts( allocatable , today);
-            else
+            if  (allocatable == null)
              conflictListAfter= Collections.emptyMap();
+            else if ( incrementalUpdate && changedAppointments != null && conflictMap.containsKey( allocatableId))
+             conflictListAfter = updateConflictsIncremental( allocatable, today, conflictListBefore, changedAppointments);
+            else
+             conflictListAfter = calculateConflicts( allocatable , today);
 			conflictMap.put( allocatableId, conflictListAfter);
 			//User user = evt.getUserFromRequest();
 		
@@ -726,10 +861,17 @@ class ConflictFinder {
 
         // we update the conflict with the new appointment references
     	ArrayList<Conflict> updateList = new ArrayList<>(toUpdateConflicts.keySet());
+        Map<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> updatedConflictMaps = new LinkedHashMap<>();
     	for ( Conflict oldConflict:updateList)
     	{
     		Conflict newConflict = toUpdateConflicts.get( oldConflict);
-    		Map<ReferenceInfo<Conflict>,Conflict> conflicts = conflictMap.get( oldConflict.getAllocatableId());
+            final ReferenceInfo<Allocatable> allocatableId = oldConflict.getAllocatableId();
+            Map<ReferenceInfo<Conflict>,Conflict> conflicts = updatedConflictMaps.get( allocatableId);
+            if ( conflicts == null)
+            {
+                conflicts = new LinkedHashMap<>(conflictMap.get( allocatableId));
+                updatedConflictMaps.put( allocatableId, conflicts);
+            }
     		conflicts.remove( oldConflict.getReference() );
     		conflicts.put(newConflict.getReference(), newConflict);
     		// we add a change operation 
@@ -740,6 +882,7 @@ class ConflictFinder {
                 conflictChanges.add(new ConflictChangeOperation(operation, oldConflict, newConflict));
     		}
     	}
+        conflictMap.putAll( updatedConflictMaps);
         return conflictChanges;
 	}
 
@@ -759,22 +902,28 @@ class ConflictFinder {
 //		return foundAppointment;
 //	}
 
-	public Set<ReferenceInfo<Conflict>> removeOldConflicts(Date today)
+	synchronized public Set<ReferenceInfo<Conflict>> removeOldConflicts(Date today)
 	{
         Set<ReferenceInfo<Conflict>> result = new LinkedHashSet<>();
-		for (Map<ReferenceInfo<Conflict>,Conflict> conflictMap: this.conflictMap.values())
+		for (Map.Entry<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> entry: this.conflictMap.entrySet())
 		{
-			Iterator<Map.Entry<ReferenceInfo<Conflict>,Conflict>> it = conflictMap.entrySet().iterator();
-			while (it.hasNext())
+			Map<ReferenceInfo<Conflict>,Conflict> remaining = null;
+			for (Conflict conflict: entry.getValue().values())
 			{
-                Map.Entry<ReferenceInfo<Conflict>,Conflict> conflictEntry = it.next();
-                Conflict conflict = conflictEntry.getValue();
 				if ( endsBefore( conflict,today))
 				{
-					it.remove();
+					if ( remaining == null)
+					{
+						remaining = new LinkedHashMap<>(entry.getValue());
+					}
+					remaining.remove( conflict.getReference());
 					result.add(conflict.getReference());
 				}
 			}
+			if ( remaining != null)
+			{
+				entry.setValue( remaining);
+			}
 		}
 		return result;
 		
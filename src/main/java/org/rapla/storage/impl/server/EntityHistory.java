@@ -16,21 +16,46 @@ import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.internal.ConflictImpl;
 import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
 import org.rapla.rest.JsonParserWrapper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/** Keeps the former versions of the entities, so that the changes since a timestamp can be computed.
+ * <p>
+ * Each version is stored as deflated json. The most recently used versions are kept parsed in a small cache.
+ * If a memory budget is set, the data of the oldest versions is moved to a temporary file when the budget is exceeded.
+ */
 public class EntityHistory
 {
+    /** moving the history to disk is enabled with historyoverflow=true in the raplaservices entry*/
+    public static final String OVERFLOW_SERVICE = "historyoverflow";
+    /** memory for the history data, if the overflow is enabled*/
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+    /** number of parsed versions that are kept*/
+    static final int ENTITY_CACHE_SIZE = 2000;
+
     public Collection<ReferenceInfo> getAllIds()
     {
         return map.keySet();
@@ -46,20 +71,27 @@ public class EntityHistory
     {
         private long timestamp;
         ReferenceInfo ref;
-        private String json;
+        // the deflated json, null if there is no json, if the data was moved to the overflow file or if the entry was removed
+        private volatile byte[] data;
+        // position in the overflow file, -1 if the data is in memory
+        private volatile long fileOffset = -1;
+        private int fileLength;
         private boolean isDelete;
+        private volatile boolean removed;
+        // last changed of the entity, only parsed when two entries have the same timestamp
+        private Date lastChanged;
 
         private HistoryEntry()
         {
         }
 
-        private HistoryEntry(ReferenceInfo id, long timestamp, String json, boolean isDelete)
+        private HistoryEntry(ReferenceInfo id, long timestamp, byte[] data, boolean isDelete)
         {
             super();
             this.ref = id;
             this.isDelete = isDelete;
             this.timestamp = timestamp;
-            this.json = json;
+            this.data = data;
         }
 
         public ReferenceInfo getId()
@@ -85,12 +117,94 @@ public class EntityHistory
 
     private final Map<ReferenceInfo, List<EntityHistory.HistoryEntry>> map = new LinkedHashMap<>();
     private final JsonParserWrapper.JsonParser gson;
+    // the parsed versions that were used last. The entities are shared, so they must not be changed
+    private final Map<HistoryEntry, Entity> entityCache = new LinkedHashMap<HistoryEntry, Entity>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HistoryEntry, Entity> eldest)
+        {
+            return size() > ENTITY_CACHE_SIZE;
+        }
+    };
+    // the entries with data in memory, oldest first. Only tracked if a memory budget is set
+    private final Set<HistoryEntry> entriesInMemory = new LinkedHashSet<>();
+    private long memoryUsed;
+    // the entries with data in the overflow file
+    private List<HistoryEntry> entriesOnDisk = new ArrayList<>();
+    // size of the data in the overflow file that still belongs to an entry
+    private long overflowUsed;
+    private long memoryBudget = Long.MAX_VALUE;
+    private RandomAccessFile overflowFile;
+    private File overflowFilePath;
+    private final Logger logger;
 
     public EntityHistory()
     {
+        this(null);
+    }
+
+    /** @param logger for errors with the overflow file, can be null*/
+    public EntityHistory(Logger logger)
+    {
+        this.logger = logger;
         gson = JsonParserWrapper.defaultJson().get();
     }
 
+    /** sets the size of the history data in bytes that is kept in memory. Older entries are moved to a temporary file if the budget is exceeded.
+     * The default is no limit.*/
+    public synchronized void setMemoryBudget(long memoryBudget)
+    {
+        final boolean wasTracked = isBudgetSet();
+        this.memoryBudget = memoryBudget;
+        if (!isBudgetSet())
+        {
+            entriesInMemory.clear();
+            return;
+        }
+        if (!wasTracked)
+        {
+            trackEntriesInMemory();
+        }
+        checkMemoryBudget();
+    }
+
+    private boolean isBudgetSet()
+    {
+        return memoryBudget != Long.MAX_VALUE;
+    }
+
+    /** adds the entries that are already in memory to the tracked entries, oldest first*/
+    private void trackEntriesInMemory()
+    {
+        final List<HistoryEntry> entries = new ArrayList<>();
+        for (List<HistoryEntry> list : map.values())
+        {
+            synchronized (list)
+            {
+                for (HistoryEntry entry : list)
+                {
+                    if (entry.data != null)
+                    {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(HistoryEntry::getTimestamp));
+        entriesInMemory.addAll(entries);
+    }
+
+    public synchronized long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /** the size of the history data that is currently in memory*/
+    public synchronized long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
     public HistoryEntry getLatest(ReferenceInfo id) throws RaplaException
     {
         final List<HistoryEntry> historyEntries = map.get(id);
@@ -107,7 +221,7 @@ public class EntityHistory
         return result;
     }
 
-    /** returns the history entry with a timestamp<= since or null if no such entry exists*/
+    /** returns the history entry with a timestamp<= since or null if no such entry exists. The returned entity is shared and must not be changed*/
     public Entity get(ReferenceInfo id, Date since) throws RaplaException
     {
         final List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
@@ -133,7 +247,7 @@ public class EntityHistory
             final Date lastChanged = getLastChanged(entry);
             if ( lastChanged.before( since))
             {
-                return getEntity( entry);
+                return getSharedEntity( entry);
             }
             else
                 {
@@ -141,7 +255,7 @@ public class EntityHistory
             }
         }
         EntityHistory.HistoryEntry entry = historyEntries.get(index);
-        final Entity entity = getEntity(entry);
+        final Entity entity = getSharedEntity(entry);
         if ( index >=0)
         {
             // if two history entries have the same timestamp
@@ -157,13 +271,12 @@ public class EntityHistory
             }
             if (entryBefore != null && entryBefore.getTimestamp() == entry.getTimestamp())
             {
-                Entity otherEntity = getEntity( entryBefore);
-                final Date lastChanged1 = ((Timestamp) entity).getLastChanged();
-                final Date lastChanged2= ((Timestamp) (otherEntity)).getLastChanged();
+                final Date lastChanged1 = getLastChanged(entry);
+                final Date lastChanged2= getLastChanged(entryBefore);
                 // we return the newest change
                 if ( lastChanged2.after( lastChanged1))
                 {
-                    return otherEntity;
+                    return getSharedEntity( entryBefore);
                 }
             }
         }
@@ -189,16 +302,44 @@ public class EntityHistory
         typeImpl.put(type, impl);
     }
 
+    /** returns a new entity for the history entry, that can be changed by the caller*/
     public Entity getEntity(HistoryEntry entry)
     {
-        String json = entry.json;
+        String json = getJson(entry);
         final Class typeClass = entry.getId().getType();
         final Class<? extends Entity> implementingClass = typeImpl.get(typeClass);
         final Entity entity = gson.fromJson(json, implementingClass);
         return entity;
     }
 
+    /** returns the entity for the history entry from the cache of recently used versions. The entity must not be changed*/
+    public Entity getSharedEntity(HistoryEntry entry)
+    {
+        synchronized (entityCache)
+        {
+            final Entity cached = entityCache.get(entry);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+        final Entity entity = getEntity(entry);
+        synchronized (entityCache)
+        {
+            if (entity != null && !entry.removed)
+            {
+                entityCache.put(entry, entity);
+            }
+        }
+        return entity;
+    }
+
     public EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, String json, Date timestamp, boolean isDelete)
+    {
+        return addHistoryEntry(id, json != null ? compress(json) : null, timestamp, isDelete);
+    }
+
+    private EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, byte[] data, Date timestamp, boolean isDelete)
     {
         List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
         if (historyEntries == null)
@@ -206,13 +347,17 @@ public class EntityHistory
             historyEntries = new ArrayList<>();
             map.put(id, historyEntries);
         }
-        final EntityHistory.HistoryEntry newEntry = new EntityHistory.HistoryEntry(id, timestamp.getTime(), json, isDelete);
+        final EntityHistory.HistoryEntry newEntry = new EntityHistory.HistoryEntry(id, timestamp.getTime(), data, isDelete);
         int index = historyEntries.size();
-        insert(historyEntries, newEntry, index);
+        if (insert(historyEntries, newEntry, index))
+        {
+            addedToMemory(newEntry);
+        }
         return newEntry;
     }
 
-    private void insert(List<EntityHistory.HistoryEntry> historyEntries, EntityHistory.HistoryEntry newEntry, int index)
+    /** @return false if the entry was not added, because it is the same as the last entry*/
+    private boolean insert(List<EntityHistory.HistoryEntry> historyEntries, EntityHistory.HistoryEntry newEntry, int index)
     {
         synchronized ( historyEntries)
         {
@@ -226,12 +371,13 @@ public class EntityHistory
                 final long timestamp = lastEntry.timestamp;
                 if (timestamp > newEntry.timestamp)
                 {
-                    insert(historyEntries, newEntry, index - 1);
+                    return insert(historyEntries, newEntry, index - 1);
                 }
                 else if (timestamp == newEntry.timestamp)
                 {
-                    final String json = newEntry.json;
-                    if (json != null && !json.equals( lastEntry.json))
+                    final byte[] data = newEntry.data;
+                    // the same json always deflates to the same bytes
+                    if (data != null && !Arrays.equals(data, getData( lastEntry)))
                     {
                         Date lastChanged1 = getLastChanged(newEntry);
                         Date lastChanged2 = getLastChanged(lastEntry);
@@ -244,6 +390,10 @@ public class EntityHistory
                             historyEntries.add(index, newEntry);
                         }
                     }
+                    else
+                    {
+                        return false;
+                    }
                 }
                 else
                 {
@@ -251,14 +401,17 @@ public class EntityHistory
                 }
             }
         }
-
-
+        return true;
     }
 
-    private Date getLastChanged(HistoryEntry newEntry)
+    private Date getLastChanged(HistoryEntry entry)
     {
-        final Entity entity = getEntity(newEntry);
-        return((Timestamp)entity).getLastChanged();
+        if (entry.lastChanged == null)
+        {
+            final Entity entity = getSharedEntity(entry);
+            entry.lastChanged = ((Timestamp) entity).getLastChanged();
+        }
+        return entry.lastChanged;
     }
 
     public EntityHistory.HistoryEntry addHistoryEntry(Entity entity, Date timestamp, boolean isDelete)
@@ -268,6 +421,22 @@ public class EntityHistory
         return addHistoryEntry(id, json, timestamp, isDelete);
     }
 
+    /** adds an entry with the last changed timestamp for each of the entities, e.g. after a complete load.
+     * The entities are serialized in parallel, so they must not be changed while this method runs.*/
+    public void addHistoryEntries(List<? extends Entity> entities)
+    {
+        final byte[][] datas = new byte[entities.size()][];
+        // each thread uses its own parser
+        final ThreadLocal<JsonParserWrapper.JsonParser> parsers = ThreadLocal.withInitial(() -> JsonParserWrapper.defaultJson().get());
+        IntStream.range(0, datas.length).parallel().forEach(i -> datas[i] = compress(parsers.get().toJson(entities.get(i))));
+        for (int i = 0; i < datas.length; i++)
+        {
+            final Entity entity = entities.get(i);
+            final Date lastChanged = ((Timestamp) entity).getLastChanged();
+            addHistoryEntry(entity.getReference(), datas[i], lastChanged, false);
+        }
+    }
+
     public EntityHistory.HistoryEntry addHistoryDeleteEntry(Entity entity, Date timestamp, boolean isDelete)
     {
         final ReferenceInfo id = entity.getReference();
@@ -278,6 +447,18 @@ public class EntityHistory
     public void clear()
     {
         map.clear();
+        synchronized (entityCache)
+        {
+            entityCache.clear();
+        }
+        synchronized (this)
+        {
+            entriesInMemory.clear();
+            entriesOnDisk.clear();
+            memoryUsed = 0;
+            overflowUsed = 0;
+            closeOverflowFile();
+        }
     }
 
     List<HistoryEntry> getHistoryList(ReferenceInfo key)
@@ -285,6 +466,12 @@ public class EntityHistory
         return map.get(key);
     }
 
+    /** the number of entries that can be moved to the overflow file*/
+    synchronized int getEntriesInMemoryCount()
+    {
+        return entriesInMemory.size();
+    }
+
     public void removeUnneeded(Date date)
     {
         final Set<ReferenceInfo> keySet = map.keySet();
@@ -296,10 +483,11 @@ public class EntityHistory
             {
                 while (list.size() >= 2 && list.get(1).timestamp < time)
                 {
-                    list.remove(0);
+                    removed(list.remove(0));
                 }
             }
         }
+        compactOverflowFile();
     }
 
     /**
@@ -325,4 +513,250 @@ public class EntityHistory
             return null;
         }
     }
+
+    private void removed(HistoryEntry entry)
+    {
+        synchronized (entityCache)
+        {
+            entry.removed = true;
+            entityCache.remove(entry);
+        }
+        synchronized (this)
+        {
+            final byte[] data = entry.data;
+            if (data != null)
+            {
+                memoryUsed -= data.length;
+                entry.data = null;
+                entriesInMemory.remove(entry);
+            }
+            else if (entry.fileOffset >= 0)
+            {
+                overflowUsed -= entry.fileLength;
+            }
+        }
+    }
+
+    private synchronized void addedToMemory(HistoryEntry entry)
+    {
+        final byte[] data = entry.data;
+        if (data == null)
+        {
+            return;
+        }
+        memoryUsed += data.length;
+        if (isBudgetSet())
+        {
+            entriesInMemory.add(entry);
+            checkMemoryBudget();
+        }
+    }
+
+    /** moves the data of the oldest entries to the overflow file until the memory used is within the budget*/
+    private synchronized void checkMemoryBudget()
+    {
+        final Iterator<HistoryEntry> oldestFirst = entriesInMemory.iterator();
+        while (memoryUsed > memoryBudget && oldestFirst.hasNext())
+        {
+            final HistoryEntry entry = oldestFirst.next();
+            oldestFirst.remove();
+            final byte[] data = entry.data;
+            if (entry.removed || data == null)
+            {
+                continue;
+            }
+            try
+            {
+                final RandomAccessFile file = getOverflowFile();
+                final long offset = file.length();
+                file.seek(offset);
+                file.write(data);
+                entry.fileLength = data.length;
+                entry.fileOffset = offset;
+                entry.data = null;
+                entriesOnDisk.add(entry);
+                memoryUsed -= data.length;
+                overflowUsed += data.length;
+            }
+            catch (IOException ex)
+            {
+                // keep the data in memory
+                memoryBudget = Long.MAX_VALUE;
+                entriesInMemory.clear();
+                if (logger != null)
+                {
+                    logger.error("Can't move history to " + overflowFilePath + ". History stays in memory. " + ex.getMessage(), ex);
+                }
+                return;
+            }
+        }
+    }
+
+    /** rewrites the overflow file without the data of removed entries, if more than half of the file is unused*/
+    private synchronized void compactOverflowFile()
+    {
+        if (overflowFile == null)
+        {
+            return;
+        }
+        final File oldPath = overflowFilePath;
+        final RandomAccessFile oldFile = overflowFile;
+        File newPath = null;
+        try
+        {
+            if (oldFile.length() < 2 * overflowUsed + 1024 * 1024)
+            {
+                return;
+            }
+            newPath = File.createTempFile("rapla-history", ".bin");
+            newPath.deleteOnExit();
+            final List<HistoryEntry> moved = new ArrayList<>();
+            final List<Long> newOffsets = new ArrayList<>();
+            try (RandomAccessFile newFile = new RandomAccessFile(newPath, "rw"))
+            {
+                for (HistoryEntry entry : entriesOnDisk)
+                {
+                    if (entry.removed)
+                    {
+                        continue;
+                    }
+                    final byte[] data = new byte[entry.fileLength];
+                    oldFile.seek(entry.fileOffset);
+                    oldFile.readFully(data);
+                    moved.add(entry);
+                    newOffsets.add(newFile.getFilePointer());
+                    newFile.write(data);
+                }
+            }
+            // the offsets are only changed when the new file is complete
+            overflowFile = new RandomAccessFile(newPath, "rw");
+            overflowFilePath = newPath;
+            for (int i = 0; i < moved.size(); i++)
+            {
+                moved.get(i).fileOffset = newOffsets.get(i);
+            }
+            entriesOnDisk = moved;
+        }
+        catch (IOException ex)
+        {
+            overflowFile = oldFile;
+            overflowFilePath = oldPath;
+            if (newPath != null)
+            {
+                newPath.delete();
+            }
+            if (logger != null)
+            {
+                logger.error("Can't compact history file " + oldPath + ": " + ex.getMessage(), ex);
+            }
+            return;
+        }
+        close(oldFile, oldPath);
+    }
+
+    private RandomAccessFile getOverflowFile() throws IOException
+    {
+        if (overflowFile == null)
+        {
+            overflowFilePath = File.createTempFile("rapla-history", ".bin");
+            overflowFilePath.deleteOnExit();
+            overflowFile = new RandomAccessFile(overflowFilePath, "rw");
+        }
+        return overflowFile;
+    }
+
+    private void closeOverflowFile()
+    {
+        if (overflowFile == null)
+        {
+            return;
+        }
+        close(overflowFile, overflowFilePath);
+        overflowFile = null;
+        overflowFilePath = null;
+    }
+
+    private static void close(RandomAccessFile file, File path)
+    {
+        try
+        {
+            file.close();
+        }
+        catch (IOException ex)
+        {
+            // ignore, the file is deleted anyway
+        }
+        path.delete();
+    }
+
+    private byte[] getData(HistoryEntry entry)
+    {
+        final byte[] data = entry.data;
+        if (data != null || entry.fileOffset < 0)
+        {
+            return data;
+        }
+        synchronized (this)
+        {
+            final byte[] result = new byte[entry.fileLength];
+            try
+            {
+                overflowFile.seek(entry.fileOffset);
+                overflowFile.readFully(result);
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalStateException("Can't read history of " + entry.getId() + " from " + overflowFilePath + ": " + ex.getMessage(), ex);
+            }
+            return result;
+        }
+    }
+
+    private String getJson(HistoryEntry entry)
+    {
+        final byte[] data = getData(entry);
+        return data != null ? decompress(data) : null;
+    }
+
+    static byte[] compress(String json)
+    {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+            {
+                final int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    static String decompress(byte[] data)
+    {
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data)))
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            final byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalStateException("Corrupt history data: " + ex.getMessage(), ex);
+        }
+    }
 }
\ No newline at end of file
@@ -129,13 +129,18 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public abstract class LocalAbstractCachableOperator extends AbstractCachableOperator implements Disposable, CachableStorageOperator, IdCreator
@@ -165,6 +170,26 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
      */
     private String encryption = "sha-1";
     private ConflictFinder conflictFinder;
+    private boolean incrementalConflictUpdate = true;
+    private boolean readersDuringConflictUpdate = true;
+    // set while a refresh records its changes. The readers synchronize until this timestamp, so they don't see the new timestamp before the conflicts of the refresh are recorded
+    private volatile Date heldBackUntil;
+    // guards lastChanged and updateWaiters, the threads in waitForUpdate wait on it
+    private final Object updateMonitor = new Object();
+    private Date lastChanged;
+    private int updateWaiters;
+    private int maxUpdateWaiters = 100;
+    private static final int MAX_SHARED_CHANGE_SETS = 32;
+    // the changes since a timestamp, shared by all clients that synchronize from that timestamp. Only valid until the next refresh
+    private final Map<Long, SharedChangeSet> sharedChangeSets = new LinkedHashMap<Long, SharedChangeSet>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, SharedChangeSet> eldest)
+        {
+            return size() > MAX_SHARED_CHANGE_SETS;
+        }
+    };
+    private Date sharedChangeSetsUntil;
     //private SortedSet<LastChangedTimestamp> timestampSet;
     // we need a bidi to sort the values instead of the keys
     protected final EntityHistory history;
@@ -177,6 +202,13 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     private Date connectStart;
     private final DefaultRaplaLock disconnectLock;
     private final PromiseWait promiseWait;
+    public static final String PARALLEL_QUERY_SERVICE = "parallelquery";
+    // queries with less allocatables are evaluated in the calling thread
+    static final int MIN_PARALLEL_ALLOCATABLES = 16;
+    private final Object queryPoolLock = new Object();
+    private int queryParallelism = 1;
+    // created on the first parallel query and shut down on disconnect
+    private ForkJoinPool queryPool;
 
     public LocalAbstractCachableOperator(Logger logger, PromiseWait promiseWait, RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
             Map<String, FunctionFactory> functionFactoryMap, Set<PermissionExtension> permissionExtensions)
@@ -186,11 +218,60 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         this.promiseWait = promiseWait;
         disconnectLock = new DefaultRaplaLock(logger);
         //context.lookupDeprecated( CommandScheduler.class);
-        this.history = new EntityHistory();
+        this.history = new EntityHistory(logger);
         appointmentBindings = new AppointmentMapClass(logger);
         calendarModelCache = new CalendarModelCache(this, i18n, logger, scheduler);
     }
 
+    /** If parallelism is greater than one, the allocatables of a {@link #queryAppointments} call are evaluated in a pool with the passed number of threads.*/
+    public void setQueryParallelism(int parallelism)
+    {
+        synchronized (queryPoolLock)
+        {
+            queryParallelism = Math.max(1, parallelism);
+            shutdownQueryPool();
+        }
+    }
+
+    public int getQueryParallelism()
+    {
+        synchronized (queryPoolLock)
+        {
+            return queryParallelism;
+        }
+    }
+
+    /** @return the pool for the parallel queries or null if the queries are evaluated in the calling thread */
+    private ForkJoinPool getQueryPool()
+    {
+        synchronized (queryPoolLock)
+        {
+            if (queryPool == null && queryParallelism > 1)
+            {
+                queryPool = new ForkJoinPool(queryParallelism);
+            }
+            return queryPool;
+        }
+    }
+
+    private void shutdownQueryPool()
+    {
+        synchronized (queryPoolLock)
+        {
+            if (queryPool != null)
+            {
+                queryPool.shutdown();
+                queryPool = null;
+            }
+        }
+    }
+
+    /** sets the memory for the history data, older history is moved to a temporary file if it is exceeded. See {@link EntityHistory#setMemoryBudget(long)} */
+    public void setHistoryMemoryBudget(long bytes)
+    {
+        history.setMemoryBudget(bytes);
+    }
+
     @Override
     final public boolean isConnected()
     {
@@ -522,7 +603,6 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
         final Promise<Map<Allocatable, Collection<Appointment>>> promise = scheduler.supply(() ->
         {
-            boolean excludeExceptions = false;
             boolean isResourceTemplate = containsResourceTemplate(allocatables);
             final Collection<Allocatable> allocs;
             final Set<Allocatable> nonTemplates;
@@ -536,62 +616,116 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 allocs = (allocatables == null || allocatables.size() == 0) ? getAllocatables(null) : allocatables;
                 nonTemplates = Collections.emptySet();
             }
-            Map<Allocatable, Collection<Appointment>> result = new LinkedHashMap<>();
-            for (Allocatable allocatable: allocs)
+            final List<Allocatable> allocList = new ArrayList<>(allocs);
+            @SuppressWarnings("unchecked")
+            final Collection<Appointment>[] appointments = new Collection[allocList.size()];
+            final ForkJoinPool pool = allocList.size() >= MIN_PARALLEL_ALLOCATABLES ? getQueryPool() : null;
+            if (pool != null)
             {
-                RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryAppointments");
-                SortedSet<Appointment> appointmentSet;
+                // each allocatable is evaluated independently, the results are merged in the order of the allocatables
                 try
                 {
-                    SortedSet<Appointment> appointments = getAppointments(allocatable);
-                    appointmentSet = AppointmentImpl.getAppointments(appointments, user, start, end, excludeExceptions);
+                    pool.submit(() -> IntStream.range(0, appointments.length).parallel().forEach(
+                            i -> appointments[i] = getMatchingAppointments(allocList.get(i), user, start, end, filters, annotationQuery, isResourceTemplate,
+                                    nonTemplates))).get();
                 }
-                finally
+                catch (InterruptedException ex)
                 {
-                    lockManager.unlock(readLock);
+                    Thread.currentThread().interrupt();
+                    throw new RaplaException(ex);
                 }
-                for (Appointment appointment : appointmentSet)
+                catch (ExecutionException ex)
                 {
-                    Reservation reservation = appointment.getReservation();
-                    if (!match(reservation, annotationQuery))
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException)
                     {
-                        continue;
+                        throw (RuntimeException) cause;
                     }
-                    final Stream<Allocatable> allocatablesFor = reservation.getAllocatablesFor(appointment);
-                    if ( !nonTemplates.isEmpty())
-                    {
-                        if (!allocatablesFor.anyMatch(nonTemplates::contains))
-                        {
-                            continue;
-                        }
-                    }
-                    // Ignore Templates if not explicitly requested
-
-                    final boolean isTemplate = RaplaComponent.isTemplate(reservation);
-                    if ((isTemplate != isResourceTemplate) )
-                    {
-                        // FIXME this special case should be refactored, so one can get all reservations in one method
-                        continue;
-                    }
-                    if (filters != null && !ClassificationFilter.Util.matches(filters, reservation))
+                    throw new RaplaException(cause);
+                }
+            }
+            else
+            {
+                for (int i = 0; i < appointments.length; i++)
+                {
+                    appointments[i] = getMatchingAppointments(allocList.get(i), user, start, end, filters, annotationQuery, isResourceTemplate, nonTemplates);
+                }
+            }
+            Map<Allocatable, Collection<Appointment>> result = new LinkedHashMap<>();
+            for (int i = 0; i < appointments.length; i++)
+            {
+                if (appointments[i] != null)
+                {
+                    // an allocatable can be in the collection twice
+                    final Collection<Appointment> appointmentCollection = result.get(allocList.get(i));
+                    if (appointmentCollection == null)
                     {
-                        continue;
+                        result.put(allocList.get(i), appointments[i]);
                     }
-                    Collection<Appointment> appointmentCollection = result.get(allocatable);
-                    if (appointmentCollection == null)
+                    else
                     {
-                        appointmentCollection = new LinkedHashSet<>();
-                        result.put(allocatable, appointmentCollection);
+                        appointmentCollection.addAll(appointments[i]);
                     }
-                    appointmentCollection.add(appointment);
                 }
-            };
+            }
             return result;
         });
         return promise;
     }
 
 
+    /** @return the appointments of the allocatable that match the query or null if there are none*/
+    private Collection<Appointment> getMatchingAppointments(Allocatable allocatable, User user, Date start, Date end, ClassificationFilter[] filters,
+            Map<String, String> annotationQuery, boolean isResourceTemplate, Set<Allocatable> nonTemplates)
+    {
+        boolean excludeExceptions = false;
+        RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryAppointments");
+        SortedSet<Appointment> appointmentSet;
+        try
+        {
+            appointmentSet = getAppointments(allocatable, user, start, end, excludeExceptions);
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        Collection<Appointment> appointmentCollection = null;
+        for (Appointment appointment : appointmentSet)
+        {
+            Reservation reservation = appointment.getReservation();
+            if (!match(reservation, annotationQuery))
+            {
+                continue;
+            }
+            final Stream<Allocatable> allocatablesFor = reservation.getAllocatablesFor(appointment);
+            if ( !nonTemplates.isEmpty())
+            {
+                if (!allocatablesFor.anyMatch(nonTemplates::contains))
+                {
+                    continue;
+                }
+            }
+            // Ignore Templates if not explicitly requested
+
+            final boolean isTemplate = RaplaComponent.isTemplate(reservation);
+            if ((isTemplate != isResourceTemplate) )
+            {
+                // FIXME this special case should be refactored, so one can get all reservations in one method
+                continue;
+            }
+            if (filters != null && !ClassificationFilter.Util.matches(filters, reservation))
+            {
+                continue;
+            }
+            if (appointmentCollection == null)
+            {
+                appointmentCollection = new LinkedHashSet<>();
+            }
+            appointmentCollection.add(appointment);
+        }
+        return appointmentCollection;
+    }
+
     private boolean containsResourceTemplate(Collection<Allocatable> allocs) {
         if ( allocs == null)
         {
@@ -707,6 +841,128 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return new Date(time);
     }
 
+    /** if set to false all conflicts of a resource are recalculated when one of its appointments changes.
+     * Default is true, so only the changed appointments are checked against the appointment index of the resource. */
+    public void setIncrementalConflictUpdate(boolean incrementalConflictUpdate)
+    {
+        this.incrementalConflictUpdate = incrementalConflictUpdate;
+        if (conflictFinder != null)
+        {
+            conflictFinder.setIncrementalUpdate(incrementalConflictUpdate);
+        }
+    }
+
+    /** if set the write lock is downgraded to a read lock while the conflicts are recalculated, so readers are not blocked
+     * by a long conflict calculation. Other writers still wait until the update is finished.
+     * Readers can see the new entities together with the conflicts before the update until the calculation is done.
+     * The clients that synchronize during the calculation get the timestamp before the update, so they receive the changes again with the conflicts on the next synchronization.*/
+    public void setReadersDuringConflictUpdate(boolean readersDuringConflictUpdate)
+    {
+        this.readersDuringConflictUpdate = readersDuringConflictUpdate;
+    }
+
+    /** the maximum number of requests that can wait in {@link #waitForUpdate(Date, long)} at the same time. Each one blocks a request thread,
+     * so keep this below the size of the thread pool of the servlet container. Further requests return without waiting. */
+    public void setMaxUpdateWaiters(int maxUpdateWaiters)
+    {
+        this.maxUpdateWaiters = maxUpdateWaiters;
+    }
+
+    @Override
+    public boolean waitForUpdate(Date since, long timeoutMillis) throws RaplaException
+    {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (updateMonitor)
+        {
+            if (isChangedAfter(since))
+            {
+                return true;
+            }
+            if (updateWaiters >= maxUpdateWaiters)
+            {
+                return false;
+            }
+            updateWaiters++;
+            try
+            {
+                while (isConnected())
+                {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                    {
+                        return false;
+                    }
+                    updateMonitor.wait(remaining);
+                    if (isChangedAfter(since))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new RaplaException(ex);
+            }
+            finally
+            {
+                updateWaiters--;
+            }
+        }
+    }
+
+    private boolean isChangedAfter(Date since)
+    {
+        return lastChanged != null && (since == null || lastChanged.after(since));
+    }
+
+    private void markChanged()
+    {
+        synchronized (updateMonitor)
+        {
+            lastChanged = getLastRefreshed();
+        }
+    }
+
+    /** wakes up the requests in waitForUpdate. Call this after the write lock is released, so they don't wait for the lock again*/
+    protected void fireUpdateWaiters()
+    {
+        synchronized (updateMonitor)
+        {
+            lastChanged = getLastRefreshed();
+            updateMonitor.notifyAll();
+        }
+    }
+
+    @Override
+    public Date getUnchangedUntil(Date since) throws RaplaException
+    {
+        checkConnected();
+        if (since.before(getConnectStart()) || since.before(getHistoryValidStart()))
+        {
+            return null;
+        }
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getUnchangedUntil " + since);
+        try
+        {
+            // all refreshes until this timestamp are finished and have marked their changes
+            final Date until = getPublishedUntil();
+            synchronized (updateMonitor)
+            {
+                if (isChangedAfter(since))
+                {
+                    return null;
+                }
+            }
+            return until.after(since) ? until : since;
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+    }
+
     public void setTimeZone(TimeZone timeZone)
     {
         systemTimeZone = timeZone;
@@ -835,9 +1091,10 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         storeAndRemove(storeObjects, removeObjects, null);
     }
 
+    /** the entities must already be in the cache */
     protected void resolveInitial(Collection<? extends Entity> entities, EntityResolver resolver) throws RaplaException
     {
-        testResolve(entities);
+        testResolveInitial(entities);
 
         for (Entity entity : entities)
         {
@@ -853,6 +1110,39 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         processUserPersonLink(entities);
     }
 
+    /** checks the references of the loaded entities in parallel. The check resolves against the cache and not against the operator,
+     * because the loading thread holds the write lock and the other threads can't get the read lock.*/
+    private void testResolveInitial(Collection<? extends Entity> entities) throws EntityNotFoundException
+    {
+        for (Entity entity : entities)
+        {
+            if (entity instanceof EntityReferencer)
+            {
+                ((EntityReferencer) entity).setResolver(cache);
+            }
+            if (entity instanceof DynamicType)
+            {
+                ((DynamicTypeImpl) entity).setOperator(this);
+            }
+        }
+        final Optional<EntityNotFoundException> notFound = entities.parallelStream().filter(EntityReferencer.class::isInstance).map(entity ->
+        {
+            try
+            {
+                testResolve(cache, (EntityReferencer) entity);
+                return null;
+            }
+            catch (EntityNotFoundException ex)
+            {
+                return ex;
+            }
+        }).filter(Objects::nonNull).findFirst();
+        if (notFound.isPresent())
+        {
+            throw notFound.get();
+        }
+    }
+
     protected Collection<Entity> migrateTemplates() throws RaplaException
     {
         Collection<Allocatable> allocatables = cache.getAllocatables();
@@ -1007,6 +1297,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         finally
         {
+            shutdownQueryPool();
             disposing = false;
         }
     }
@@ -1061,6 +1352,11 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     protected void initIndizes() throws RaplaException
     {
         deleteUpdateSet = new DualTreeBidiMap<>();
+        synchronized (sharedChangeSets)
+        {
+            sharedChangeSets.clear();
+            sharedChangeSetsUntil = null;
+        }
         externalIds = new DualHashBidiMap<>();
         // The appointment map
 
@@ -1101,11 +1397,16 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         Date today2 = today();
         AllocationMap allocationMap = new AllocationMap()
         {
-            public SortedSet<Appointment> getAppointments(Allocatable allocatable)
+            public Collection<Appointment> getAppointments(Allocatable allocatable)
             {
                 return LocalAbstractCachableOperator.this.getAppointments(allocatable);
             }
 
+            public Collection<Appointment> getAppointments(Allocatable allocatable, Date start, Date end)
+            {
+                return LocalAbstractCachableOperator.this.getAppointments(allocatable, null, start, end, true);
+            }
+
             @SuppressWarnings("unchecked")
             public Collection<Allocatable> getAllocatables()
             {
@@ -1115,6 +1416,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         // The conflict map
         Logger logger = getLogger();
         conflictFinder = new ConflictFinder(allocationMap, today2, logger, this, permissionController);
+        conflictFinder.setIncrementalUpdate(incrementalConflictUpdate);
 
         // if a client request changes before the start date return refresh conflict flag
         Action cleanUpConflicts = ()->
@@ -1185,7 +1487,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                         }
                         finally
                         {
-                            lockManager.unlock(writeLock);
+                            unlockAndPublish(writeLock);
                         }
                     }
                 }
@@ -1208,7 +1510,35 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         finally
         {
-            lockManager.unlock(lock);
+            unlockAndPublish(lock);
+        }
+    }
+
+    /** publishes the changes made under the write lock to the lock free readers of the cache snapshot and releases the lock.
+     * @see LocalCache#publishSnapshot()*/
+    protected void unlockAndPublish(RaplaLock.WriteLock writeLock)
+    {
+        boolean changed = false;
+        try
+        {
+            if (writeLock != null)
+            {
+                changed = !cache.isSnapshotUpToDate();
+                cache.publishSnapshot();
+                if (changed)
+                {
+                    // marked before the lock is released, so getUnchangedUntil never misses a change that the readers can see
+                    markChanged();
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+        if (changed)
+        {
+            fireUpdateWaiters();
         }
     }
 
@@ -1250,18 +1580,26 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             changeStatus(LocalAbstractCachableOperator.InitStatus.Disconnected);
             cache.clearAll();
             history.clear();
+            cache.publishSnapshot();
         }
         finally
         {
             lockManager.unlock(writeLock);
         }
 
+        // the waiting requests return, because the operator is no longer connected
+        synchronized (updateMonitor)
+        {
+            updateMonitor.notifyAll();
+        }
         try
         {
             for (io.reactivex.disposables.Disposable task : scheduledTasks)
             {
                 task.dispose();
             }
+            // the pool is created again by the next parallel query
+            shutdownQueryPool();
         }
         finally
         {
@@ -1375,7 +1713,17 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         */
         Date today = today();
         // processes the conflicts and adds the changes to the result
-        final Collection<ConflictFinder.ConflictChangeOperation> calculatedConflictChanges = conflictFinder.updateConflicts(bindingResult, result, today);
+        final Collection<ConflictFinder.ConflictChangeOperation> calculatedConflictChanges;
+        if (readersDuringConflictUpdate)
+        {
+            // the conflict finder is safe for concurrent readers and the other state is not changed by the calculation
+            calculatedConflictChanges = lockManager.runWithReadersAllowed(getClass(), "updateConflicts",
+                    () -> conflictFinder.updateConflicts(bindingResult, result, today));
+        }
+        else
+        {
+            calculatedConflictChanges = conflictFinder.updateConflicts(bindingResult, result, today);
+        }
         for (ConflictFinder.ConflictChangeOperation updateOperation : calculatedConflictChanges)
         {
             final UpdateOperation operation = updateOperation.getOperation();
@@ -1555,6 +1903,11 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         if (rebuildAllBindings)
         {
             appointmentBindings.initAppointmentBindings(cache.getReservations());
+            // the collected changes could be incomplete, so the conflicts of the resources must be fully recalculated
+            for (Map.Entry<ReferenceInfo<Allocatable>, AllocationChange> entry : toUpdate.entrySet())
+            {
+                entry.setValue(null);
+            }
         }
         if ( !bindingResult.isEmpty())
         {
@@ -1656,30 +2009,58 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     }
     */
 
-    private boolean isAffected(DeleteUpdateEntry entry, String userId, final Collection<String> groupsIncludingParents)
+    /** A changed or removed entity of a {@link SharedChangeSet} with a copy of the users and groups that are affected by the change. */
+    static final class SharedChange
     {
-        if (entry.affectAll)
+        final ReferenceInfo reference;
+        final boolean affectAll;
+        final Set<String> affectedGroupIds;
+        final Set<String> affectedUserIds;
+        // the state before the since timestamp, null if not known
+        Entity oldEntity;
+        // the current state, null if the entity is removed. Conflicts are stored without the user specific information
+        Entity newEntity;
+
+        SharedChange(DeleteUpdateEntry entry)
         {
-            return true;
+            reference = entry.reference;
+            affectAll = entry.affectAll;
+            affectedGroupIds = entry.affectedGroupIds != null ? new HashSet<>(entry.affectedGroupIds) : null;
+            affectedUserIds = entry.affectedUserIds != null ? new HashSet<>(entry.affectedUserIds) : null;
         }
-        else
+
+        boolean isAffected(String userId, final Collection<String> groupsIncludingParents)
         {
-            if (entry.affectedGroupIds != null)
+            if (affectAll)
             {
-                if (!Collections.disjoint(entry.affectedGroupIds, groupsIncludingParents))
-                {
-                    return true;
-                }
+                return true;
             }
-            if (entry.affectedUserIds != null)
+            if (affectedGroupIds != null && !Collections.disjoint(affectedGroupIds, groupsIncludingParents))
             {
-                if (entry.affectedUserIds.contains(userId))
-                {
-                    return true;
-                }
+                return true;
             }
+            return affectedUserIds != null && affectedUserIds.contains(userId);
+        }
+    }
+
+    /** The changes of all users since a timestamp. Is calculated once by the first client and then only filtered for each user. */
+    static final class SharedChangeSet
+    {
+        final Date since;
+        final Date until;
+        List<SharedChange> updates;
+        List<SharedChange> removes;
+
+        SharedChangeSet(Date since, Date until)
+        {
+            this.since = since;
+            this.until = until;
+        }
+
+        boolean isCalculated()
+        {
+            return updates != null;
         }
-        return false;
     }
 
     class DeleteUpdateEntry implements Comparable<DeleteUpdateEntry>
@@ -1883,7 +2264,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     /**
      * returns all entities with a timestamp > the passed timestamp
      */
-    private Collection<ReferenceInfo> getEntities(User user, final Date timestamp, boolean isDelete) throws RaplaException
+    /** returns the entries of all users that are changed (or removed if isDelete is set) after the timestamp */
+    private List<SharedChange> getChangedEntries(final Date timestamp, boolean isDelete) throws RaplaException
     {
         Assert.notNull(timestamp);
         // we use an empty id here because the implmentation of the DeleteUpdateEntry compare compares idStrings if timestamps are equal
@@ -1891,11 +2273,9 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         final String dummyId = "";
         // we need to add +1 so that we dont get entities with the passed (guaranteed timestamp)
         DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo(dummyId, Allocatable.class), new Date(timestamp.getTime() + 1), isDelete);
-        LinkedList<ReferenceInfo> result = new LinkedList<>();
+        List<SharedChange> result = new ArrayList<>();
 
-        RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "getEntities for "+ user);
-        final Collection<String> groupsIncludingParents = user != null ? UserImpl.getGroupsIncludingParents(user) : null;
-        String userId = user != null ? user.getId() : null;
+        RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "getChangedEntries since " + timestamp);
         try
         {
             SortedMap<DeleteUpdateEntry, String> tailMap = deleteUpdateSet.inverseBidiMap().tailMap(fromElement);
@@ -1906,11 +2286,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 {
                     continue;
                 }
-                if (user == null || user.isAdmin() || isAffected(entry, userId, groupsIncludingParents))
-                {
-                    ReferenceInfo deletedReference = entry.reference;
-                    result.add(deletedReference);
-                }
+                // the affected sets of an entry are changed on the next store, so we copy them
+                result.add(new SharedChange(entry));
             }
         }
         finally
@@ -1999,41 +2376,82 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
     }
 
-    static final SortedSet<Appointment> EMPTY_SORTED_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
-
     /** returs all appointments for the allocatable and all groupMembers and belongsTo*/
-    protected SortedSet<Appointment> getAppointments(Allocatable allocatable)
+    protected Collection<Appointment> getAppointments(Allocatable allocatable)
     {
         final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
         Set<ReferenceInfo<Allocatable>> allocatableIds = cache.getDependentRef(reference);
         if (allocatableIds.size() == 0)
         {
-            SortedSet<Appointment> s = appointmentBindings.getAppointments(null);
-            if (s != null)
-            {
-                return s;
-            }
-            return EMPTY_SORTED_SET;
+            return appointmentBindings.getAppointments(null);
+        }
+        else if (allocatableIds.size() == 1)
+        {
+            return appointmentBindings.getAppointments(allocatableIds.iterator().next());
         }
         else
         {
             SortedSet<Appointment> transitive = new TreeSet<>(new AppointmentStartComparator());
             for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
             {
-                SortedSet<Appointment> s = appointmentBindings.getAppointments(allocatableId);
-                for (Appointment appointment : s)
-                {
-                    transitive.add(appointment);
-                }
+                transitive.addAll(appointmentBindings.getAppointments(allocatableId));
             }
             return transitive;
         }
     }
 
+    /** returns all appointments for the allocatable and all groupMembers and belongsTo that overlap the passed period.
+     * Only the candidates found in the interval index are checked for an exact overlap.
+     * @param user the owner of the reservation or null for reservations from all users
+     */
+    protected SortedSet<Appointment> getAppointments(Allocatable allocatable, User user, Date start, Date end, boolean excludeExceptions)
+    {
+        final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
+        Set<ReferenceInfo<Allocatable>> allocatableIds = cache.getDependentRef(reference);
+        final Collection<Appointment> candidates;
+        if (allocatableIds.size() == 0)
+        {
+            candidates = new ArrayList<>();
+            appointmentBindings.getAppointments(null).collectCandidates(start, end, candidates);
+        }
+        else if (allocatableIds.size() == 1)
+        {
+            candidates = new ArrayList<>();
+            appointmentBindings.getAppointments(allocatableIds.iterator().next()).collectCandidates(start, end, candidates);
+        }
+        else
+        {
+            // an appointment can be bound to more than one of the dependent allocatables
+            candidates = new LinkedHashSet<>();
+            for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
+            {
+                appointmentBindings.getAppointments(allocatableId).collectCandidates(start, end, candidates);
+            }
+        }
+        SortedSet<Appointment> appointmentSet = new TreeSet<>(new AppointmentStartComparator());
+        for (Appointment appointment : candidates)
+        {
+            // Ignore appointments without a reservation
+            if (appointment.getReservation() == null)
+            {
+                continue;
+            }
+            if (!appointment.overlaps(start, end, excludeExceptions))
+            {
+                continue;
+            }
+            if (user == null || user.getReference().equals(((AppointmentImpl) appointment).getOwnerRef()))
+            {
+                appointmentSet.add(appointment);
+            }
+        }
+        return appointmentSet;
+    }
+
     static final class AppointmentMapClass
     {
         final private Logger logger;
-        private Map<ReferenceInfo<Allocatable>, SortedSet<Appointment>> appointmentMap;
+        private Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> appointmentMap;
         Set<String> problematicIdSet = Collections.synchronizedSet(new HashSet<>());
 
         private AppointmentMapClass(Logger newLogger)
@@ -2070,7 +2488,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
         private void removeAppointmentBinding(Appointment app, ReferenceInfo<Allocatable> allocationId)
         {
-            Collection<Appointment> appointmentSet = appointmentMap.get(allocationId);
+            AppointmentIntervalIndex appointmentSet = appointmentMap.get(allocationId);
             if (appointmentSet == null)
             {
                 return;
@@ -2083,15 +2501,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             {
                 logger.error("Appointent has changed, so its not found in indexed binding map. Removing via full search");
                 // so we need to traverse all appointment
-                Iterator<Appointment> it = appointmentSet.iterator();
-                while (it.hasNext())
-                {
-                    if (app.equals(it.next()))
-                    {
-                        it.remove();
-                        break;
-                    }
-                }
+                appointmentSet.removeWithFullSearch(app);
             }
         }
 
@@ -2099,7 +2509,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         {
             for (ReferenceInfo<Allocatable> alloc : removedAllocatables)
             {
-                SortedSet<Appointment> sortedSet = appointmentMap.get(alloc);
+                AppointmentIntervalIndex sortedSet = appointmentMap.get(alloc);
                 if (sortedSet != null && !sortedSet.isEmpty())
                 {
                     logger.error("Removing non empty appointment map for resource " + alloc + " Appointments:" + sortedSet);
@@ -2110,10 +2520,10 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
         private void addAppointmentBinding(Appointment appRef, ReferenceInfo<Allocatable> allocationId)
         {
-            SortedSet<Appointment> set = appointmentMap.get(allocationId);
+            AppointmentIntervalIndex set = appointmentMap.get(allocationId);
             if (set == null)
             {
-                set = new TreeSet<>(new AppointmentStartComparator());
+                set = new AppointmentIntervalIndex();
                 appointmentMap.put(allocationId, set);
             }
             set.add(appRef);
@@ -2130,29 +2540,29 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             {
                 for (Allocatable allocatable : allocatables)
                 {
-                    SortedSet<Appointment> appointmentSet = this.appointmentMap.get(allocatable.getReference());
+                    AppointmentIntervalIndex appointmentSet = this.appointmentMap.get(allocatable.getReference());
                     if (appointmentSet == null)
                     {
                         continue;
                     }
-                    Iterator<Appointment> it = appointmentSet.iterator();
-                    while (it.hasNext())
+                    // the index iterator does not support remove, so we collect the abandoned bindings first
+                    List<Appointment> abandoned = new ArrayList<>();
+                    for (Appointment app : appointmentSet)
                     {
-                        Appointment app = it.next();
                         Reservation reservation = app.getReservation();
                         final String annotation = reservation.getAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE);
                         Allocatable template = annotation != null ? cache.tryResolve(annotation, Allocatable.class) : null;
                         if (reservation == null)
                         {
                             logger.error("Appointment without a reservation stored in cache " + app);
-                            it.remove();
+                            abandoned.add(app);
                             continue;
                         }
                         else if (!reservation.hasAllocatedOn(allocatable, app) && (template == null || !template.equals(allocatable)))
                         {
                             logger.error(
                                     "Allocation is not stored correctly for " + reservation + " " + app + " " + allocatable + " removing binding for " + app);
-                            it.remove();
+                            abandoned.add(app);
                             continue;
                         }
                         else
@@ -2183,13 +2593,20 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                                 else
                                 {
                                     logger.error("Reservation not stored in cache " + original + " removing binding for " + app);
-                                    it.remove();
+                                    abandoned.add(app);
                                     continue;
                                 }
                             }
 
                         }
                     }
+                    for (Appointment app : abandoned)
+                    {
+                        if (!appointmentSet.remove(app))
+                        {
+                            appointmentSet.removeWithFullSearch(app);
+                        }
+                    }
                 }
             }
             catch (Exception ex)
@@ -2198,16 +2615,17 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
         }
 
-        final SortedSet<Appointment> EMPTY_SORTED_REF_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
+        final AppointmentIntervalIndex EMPTY_INDEX = new AppointmentIntervalIndex();
 
-        public SortedSet<Appointment> getAppointments(ReferenceInfo<Allocatable> allocatableId)
+        /** returns the index for the allocatable. The returned index must not be modified by the caller. */
+        public AppointmentIntervalIndex getAppointments(ReferenceInfo<Allocatable> allocatableId)
         {
-            final SortedSet<Appointment> referenceInfos = appointmentMap.get(allocatableId);
+            final AppointmentIntervalIndex referenceInfos = appointmentMap.get(allocatableId);
             if (referenceInfos != null)
             {
                 return referenceInfos;
             }
-            return EMPTY_SORTED_REF_SET;
+            return EMPTY_INDEX;
         }
     }
 
@@ -2215,14 +2633,30 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             Collection<ReferenceInfo> removedIds) throws RaplaException
     {
 
-        UpdateResult update = super.update(since, until, storeObjects, preferencePatches, removedIds);
-        final Collection<ConflictFinder.ConflictChangeOperation> updateOperations = updateIndizes(update);
-        for (ConflictFinder.ConflictChangeOperation op : updateOperations)
+        // super.update sets the new timestamp before the conflicts are recorded
+        heldBackUntil = getLastRefreshed();
+        try
+        {
+            UpdateResult update = super.update(since, until, storeObjects, preferencePatches, removedIds);
+            final Collection<ConflictFinder.ConflictChangeOperation> updateOperations = updateIndizes(update);
+            for (ConflictFinder.ConflictChangeOperation op : updateOperations)
+            {
+                // conflicts
+                update.addOperation(op.getNewConflict(), op.getOldConflict(), op.getOperation());
+            }
+            return update;
+        }
+        finally
         {
-            // conflicts
-            update.addOperation(op.getNewConflict(), op.getOldConflict(), op.getOperation());
+            heldBackUntil = null;
         }
-        return update;
+    }
+
+    /** returns the timestamp until which all changes including the conflicts are recorded */
+    private Date getPublishedUntil()
+    {
+        final Date heldBack = heldBackUntil;
+        return heldBack != null ? heldBack : getLastRefreshed();
     }
 
     private void removeOldHistory() throws RaplaException
@@ -2280,7 +2714,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
             finally
             {
-                lockManager.unlock(writeLock);
+                unlockAndPublish(writeLock);
             }
         }
     }
@@ -3552,16 +3986,18 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     continue;
                 }
                 // TODO check also parents and children from allocatables
-                SortedSet<Appointment> appointmentSet = getAppointments(allocatable);
-                if (appointmentSet == null)
-                {
-                    continue;
-                }
                 map.put(allocatable, new HashMap<>());
                 for (Appointment appointment : appointments)
                 {
+                    // Templates don't cause conflicts
+                    if (RaplaComponent.isTemplate(appointment))
+                    {
+                        continue;
+                    }
+                    final boolean excludeExceptions = true;
+                    SortedSet<Appointment> appointmentsToTest = getAppointments(allocatable, null, appointment.getStart(), appointment.getMaxEnd(), excludeExceptions);
                     Set<Appointment> conflictingAppointments = AppointmentImpl
-                            .getConflictingAppointments(appointmentSet, appointment, ignoreList, onlyFirstConflictingAppointment);
+                            .filterConflictingAppointments(appointmentsToTest, appointment, ignoreList, onlyFirstConflictingAppointment);
                     if (conflictingAppointments.size() > 0)
                     {
                         Map<Appointment, Collection<Appointment>> appMap = map.get(allocatable);
@@ -3665,18 +4101,30 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return false;
     }
 
+    /** returns the visible entities of the last published cache snapshot without a lock, so a running write does not block the call*/
     public Collection<Entity> getVisibleEntities(final User user) throws RaplaException
     {
         checkLoaded();
-        RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getVisibleEntities for " + user );
-        try
+        return cache.getSnapshot().getVisibleEntities(user);
+    }
+
+    @Override public <T extends Entity> T tryResolve(String id, Class<T> entityClass)
+    {
+        // the snapshot is only used if there are no unpublished changes, because a writer must see its own changes
+        if (cache.isSnapshotUpToDate())
         {
-            return cache.getVisibleEntities(user);
+            return tryResolve(cache.getSnapshot(), id, entityClass);
         }
-        finally
+        return super.tryResolve(id, entityClass);
+    }
+
+    @Override public <T extends Entity> T resolve(String id, Class<T> entityClass) throws EntityNotFoundException
+    {
+        if (cache.isSnapshotUpToDate())
         {
-            lockManager.unlock(readLock);
+            return resolve(cache.getSnapshot(), id, entityClass);
         }
+        return super.resolve(id, entityClass);
     }
 
     @SuppressWarnings("deprecation")
@@ -3915,94 +4363,164 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             final Date until = new Date(historyValidStart.getTime() + DateTools.MILLISECONDS_PER_MINUTE * 10);
             return new UpdateResult(null, until, null, null);
         }
-        Date until = getLastRefreshed();
-        final Collection<ReferenceInfo> toUpdate = getEntities(user, since, false);
+        final SharedChangeSet changeSet = getSharedChangeSet(since);
+        // the changes are the same for all users, so we only filter the ones that affect the user
+        final boolean allChanges = user == null || user.isAdmin();
+        final Collection<String> groupsIncludingParents = user != null ? UserImpl.getGroupsIncludingParents(user) : null;
+        final String userId = user != null ? user.getId() : null;
         Map<ReferenceInfo, Entity> oldEntities = new LinkedHashMap<>();
         Collection<Entity> updatedEntities = new ArrayList<>();
-        for (ReferenceInfo update : toUpdate)
+        for (SharedChange change : changeSet.updates)
+        {
+            Entity newEntity = change.newEntity;
+            // if newEntity is null, then it must be deleted and within the to removed entities
+            if (newEntity == null || !(allChanges || change.isAffected(userId, groupsIncludingParents)))
+            {
+                continue;
+            }
+            if (change.reference.getType() == Conflict.class)
+            {
+                newEntity = cache.fillConflictDisableInformation(user, (Conflict) newEntity);
+            }
+            updatedEntities.add(newEntity);
+            if (change.oldEntity != null)
+            {
+                oldEntities.put(change.reference, change.oldEntity);
+            }
+        }
+        Collection<ReferenceInfo> toRemove = new ArrayList<>();
+        for (SharedChange change : changeSet.removes)
+        {
+            if (!(allChanges || change.isAffected(userId, groupsIncludingParents)))
+            {
+                continue;
+            }
+            toRemove.add(change.reference);
+            if (change.oldEntity != null)
+            {
+                oldEntities.put(change.reference, change.oldEntity);
+            }
+        }
+        UpdateResult updateResult = createUpdateResult(oldEntities, updatedEntities, toRemove, since, changeSet.until);
+        return updateResult;
+    }
+
+    /** returns the changes since the timestamp. They are calculated only once for all clients that synchronize from the same timestamp until the next refresh. */
+    private SharedChangeSet getSharedChangeSet(Date since) throws RaplaException
+    {
+        final Date until;
+        final boolean refreshInProgress;
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getSharedChangeSet since " + since);
+        try
+        {
+            until = getPublishedUntil();
+            // only true if the refresh lets the readers in while it calculates the conflicts
+            refreshInProgress = heldBackUntil != null;
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        final SharedChangeSet changeSet;
+        synchronized (sharedChangeSets)
+        {
+            // the changes of a running refresh are not complete and a reader with an older timestamp must not replace the newer change sets
+            if (refreshInProgress || (sharedChangeSetsUntil != null && until.before(sharedChangeSetsUntil)))
+            {
+                changeSet = null;
+            }
+            else
+            {
+                if (!until.equals(sharedChangeSetsUntil))
+                {
+                    sharedChangeSets.clear();
+                    sharedChangeSetsUntil = until;
+                }
+                final Long key = since.getTime();
+                SharedChangeSet existing = sharedChangeSets.get(key);
+                if (existing == null)
+                {
+                    existing = new SharedChangeSet(since, until);
+                    sharedChangeSets.put(key, existing);
+                }
+                changeSet = existing;
+            }
+        }
+        if (changeSet == null)
+        {
+            final SharedChangeSet uncached = new SharedChangeSet(since, until);
+            calculateChangeSet(uncached);
+            return uncached;
+        }
+        // the first client calculates the changes, the others with the same timestamp wait for the result
+        synchronized (changeSet)
+        {
+            if (!changeSet.isCalculated())
+            {
+                calculateChangeSet(changeSet);
+            }
+        }
+        return changeSet;
+    }
+
+    private void calculateChangeSet(SharedChangeSet changeSet) throws RaplaException
+    {
+        final Date since = changeSet.since;
+        final List<SharedChange> updates = getChangedEntries(since, false);
+        for (SharedChange change : updates)
         {
-            Entity oldEntity;
-            Entity newEntity;
+            final ReferenceInfo update = change.reference;
             final Class<? extends Entity> type = update.getType();
             if (type == Conflict.class)
             {
+                // conflict may be deleted
                 final Conflict conflict = conflictFinder.findConflict((ReferenceInfo<Conflict>) update);
                 if (conflict != null)
                 {
-                    newEntity = cache.fillConflictDisableInformation(user, conflict);
+                    change.newEntity = conflict;
                     // can be null if no conflict disable information is stored
                     if (history.hasHistory(update))
                     {
-                        oldEntity = history.get(update, since);
-                    }
-                    else
-                    {
-                        oldEntity = null;
+                        change.oldEntity = history.get(update, since);
                     }
-                } else {
-                    // conflict may be deleted
-                    newEntity = null;
-                    oldEntity = null;
                 }
-
             }
             else if (type == Preferences.class)
             {
-                newEntity = tryResolve(update);
-                oldEntity = newEntity;
+                change.newEntity = tryResolve(update);
+                change.oldEntity = change.newEntity;
             }
             else
             {
-                oldEntity = history.get(update, since);
-                newEntity = tryResolve(update);
-            }
-            // if newEntity is null, then it must be deleted and within the to removed entities
-            if (newEntity != null)
-            {
-                updatedEntities.add(newEntity);
-                if (oldEntity != null)
-                {
-                    oldEntities.put(update, oldEntity);
-                }
+                change.oldEntity = history.get(update, since);
+                change.newEntity = tryResolve(update);
             }
         }
-        Collection<ReferenceInfo> toRemove = getEntities(user, since, true);
-        for (Iterator<ReferenceInfo> it = toRemove.iterator(); it.hasNext(); )
+        final List<SharedChange> removes = getChangedEntries(since, true);
+        for (SharedChange change : removes)
         {
-            ReferenceInfo update = it.next();
-            Entity entity;
+            final ReferenceInfo update = change.reference;
             if (update.getType() == Conflict.class)
             {
-                entity = null;
-            }
-            else
-            {
-                entity = history.get(update, since);
-            }
-            Entity oldEntity = null;
-            if (entity != null)
-            {
-                oldEntity = entity;
+                continue;
             }
-            else if (update.getType() != Conflict.class)
+            Entity oldEntity = history.get(update, since);
+            if (oldEntity == null)
             {
                 final EntityHistory.HistoryEntry latest = history.getLatest(update);
                 if (latest != null)
                 {
-                    oldEntity = history.getEntity(latest);
+                    oldEntity = history.getSharedEntity(latest);
                 }
                 else
                 {
                     getLogger().warn("the entity " + update + " was deleted but not found in the history.");
                 }
             }
-            if (oldEntity != null)
-            {
-                oldEntities.put(update, oldEntity);
-            }
+            change.oldEntity = oldEntity;
         }
-        UpdateResult updateResult = createUpdateResult(oldEntities, updatedEntities, toRemove, since, until);
-        return updateResult;
+        changeSet.removes = removes;
+        changeSet.updates = updates;
     }
 
     @Override
@@ -4087,7 +4605,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         finally
         {
-            lockManager.unlock(writeLock);
+            unlockAndPublish(writeLock);
         }
     }
 
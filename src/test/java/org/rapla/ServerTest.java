@@ -58,10 +58,16 @@ import org.rapla.server.internal.ServerContainerContext;
 import org.rapla.server.internal.ServerServiceImpl;
 import org.rapla.storage.PermissionController;
 import org.rapla.storage.StorageOperator;
+import org.rapla.storage.UpdateEvent;
+import org.rapla.storage.dbrm.RemoteStorage;
+import org.rapla.storage.dbrm.RemoteStorage.QueryAppointments;
 import org.rapla.test.util.DefaultPermissionControllerSupport;
 import org.rapla.test.util.RaplaTestCase;
 
 import javax.inject.Provider;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -71,7 +77,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RunWith(JUnit4.class)
 public class ServerTest
@@ -225,6 +234,105 @@ public class ServerTest
         logout(clientFacade2);
     }
 
+    @Test
+    public void testAppointmentCache() throws Exception
+    {
+        final List<QueryAppointments> queries = new CopyOnWriteArrayList<>();
+        final AtomicBoolean needResourcesRefresh = new AtomicBoolean();
+        final ClientFacade clientFacade3 = RaplaTestCase.createFacadeWithRemote(logger, port,
+                remoteStorage -> recordQueries(remoteStorage, queries, needResourcesRefresh)).get();
+        login(clientFacade3, "homer", "duffs".toCharArray());
+        final RaplaFacade raplaFacade1 = getRaplaFacade1();
+        final RaplaFacade raplaFacade3 = clientFacade3.getRaplaFacade();
+        try
+        {
+            final Allocatable allocatable = raplaFacade3.getAllocatables()[0];
+            final Allocatable[] allocatables = new Allocatable[] { allocatable };
+            final Date start = DateTools.addDays(raplaFacade3.today(), 100);
+            final Date end = DateTools.addDays(start, 7);
+            final Date nextEnd = DateTools.addDays(end, 7);
+            queries.clear();
+            Assert.assertEquals(0, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, end, null), 10000).size());
+            assertQueried(queries, start, end);
+            // only the next week is requested from the server, the first week is still in the cache
+            Assert.assertEquals(0, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, nextEnd, null), 10000).size());
+            assertQueried(queries, end, nextEnd);
+            Assert.assertEquals(0, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, end, null), 10000).size());
+            Assert.assertTrue(queries.isEmpty());
+
+            Reservation r1 = raplaFacade1.newReservationDeprecated();
+            r1.getClassification().setValue("name", "cachedReservation");
+            r1.addAppointment(raplaFacade1.newAppointmentDeprecated(DateTools.addDays(start, 8), DateTools.addDays(start, 9)));
+            r1.addAllocatable(raplaFacade1.resolve(allocatable.getReference()));
+            raplaFacade1.store(r1);
+            raplaFacade3.refresh();
+            Assert.assertEquals(1, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, end, nextEnd, null), 10000).size());
+            Assert.assertEquals(1, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, nextEnd, null), 10000).size());
+            Assert.assertEquals(0, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, end, null), 10000).size());
+
+            // move the appointment into the first week
+            Reservation r1Edit = raplaFacade1.edit(raplaFacade1.getPersistant(r1));
+            r1Edit.getAppointments()[0].move(DateTools.addDays(start, 1), DateTools.addDays(start, 2));
+            raplaFacade1.store(r1Edit);
+            raplaFacade3.refresh();
+            Assert.assertEquals(1, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, end, null), 10000).size());
+            Assert.assertEquals(0, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, end, nextEnd, null), 10000).size());
+
+            // a refresh of all resources clears the cache
+            queries.clear();
+            needResourcesRefresh.set(true);
+            raplaFacade3.refresh();
+            Assert.assertFalse(needResourcesRefresh.get());
+            Assert.assertEquals(1, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, end, null), 10000).size());
+            assertQueried(queries, start, end);
+
+            raplaFacade1.remove(raplaFacade1.getPersistant(r1));
+            raplaFacade3.refresh();
+            Assert.assertEquals(0, RaplaTestCase.waitForWithRaplaException(raplaFacade3.getReservationsForAllocatable(allocatables, start, nextEnd, null), 10000).size());
+        }
+        finally
+        {
+            RaplaTestCase.dispose(raplaFacade3);
+            logout(clientFacade3);
+        }
+    }
+
+    /** checks that exactly one query for the interval was sent to the server and removes it */
+    private void assertQueried(List<QueryAppointments> queries, Date start, Date end)
+    {
+        Assert.assertEquals(1, queries.size());
+        final QueryAppointments query = queries.remove(0);
+        Assert.assertEquals(start, query.getStart());
+        Assert.assertEquals(end, query.getEnd());
+    }
+
+    /** @return a remote storage that records the appointment queries and can mark the next refresh as a refresh of all resources */
+    private static RemoteStorage recordQueries(RemoteStorage remoteStorage, List<QueryAppointments> queries, AtomicBoolean needResourcesRefresh)
+    {
+        final InvocationHandler handler = (proxy, method, args) ->
+        {
+            if (method.getName().equals("queryAppointments"))
+            {
+                queries.add((QueryAppointments) args[0]);
+            }
+            final Object result;
+            try
+            {
+                result = method.invoke(remoteStorage, args);
+            }
+            catch (InvocationTargetException ex)
+            {
+                throw ex.getCause();
+            }
+            if (method.getName().equals("refreshSync") && needResourcesRefresh.getAndSet(false))
+            {
+                ((UpdateEvent) result).setNeedResourcesRefresh(true);
+            }
+            return result;
+        };
+        return (RemoteStorage) Proxy.newProxyInstance(RemoteStorage.class.getClassLoader(), new Class[] { RemoteStorage.class }, handler);
+    }
+
     public RaplaFacade getRaplaFacade2()
     {
         return clientFacade2.getRaplaFacade();
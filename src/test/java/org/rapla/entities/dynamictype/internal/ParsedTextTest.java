@@ -384,6 +384,40 @@ public class ParsedTextTest
         final String formatName = parsedAnnotation.formatName(evalContext);
         Assert.assertEquals("Welten, Welt", formatName);
     }
-    
-   
+
+    @Test
+    public void testEscapedNewline() throws IllegalAnnotationException
+    {
+        Assert.assertEquals("a\nb", ParsedText.unescapeNewlines("a\\nb"));
+        Assert.assertEquals("\n\\", ParsedText.unescapeNewlines("\\n\\"));
+        Assert.assertEquals("no newline", ParsedText.unescapeNewlines("no newline"));
+        final String annoName = "myanno";
+        type.setAnnotation(annoName, "Room\\n{name(a1,\"de\")}");
+        type.setReadOnly();
+        Classification classification = type.newClassification();
+        classification.setValueForAttribute(attribute, c2);
+        Assert.assertEquals("Room\nWelt", classification.format(Locale.GERMANY, annoName));
+    }
+
+    @Test
+    public void testNameCache() throws IllegalAnnotationException
+    {
+        c2.getName().setName("en", "World");
+        final String annoName = "myanno";
+        type.setAnnotation(annoName, "Room {a1}");
+        type.setReadOnly();
+        Classification classification = type.newClassification();
+        classification.setValueForAttribute(attribute, c2);
+        Assert.assertEquals("Welt", classification.getName(Locale.GERMANY));
+        Assert.assertEquals("World", classification.getName(Locale.ENGLISH));
+        Assert.assertEquals("Room Welt", classification.format(Locale.GERMANY, annoName));
+        // cached per locale and annotation
+        Assert.assertEquals("Welt", classification.getName(Locale.GERMANY));
+        Assert.assertEquals("Room World", classification.format(Locale.ENGLISH, annoName));
+        // a changed value invalidates the names
+        classification.setValueForAttribute(attribute, c3);
+        Assert.assertEquals("Welten", classification.getName(Locale.GERMANY));
+        Assert.assertEquals("Room Welten", classification.format(Locale.GERMANY, annoName));
+    }
+
 }
@@ -556,6 +556,41 @@ public class AppointmentTest {
         assertEquals( 1, blocks.size());        
     }
 
+    @Test
+    public void testCachedBlocksAfterChange()
+    {
+        Appointment a1 = createAppointment("2006-08-17","10:30","12:00");
+        a1.setRepeatingEnabled(true);
+        Repeating repeating1 = a1.getRepeating();
+        repeating1.setType( RepeatingType.WEEKLY);
+        repeating1.setNumber( 10 );
+        List<AppointmentBlock> blocks = new ArrayList<AppointmentBlock>();
+        // first expand only the first weeks
+        a1.createBlocks( createDate("2006-08-17"), createDate("2006-09-01"), blocks);
+        assertEquals( 3, blocks.size());
+        blocks.clear();
+        a1.createBlocks( createDate("2006-01-01"), createDate("2007-01-01"), blocks);
+        assertEquals( 10, blocks.size());
+        blocks.clear();
+        a1.createBlocks( createDate("2006-09-01"), createDate("2006-09-15"), blocks);
+        assertEquals( 2, blocks.size());
+
+        repeating1.addException( createDate("2006-08-24"));
+        blocks.clear();
+        a1.createBlocks( createDate("2006-01-01"), createDate("2007-01-01"), blocks);
+        assertEquals( 9, blocks.size());
+
+        repeating1.setNumber( 5 );
+        blocks.clear();
+        a1.createBlocks( createDate("2006-01-01"), createDate("2007-01-01"), blocks);
+        assertEquals( 4, blocks.size());
+
+        a1.moveTo( createDate("2006-08-18"));
+        blocks.clear();
+        a1.createBlocks( createDate("2006-08-17"), createDate("2006-08-18"), blocks);
+        assertEquals( 0, blocks.size());
+    }
+
 }
 
 
@@ -23,6 +23,7 @@ import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.dynamictype.Attribute;
 import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.Classification;
 import org.rapla.entities.dynamictype.ClassificationFilter;
 import org.rapla.entities.dynamictype.ClassificationFilterRule;
 import org.rapla.entities.dynamictype.DynamicType;
@@ -112,4 +113,44 @@ public class ClassificationFilterTest  {
         Assert.assertTrue(allocatables.length > 0);
     }
 
+    @Test
+    public void testCompiledRules() throws Exception {
+        {
+            DynamicType dynamicType = raplaFacade.getDynamicType("room");
+            DynamicType modifiableType = raplaFacade.edit(dynamicType);
+            Attribute attribute = raplaFacade.newAttribute( AttributeType.INT);
+            attribute.setKey( "seats");
+            modifiableType.addAttribute(attribute);
+            raplaFacade.store( modifiableType);
+        }
+        DynamicType dynamicType = raplaFacade.getDynamicType("room");
+        Classification small = dynamicType.newClassification();
+        small.setValue("name", "Small Room");
+        small.setValue("seats", 10L);
+        Classification large = dynamicType.newClassification();
+        large.setValue("name", "Large Hall");
+        large.setValue("seats", 30L);
+        Classification unknown = dynamicType.newClassification();
+        unknown.setValue("name", "Unknown");
+
+        ClassificationFilter classificationFilter = dynamicType.newClassificationFilter();
+        classificationFilter.setRule(0, dynamicType.getAttribute("seats"), new Object[][] { { "<=", 10L } });
+        Assert.assertTrue(classificationFilter.matches(small));
+        Assert.assertFalse(classificationFilter.matches(large));
+        Assert.assertFalse(classificationFilter.matches(unknown));
+
+        // a changed rule is compiled again
+        classificationFilter.setRule(0, dynamicType.getAttribute("seats"), new Object[][] { { ">=", 20L }, { "=", null } });
+        Assert.assertFalse(classificationFilter.matches(small));
+        Assert.assertTrue(classificationFilter.matches(large));
+        Assert.assertTrue(classificationFilter.matches(unknown));
+
+        classificationFilter.addRule("name", new Object[][] { { "starts", "large" } });
+        Assert.assertTrue(classificationFilter.matches(large));
+        Assert.assertFalse(classificationFilter.matches(unknown));
+
+        Classification event = raplaFacade.getDynamicType("event").newClassification();
+        Assert.assertFalse(classificationFilter.matches(event));
+    }
+
 }
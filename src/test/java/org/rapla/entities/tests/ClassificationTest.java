@@ -37,8 +37,10 @@ import org.rapla.test.util.RaplaTestCase;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 
 @RunWith(JUnit4.class)
 public class ClassificationTest  {
@@ -125,9 +127,49 @@ public class ClassificationTest  {
     	}
     }
 
-}
-
-
+	@Test
+    public void testNameOfRenamedCategory() throws Exception {
+    	Category departments = facade.newCategory();
+    	departments.setKey("test-departments");
+    	Category department = facade.newCategory();
+    	department.setKey("test-department");
+    	department.getName().setName("en", "old department");
+    	departments.addCategory( department );
+    	Category rootC = facade.edit( facade.getSuperCategory() );
+    	rootC.addCategory( departments );
 
+    	DynamicType type =  facade.newDynamicType(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE);
+    	type.setKey("named-type");
+    	type.getName().setName("en", "named-type");
+    	Attribute a1 = facade.newAttribute(AttributeType.CATEGORY);
+    	a1.setKey("department");
+    	a1.setConstraint( ConstraintIds.KEY_ROOT_CATEGORY, departments );
+    	type.addAttribute( a1 );
+    	type.setAnnotation( DynamicTypeAnnotations.KEY_NAME_FORMAT, "{name} {department}");
+		facade.storeObjects( new Entity[] { rootC, type } );
+    	type =  facade.getPersistant( type );
 
+    	Classification classification = type.newClassification();
+        classification.setValue("name", "room");
+        classification.setValue("department", department);
+		Allocatable resource = facade.newAllocatable(classification, user);
+    	facade.storeObjects( new Entity[] {  resource } );
+    	Assert.assertEquals("room old department", facade.getPersistant(resource).getName(Locale.ENGLISH));
+
+    	// storing an event does not invalidate the cached names
+    	final long namesVersion = facade.getOperator().getNamesVersion();
+    	Reservation event = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+    	event.getClassification().setValue("name", "event");
+    	event.addAppointment(facade.newAppointmentWithUser(new Date(), new Date(System.currentTimeMillis() + 60 * 60 * 1000), user));
+    	facade.store( event );
+    	Assert.assertEquals(namesVersion, facade.getOperator().getNamesVersion());
+
+    	// the resource is not changed, but its name shows the new name of the category
+    	Category rootEdit = facade.edit( facade.getSuperCategory() );
+    	rootEdit.getCategory("test-departments").getCategory("test-department").getName().setName("en", "new department");
+    	facade.store( rootEdit );
+    	Assert.assertEquals("room new department", facade.getPersistant(resource).getName(Locale.ENGLISH));
+    	Assert.assertTrue(facade.getOperator().getNamesVersion() > namesVersion);
+    }
 
+}
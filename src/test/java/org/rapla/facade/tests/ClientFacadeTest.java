@@ -21,6 +21,7 @@ import org.junit.runners.JUnit4;
 import org.rapla.components.i18n.client.swing.SwingBundleManager;
 import org.rapla.components.util.DateTools;
 import org.rapla.components.util.SerializableDateTimeFormat;
+import org.rapla.components.util.TimeInterval;
 import org.rapla.entities.DependencyException;
 import org.rapla.entities.Entity;
 import org.rapla.entities.EntityNotFoundException;
@@ -50,6 +51,7 @@ import org.rapla.facade.RaplaFacade;
 import org.rapla.facade.client.ClientFacade;
 import org.rapla.facade.internal.CalendarModelImpl;
 import org.rapla.facade.internal.FacadeImpl;
+import org.rapla.facade.internal.ModificationEventImpl;
 import org.rapla.framework.RaplaException;
 import org.rapla.framework.TypedComponentRole;
 import org.rapla.framework.internal.RaplaLocaleImpl;
@@ -57,6 +59,7 @@ import org.rapla.logger.Logger;
 import org.rapla.plugin.weekview.WeekviewPlugin;
 import org.rapla.scheduler.Promise;
 import org.rapla.storage.StorageOperator;
+import org.rapla.storage.UpdateResult;
 import org.rapla.test.util.RaplaTestCase;
 
 import java.util.ArrayList;
@@ -64,6 +67,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -856,9 +860,40 @@ public class ClientFacadeTest  {
         Assert.assertEquals(1, conflicts.size());
     }
 
+    @Test
+    public void testQueryCache() throws Exception
+    {
+        final User user = clientFacade.getUser();
+        final Logger logger = ((FacadeImpl) facade).getLogger();
+        final CalendarModelImpl model = new CalendarModelImpl(locale, user, facade.getOperator(), logger);
+        model.setCachingEnabled(true);
+        final Allocatable allocatable = facade.getAllocatables()[0];
+        model.setSelectedObjects(Collections.singletonList(allocatable));
+        final Date start = DateTools.addDays(facade.today(), 7);
+        final TimeInterval week1 = new TimeInterval(start, DateTools.addDays(start, 7));
+        final TimeInterval week2 = new TimeInterval(DateTools.addDays(start, 7), DateTools.addDays(start, 14));
+        final Map<Allocatable, Collection<Appointment>> result1 = RaplaTestCase.waitForWithRaplaException(model.queryAppointmentBindings(week1), 10000);
+        final Map<Allocatable, Collection<Appointment>> result2 = RaplaTestCase.waitForWithRaplaException(model.queryAppointmentBindings(week2), 10000);
+        // switching back to the first week uses the cache
+        Assert.assertSame(result1, RaplaTestCase.waitForWithRaplaException(model.queryAppointmentBindings(week1), 10000));
+        Assert.assertSame(result2, RaplaTestCase.waitForWithRaplaException(model.queryAppointmentBindings(week2), 10000));
+
+        // a new reservation in the second week only invalidates the second week
+        Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification();
+        final Reservation reservation = facade.newReservation(classification, user);
+        reservation.addAllocatable(allocatable);
+        final Date appointmentStart = DateTools.addDays(start, 8);
+        reservation.addAppointment(facade.newAppointmentDeprecated(appointmentStart, new Date(appointmentStart.getTime() + DateTools.MILLISECONDS_PER_HOUR)));
+        facade.store(reservation);
+        final Reservation stored = facade.resolve(reservation.getReference());
+        final Map<ReferenceInfo, Entity> updated = new HashMap<>();
+        updated.put(stored.getReference(), stored);
+        final UpdateResult updateResult = new UpdateResult(null, null, Collections.emptyMap(), updated);
+        updateResult.addOperation(new UpdateResult.Add(stored.getReference()));
+        model.invalidateCache(new ModificationEventImpl(updateResult, null));
+        Assert.assertSame(result1, RaplaTestCase.waitForWithRaplaException(model.queryAppointmentBindings(week1), 10000));
+        final Map<Allocatable, Collection<Appointment>> newResult2 = RaplaTestCase.waitForWithRaplaException(model.queryAppointmentBindings(week2), 10000);
+        Assert.assertNotSame(result2, newResult2);
+        Assert.assertTrue(CalendarModelImpl.getAllReservations(newResult2).contains(stored));
+    }
 }
-
-
-
-
-
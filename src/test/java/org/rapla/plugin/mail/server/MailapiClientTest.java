@@ -0,0 +1,177 @@
+package org.rapla.plugin.mail.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.plugin.mail.MailException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class MailapiClientTest
+{
+    FakeSmtpServer smtpServer;
+    MailapiClient client;
+
+    /** accepts all mails except for recipients that start with reject */
+    static class FakeSmtpServer implements Runnable
+    {
+        final ServerSocket serverSocket;
+        final AtomicInteger connections = new AtomicInteger();
+        final List<String> recipients = Collections.synchronizedList(new ArrayList<>());
+        final Thread thread;
+
+        FakeSmtpServer() throws IOException
+        {
+            serverSocket = new ServerSocket(0);
+            thread = new Thread(this, "fake-smtp");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort()
+        {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run()
+        {
+            while (!serverSocket.isClosed())
+            {
+                try (Socket socket = serverSocket.accept())
+                {
+                    connections.incrementAndGet();
+                    handle(socket);
+                }
+                catch (IOException ex)
+                {
+                    // closed
+                }
+            }
+        }
+
+        private void handle(Socket socket) throws IOException
+        {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            final OutputStream out = socket.getOutputStream();
+            write(out, "220 localhost fake smtp");
+            String recipient = null;
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                final String command = line.toUpperCase();
+                if (command.startsWith("RCPT"))
+                {
+                    if (command.contains("<REJECT"))
+                    {
+                        write(out, "550 unknown user");
+                    }
+                    else
+                    {
+                        recipient = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+                        write(out, "250 ok");
+                    }
+                }
+                else if (command.startsWith("DATA"))
+                {
+                    write(out, "354 send data");
+                    while ((line = in.readLine()) != null && !line.equals("."))
+                    {
+                    }
+                    recipients.add(recipient);
+                    recipient = null;
+                    write(out, "250 ok");
+                }
+                else if (command.startsWith("QUIT"))
+                {
+                    write(out, "221 bye");
+                    return;
+                }
+                else
+                {
+                    // EHLO, HELO, MAIL, RSET and NOOP
+                    write(out, "250 ok");
+                }
+            }
+        }
+
+        private void write(OutputStream out, String response) throws IOException
+        {
+            out.write((response + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        void close() throws IOException
+        {
+            serverSocket.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        smtpServer = new FakeSmtpServer();
+        client = new MailapiClient();
+        client.setSmtpHost("localhost");
+        client.setPort(smtpServer.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        smtpServer.close();
+    }
+
+    @Test
+    public void testSendMailsOverOneConnection() throws Exception
+    {
+        final List<OutgoingMail> mails = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            mails.add(new OutgoingMail("user" + i + "@example.com", "Subject " + i, "Body " + i));
+        }
+        final Map<OutgoingMail, MailException> failed = client.sendMails("rapla@example.com", mails);
+        Assert.assertTrue(failed.isEmpty());
+        Assert.assertEquals(1, smtpServer.connections.get());
+        Assert.assertEquals(Arrays.asList("user0@example.com", "user1@example.com", "user2@example.com", "user3@example.com", "user4@example.com"),
+                smtpServer.recipients);
+    }
+
+    @Test
+    public void testFailedMailDoesNotStopBatch() throws Exception
+    {
+        final OutgoingMail first = new OutgoingMail("first@example.com", "Subject", "Body");
+        final OutgoingMail rejected = new OutgoingMail("reject@example.com", "Subject", "Body");
+        final OutgoingMail last = new OutgoingMail("last@example.com", "Subject", "Body");
+        final Map<OutgoingMail, MailException> failed = client.sendMails("rapla@example.com", Arrays.asList(first, rejected, last));
+        Assert.assertEquals(Collections.singleton(rejected), failed.keySet());
+        Assert.assertEquals(Arrays.asList("first@example.com", "last@example.com"), smtpServer.recipients);
+    }
+
+    @Test
+    public void testUnreachableServer() throws Exception
+    {
+        final int port = smtpServer.getPort();
+        smtpServer.close();
+        client.setPort(port);
+        final OutgoingMail mail = new OutgoingMail("user@example.com", "Subject", "Body");
+        final Map<OutgoingMail, MailException> failed = client.sendMails("rapla@example.com", Collections.singletonList(mail));
+        Assert.assertEquals(Collections.singleton(mail), failed.keySet());
+    }
+}
@@ -0,0 +1,154 @@
+package org.rapla.plugin.notification.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.mail.server.MailInterface;
+import org.rapla.plugin.mail.server.MailToUserImpl;
+import org.rapla.plugin.notification.server.NotificationService.AllocationMail;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(JUnit4.class)
+public class NotificationStorageTest
+{
+    private RaplaFacade facade;
+    private Logger logger;
+    private final Map<String, Integer> sentSubjects = new ConcurrentHashMap<>();
+    private MailToUserImpl mailToUser;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        final MailInterface mailer = (senderMail, recipient, subject, mailBody) -> sentSubjects.merge(subject, 1, Integer::sum);
+        mailToUser = new MailToUserImpl(mailer, facade, logger);
+    }
+
+    private AllocationMail createMail(String recipient, String subject)
+    {
+        final AllocationMail mail = new AllocationMail();
+        mail.recipient = recipient;
+        mail.subject = subject;
+        mail.body = "body of " + subject;
+        return mail;
+    }
+
+    private void waitForIdle(MailQueue queue) throws InterruptedException
+    {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (!queue.isIdle())
+        {
+            Assert.assertTrue("mails not sent", System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void retryPassesSendEachMailOnce() throws Exception
+    {
+        final List<AllocationMail> mails = new ArrayList<>();
+        for (int i = 0; i < MailQueue.BATCH_SIZE + 5; i++)
+        {
+            mails.add(createMail(i % 2 == 0 ? "homer" : "monty", "mail " + i));
+        }
+        final NotificationStorage storage = new NotificationStorage(facade);
+        storage.store(mails);
+        // a second server that shares the storage
+        final NotificationStorage otherStorage = new NotificationStorage(facade);
+        final MailQueue queue = new MailQueue(storage, () -> mailToUser, logger);
+        final MailQueue otherQueue = new MailQueue(otherStorage, () -> mailToUser, logger);
+        try
+        {
+            final long firstRetry = System.currentTimeMillis() + NotificationStorage.FIRST_RETRY_DELAY + 1000;
+            Assert.assertTrue(storage.claimMailsToSend(firstRetry - 2000).isEmpty());
+
+            final Collection<AllocationMail> claimed = storage.claimMailsToSend(firstRetry);
+            Assert.assertEquals(mails.size(), claimed.size());
+            queue.add(claimed);
+            // the next pass runs while the first mails are still in the queue
+            final Collection<AllocationMail> claimedAgain = otherStorage.claimMailsToSend(firstRetry + 1);
+            Assert.assertTrue(claimedAgain.isEmpty());
+            otherQueue.add(claimedAgain);
+            waitForIdle(queue);
+            waitForIdle(otherQueue);
+
+            Assert.assertEquals(mails.size(), sentSubjects.size());
+            for (AllocationMail mail : mails)
+            {
+                Assert.assertEquals(mail.subject, Integer.valueOf(1), sentSubjects.get(mail.subject));
+            }
+            // the sent mails are removed from the storage
+            Assert.assertTrue(otherStorage.claimMailsToSend(firstRetry + NotificationStorage.MAX_RETRY_DELAY * 2).isEmpty());
+        }
+        finally
+        {
+            queue.shutdown();
+            otherQueue.shutdown();
+        }
+    }
+
+    @Test
+    public void claimedMailIsDueAfterRetryDelay() throws Exception
+    {
+        final NotificationStorage storage = new NotificationStorage(facade);
+        final List<AllocationMail> mails = new ArrayList<>();
+        mails.add(createMail("homer", "claimed"));
+        storage.store(mails);
+        final long firstRetry = System.currentTimeMillis() + NotificationStorage.FIRST_RETRY_DELAY + 1000;
+        Assert.assertEquals(1, storage.claimMailsToSend(firstRetry).size());
+        // a claimed mail that was not sent, e.g. because the server stopped, is tried again
+        Assert.assertTrue(storage.claimMailsToSend(firstRetry + NotificationStorage.FIRST_RETRY_DELAY - 1000).isEmpty());
+        Assert.assertEquals(1, storage.claimMailsToSend(firstRetry + NotificationStorage.FIRST_RETRY_DELAY + 1000).size());
+    }
+
+    @Test
+    public void queuedMailIsRemovedAfterClaim() throws Exception
+    {
+        final CountDownLatch mailServerReady = new CountDownLatch(1);
+        final MailInterface blockingMailer = (senderMail, recipient, subject, mailBody) ->
+        {
+            try
+            {
+                mailServerReady.await();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            sentSubjects.merge(subject, 1, Integer::sum);
+        };
+        final MailToUserImpl blockingMailToUser = new MailToUserImpl(blockingMailer, facade, logger);
+        final NotificationStorage storage = new NotificationStorage(facade);
+        final MailQueue queue = new MailQueue(storage, () -> blockingMailToUser, logger);
+        try
+        {
+            final List<AllocationMail> mails = new ArrayList<>();
+            mails.add(createMail("homer", "queued"));
+            storage.store(mails);
+            queue.add(mails);
+            // a retry pass reloads the storage while the mail is still in the queue
+            Assert.assertTrue(storage.claimMailsToSend(System.currentTimeMillis()).isEmpty());
+            mailServerReady.countDown();
+            waitForIdle(queue);
+            Assert.assertEquals(Integer.valueOf(1), sentSubjects.get("queued"));
+            // the sent mail is removed, so it is not sent again
+            Assert.assertTrue(storage.claimMailsToSend(System.currentTimeMillis() + NotificationStorage.MAX_RETRY_DELAY * 2).isEmpty());
+        }
+        finally
+        {
+            queue.shutdown();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.rapla.plugin.notification.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.notification.NotificationPlugin;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateResult;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class NotificationSubscriptionsTest
+{
+    private RaplaFacade facade;
+    private CachableStorageOperator operator;
+    private Date lastUpdate;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        operator = (CachableStorageOperator) facade.getOperator();
+        lastUpdate = operator.getCurrentTimestamp();
+    }
+
+    private void listenTo(User user, List<Allocatable> allocatables) throws Exception
+    {
+        Preferences preferences = facade.edit(facade.getPreferences(user));
+        preferences.putEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG, facade.newRaplaMap(allocatables));
+        facade.storeAndRemove(new Entity[] { preferences }, Entity.ENTITY_ARRAY, user);
+    }
+
+    private void update(NotificationSubscriptions subscriptions) throws Exception
+    {
+        final UpdateResult updateResult = operator.getUpdateResult(lastUpdate);
+        subscriptions.update(updateResult);
+        lastUpdate = updateResult.getUntil();
+    }
+
+    @Test
+    public void preferenceChanges() throws Exception
+    {
+        final NotificationSubscriptions subscriptions = new NotificationSubscriptions(facade);
+        final Allocatable allocatable1 = facade.getAllocatables()[0];
+        final Allocatable allocatable2 = facade.getAllocatables()[1];
+        final User homer = facade.getUser("homer");
+        final User monty = facade.getUser("monty");
+        final List<ReferenceInfo<Allocatable>> both = Arrays.asList(allocatable1.getReference(), allocatable2.getReference());
+        update(subscriptions);
+        Assert.assertTrue(subscriptions.getSubscribers(both).isEmpty());
+
+        listenTo(homer, Collections.singletonList(allocatable1));
+        listenTo(monty, Arrays.asList(allocatable1, allocatable2));
+        update(subscriptions);
+        final Set<ReferenceInfo<User>> subscribers1 = subscriptions.getSubscribers(Collections.singletonList(allocatable1.getReference()));
+        Assert.assertEquals(2, subscribers1.size());
+        Assert.assertTrue(subscribers1.contains(homer.getReference()));
+        Assert.assertEquals(Collections.singleton(monty.getReference()), subscriptions.getSubscribers(Collections.singletonList(allocatable2.getReference())));
+
+        listenTo(monty, Collections.emptyList());
+        update(subscriptions);
+        Assert.assertEquals(Collections.singleton(homer.getReference()), subscriptions.getSubscribers(both));
+
+        // an update result that does not continue the last one builds the index again
+        listenTo(homer, Collections.singletonList(allocatable2));
+        subscriptions.update(operator.getUpdateResult(operator.getCurrentTimestamp()));
+        Assert.assertEquals(Collections.singleton(homer.getReference()), subscriptions.getSubscribers(Collections.singletonList(allocatable2.getReference())));
+        Assert.assertTrue(subscriptions.getSubscribers(Collections.singletonList(allocatable1.getReference())).isEmpty());
+    }
+}
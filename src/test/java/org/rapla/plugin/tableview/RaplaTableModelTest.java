@@ -0,0 +1,163 @@
+package org.rapla.plugin.tableview;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.tablesorter.TableSorter;
+import org.rapla.plugin.tableview.client.swing.RaplaSwingTableModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+@RunWith(JUnit4.class)
+public class RaplaTableModelTest
+{
+    static class CountingColumn implements RaplaTableColumn<Integer>
+    {
+        final String name;
+        final IntUnaryOperator function;
+        final AtomicInteger evaluations = new AtomicInteger();
+
+        CountingColumn(String name, int factor)
+        {
+            this(name, value -> value * factor);
+        }
+
+        CountingColumn(String name, IntUnaryOperator function)
+        {
+            this.name = name;
+            this.function = function;
+        }
+
+        @Override
+        public String getColumnName()
+        {
+            return name;
+        }
+
+        @Override
+        public Object getValue(Integer object)
+        {
+            evaluations.incrementAndGet();
+            return function.applyAsInt(object);
+        }
+
+        @Override
+        public Class<?> getColumnClass()
+        {
+            return Integer.class;
+        }
+
+        @Override
+        public TableColumnType getType()
+        {
+            return null;
+        }
+
+        @Override
+        public String getHtmlValue(Integer object)
+        {
+            return String.valueOf(getValue(object));
+        }
+    }
+
+    @Test
+    public void testCellsComputedOnDemand()
+    {
+        final CountingColumn single = new CountingColumn("single", 1);
+        final CountingColumn double_ = new CountingColumn("double", 2);
+        final RaplaTableModel<Integer> model = new RaplaTableModel<>(Arrays.asList(single, double_));
+        final List<Integer> rows = new ArrayList<>();
+        final int rowCount = RaplaTableModel.WINDOW_SIZE * (RaplaTableModel.MAX_CACHED_WINDOWS + 10);
+        for (int i = 0; i < rowCount; i++)
+        {
+            rows.add(i);
+        }
+        model.setObjects(rows);
+        Assert.assertEquals(rowCount, model.getRowCount());
+        Assert.assertEquals(0, single.evaluations.get());
+
+        Assert.assertEquals(200, model.getValueAt(100, 1));
+        // only the requested cell is computed
+        Assert.assertEquals(0, single.evaluations.get());
+        Assert.assertEquals(1, double_.evaluations.get());
+        Assert.assertEquals(101, model.getValueAt(101, 0));
+        Assert.assertEquals(202, model.getValueAt(101, 1));
+        Assert.assertEquals(200, model.getValueAt(100, 1));
+        Assert.assertEquals(2, double_.evaluations.get());
+        Assert.assertArrayEquals(new Object[] { 5, 10 }, model.getRowData(5));
+        Assert.assertEquals(Integer.valueOf(5), model.getObjectAt(5));
+
+        // the least recently used windows are removed from the cache
+        for (int row = 0; row < rowCount; row++)
+        {
+            Assert.assertEquals(row, model.getValueAt(row, 0));
+        }
+        final int evaluations = single.evaluations.get();
+        Assert.assertEquals(rowCount, evaluations);
+        model.getValueAt(rowCount - 1, 0);
+        Assert.assertEquals(evaluations, single.evaluations.get());
+        model.getValueAt(0, 0);
+        Assert.assertEquals(evaluations + 1, single.evaluations.get());
+
+        // new objects clear the cache
+        model.setObjects(Arrays.asList(7, 8));
+        Assert.assertEquals(2, model.getRowCount());
+        Assert.assertEquals(16, model.getValueAt(1, 1));
+        Assert.assertArrayEquals(new Object[][] { { 7, 14 }, { 8, 16 } }, model.getAllRows());
+    }
+
+    @Test
+    public void testSortedScreenComputedOnce()
+    {
+        final int rowCount = RaplaTableModel.WINDOW_SIZE * RaplaTableModel.MAX_CACHED_WINDOWS;
+        // the sorting column spreads the first rows of the sorted view over many windows of the model
+        final CountingColumn sortColumn = new CountingColumn("sort", value -> (value * 7919) % rowCount);
+        final List<CountingColumn> columns = new ArrayList<>();
+        columns.add(sortColumn);
+        for (int i = 1; i < 8; i++)
+        {
+            columns.add(new CountingColumn("column" + i, i));
+        }
+        final RaplaTableModel<Integer> model = new RaplaTableModel<>(new ArrayList<>(columns));
+        final TableSorter sorter = new TableSorter(new RaplaSwingTableModel(model));
+        final List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++)
+        {
+            rows.add(i);
+        }
+        model.setObjects(rows);
+        sorter.setSortingStatus(0, TableSorter.ASCENDING);
+        Assert.assertEquals(0, sorter.getValueAt(0, 0));
+        Assert.assertEquals(rowCount, sortColumn.evaluations.get());
+        for (CountingColumn column : columns.subList(1, columns.size()))
+        {
+            Assert.assertEquals(0, column.evaluations.get());
+        }
+
+        // paint one screen twice
+        final int screenRows = 40;
+        for (int paint = 0; paint < 2; paint++)
+        {
+            for (int row = 0; row < screenRows; row++)
+            {
+                final int modelRow = sorter.modelIndex(row);
+                Assert.assertEquals(row, sorter.getValueAt(row, 0));
+                for (int column = 1; column < columns.size(); column++)
+                {
+                    Assert.assertEquals(modelRow * column, sorter.getValueAt(row, column));
+                }
+            }
+        }
+        // the keys of the sort are used for painting and each other cell is computed once
+        Assert.assertEquals(rowCount, sortColumn.evaluations.get());
+        for (CountingColumn column : columns.subList(1, columns.size()))
+        {
+            Assert.assertEquals(screenRows, column.evaluations.get());
+        }
+    }
+}
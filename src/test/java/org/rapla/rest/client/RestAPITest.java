@@ -10,10 +10,18 @@ import org.rapla.entities.configuration.internal.RaplaMapImpl;
 import org.rapla.rest.JsonParserWrapper;
 import org.rapla.rest.client.swing.HTTPConnector;
 import org.rapla.rest.client.swing.JsonRemoteConnector;
+import org.rapla.storage.dbrm.LoginCredentials;
+import org.rapla.storage.dbrm.LoginTokens;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 @RunWith(JUnit4.class)
 public class RestAPITest extends AbstractTestWithServer {
@@ -84,8 +92,74 @@ public class RestAPITest extends AbstractTestWithServer {
 
     }
 
+    @Test
+    public void testCompression() throws Exception
+    {
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        URL loginUrl = new URL("http://localhost:"+getPort()+"/rapla/login");
+        final String credentials = gson.toJson(new LoginCredentials("homer", "duffs", null));
+        final String accessToken = gson.fromJson(request("POST", loginUrl, credentials, null, null, false), LoginTokens.class).getAccessToken();
+        TestCase.assertNotNull(accessToken);
 
+        URL url = new URL("http://localhost:"+getPort()+"/rapla/dynamictypes?classificationType=resource");
+        final String uncompressed = request("GET", url, null, accessToken, null, false);
+        TestCase.assertTrue(uncompressed.startsWith("["));
+        TestCase.assertEquals(uncompressed, request("GET", url, null, accessToken, "gzip", true));
+        TestCase.assertEquals(uncompressed, request("GET", url, null, accessToken, "gzip;q=0, identity", false));
+        // the connector of the client requests gzip and unpacks the response
+        final JsonRemoteConnector.CallResult result = new HTTPJsonConnector().sendCallWithString("GET", url, null, accessToken, "application/json", new HashMap<>());
+        TestCase.assertEquals(uncompressed, result.getResult());
+    }
 
-
-
+    /** sends the request and checks the content encoding of the response
+     * @return the uncompressed response */
+    private String request(String method, URL url, String body, String accessToken, String acceptEncoding, boolean compressed) throws Exception
+    {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        conn.setRequestProperty("Accept", "application/json");
+        if (accessToken != null)
+        {
+            conn.setRequestProperty("Authorization", "Bearer " + accessToken);
+        }
+        if (acceptEncoding != null)
+        {
+            conn.setRequestProperty("Accept-Encoding", acceptEncoding);
+        }
+        else
+        {
+            // HttpURLConnection does not send the header by default, but a proxy could add it
+            conn.setRequestProperty("Accept-Encoding", "identity");
+        }
+        if (body != null)
+        {
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream())
+            {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        TestCase.assertEquals(200, conn.getResponseCode());
+        final String contentEncoding = conn.getContentEncoding();
+        InputStream in = conn.getInputStream();
+        if (compressed)
+        {
+            TestCase.assertEquals("gzip", contentEncoding);
+            in = new GZIPInputStream(in);
+        }
+        else
+        {
+            TestCase.assertNull(contentEncoding);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = in.read(buf)) != -1)
+        {
+            out.write(buf, 0, len);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
 }
@@ -11,6 +11,7 @@ import org.rapla.AppointmentFormaterImpl;
 import org.rapla.RaplaResources;
 import org.rapla.components.i18n.internal.AbstractBundleManager;
 import org.rapla.components.i18n.server.ServerBundleManager;
+import org.rapla.components.util.DateTools;
 import org.rapla.entities.Entity;
 import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
@@ -19,6 +20,7 @@ import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.dynamictype.Classification;
 import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
 import org.rapla.framework.internal.RaplaLocaleImpl;
@@ -35,6 +37,9 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @RunWith(JUnit4.class)
 public class TestUpdateDataManager
@@ -77,6 +82,111 @@ public class TestUpdateDataManager
         Assert.assertTrue(updateEvent.getStoreObjects().isEmpty());
     }
 
+    @Test
+    public void testChangesSharedBetweenUsers() throws Exception
+    {
+        final User readUser = facade.getUser("monty");
+        final User writeUser = facade.getUser("homer");
+        final Date lastSynced = updateManager.createUpdateEvent(readUser, new Date()).getLastValidated();
+        Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification();
+        final Allocatable newResource = facade.newAllocatable(classification, writeUser);
+        facade.store(newResource);
+        final UpdateResult readResult = operator.getUpdateResult(lastSynced, readUser);
+        final UpdateResult writeResult = operator.getUpdateResult(lastSynced, writeUser);
+        final ReferenceInfo<Allocatable> reference = newResource.getReference();
+        Assert.assertTrue(readResult.getIds(UpdateResult.Add.class).contains(reference));
+        Assert.assertTrue(writeResult.getIds(UpdateResult.Add.class).contains(reference));
+        // the changes are calculated once and then shared between the users
+        Assert.assertSame(readResult.getLastKnown(reference), writeResult.getLastKnown(reference));
+        Assert.assertEquals(readResult.getUntil(), writeResult.getUntil());
+    }
+
+    @Test
+    public void testConflictsSyncedDuringCommit() throws Exception
+    {
+        final User writeUser = facade.getUser("homer");
+        Classification resourceClassification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification();
+        final Allocatable allocatable = facade.newAllocatable(resourceClassification, writeUser);
+        facade.store(allocatable);
+        final Date initialSync = operator.getUpdateResult(new Date(), null).getUntil();
+        final Set<ReferenceInfo> syncedConflicts = ConcurrentHashMap.newKeySet();
+        final AtomicReference<Date> lastSynced = new AtomicReference<>(initialSync);
+        final AtomicBoolean committing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> syncError = new AtomicReference<>();
+        // the client synchronizes all the time, so some syncs happen while the conflicts of a commit are calculated
+        final Thread syncThread = new Thread(() -> {
+            try
+            {
+                while (committing.get())
+                {
+                    syncConflicts(lastSynced, syncedConflicts);
+                }
+            }
+            catch (Throwable ex)
+            {
+                syncError.set(ex);
+            }
+        });
+        syncThread.start();
+        try
+        {
+            final Date start = DateTools.addDays(DateTools.cutDate(new Date()), 1);
+            final Date end = new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR);
+            for (int i = 0; i < 20; i++)
+            {
+                // each event conflicts with all the events before
+                Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification();
+                final Reservation reservation = facade.newReservation(classification, writeUser);
+                reservation.getClassification().setValue("name", "conflictingReservation" + i);
+                reservation.addAppointment(facade.newAppointmentWithUser(start, end, writeUser));
+                reservation.addAllocatable(allocatable);
+                facade.store(reservation);
+            }
+        }
+        finally
+        {
+            committing.set(false);
+            syncThread.join();
+        }
+        Assert.assertNull(syncError.get());
+        syncConflicts(lastSynced, syncedConflicts);
+        final Collection<Conflict> conflicts = RaplaTestCase.waitForWithRaplaException(operator.getConflicts((User) null), 10000);
+        Set<ReferenceInfo> expected = new HashSet<>();
+        for (Conflict conflict : conflicts)
+        {
+            if (conflict.getAllocatableId().equals(allocatable.getReference()))
+            {
+                expected.add(conflict.getReference());
+            }
+        }
+        Assert.assertEquals(20 * 19 / 2, expected.size());
+        Assert.assertEquals(expected, syncedConflicts);
+    }
+
+    private void syncConflicts(AtomicReference<Date> lastSynced, Set<ReferenceInfo> syncedConflicts) throws RaplaException
+    {
+        final UpdateResult updateResult = operator.getUpdateResult(lastSynced.get(), null);
+        for (ReferenceInfo reference : updateResult.getIds(UpdateResult.Add.class))
+        {
+            if (reference.getType() == Conflict.class)
+            {
+                syncedConflicts.add(reference);
+            }
+        }
+        for (ReferenceInfo reference : updateResult.getIds(UpdateResult.Change.class))
+        {
+            if (reference.getType() == Conflict.class)
+            {
+                syncedConflicts.add(reference);
+            }
+        }
+        for (ReferenceInfo reference : updateResult.getIds(UpdateResult.Remove.class))
+        {
+            syncedConflicts.remove(reference);
+        }
+        lastSynced.set(updateResult.getUntil());
+    }
+
     @Test
     @Ignore
     public void testInsertChangeAndDeleteSimple() throws Exception
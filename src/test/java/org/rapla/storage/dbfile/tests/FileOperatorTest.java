@@ -17,10 +17,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.entities.storage.ImportExportDirections;
 import org.rapla.entities.storage.ImportExportEntity;
 import org.rapla.entities.storage.internal.ImportExportEntityImpl;
 import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.RaplaException;
 import org.rapla.logger.Logger;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.dbfile.FileOperator;
@@ -31,17 +35,23 @@ import org.xml.sax.InputSource;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(JUnit4.class)
 public class FileOperatorTest extends AbstractOperatorTest {
@@ -164,9 +174,128 @@ public class FileOperatorTest extends AbstractOperatorTest {
             Assert.assertEquals(0, importExportEntities.size());
         }
     }
-}
-
 
+    @Test
+    public void testJournal() throws Exception
+    {
+        final String resolvedPath = RaplaTestCase.getTestDataFile("/testdefault.xml");
+        final MyFileIO fileIO = new MyFileIO(resolvedPath, logger);
+        final File dataFile = new File(Files.createTempDirectory("rapla").toFile(), "data.xml");
+        final RaplaFacade facade = RaplaTestCase.createFacadeWithFile(logger, dataFile.getPath(), fileIO);
+        final FileOperator operator = (FileOperator) facade.getOperator();
+        operator.disconnect();
+        operator.setJournalEnabled(true);
+        operator.connect();
+        final byte[] dataBefore = fileIO.data;
+        final User user = facade.getUsers()[0];
+        final Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        facade.store(resource);
+        // only the journal is written on store
+        Assert.assertSame(dataBefore, fileIO.data);
+        final File journalFile = new File(dataFile.getPath() + ".journal");
+        Assert.assertTrue(journalFile.exists());
+        final byte[] journal = Files.readAllBytes(journalFile.toPath());
+        // disconnect writes the data file and removes the journal
+        operator.disconnect();
+        Assert.assertNotSame(dataBefore, fileIO.data);
+        Assert.assertFalse(journalFile.exists());
+        // simulate a stop before the journal was written to the data file
+        fileIO.data = dataBefore;
+        Files.write(journalFile.toPath(), journal);
+        operator.connect();
+        Assert.assertNotNull(operator.tryResolve(resource.getReference()));
+        operator.disconnect();
+    }
 
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        final File dataFile = new File(Files.createTempDirectory("rapla").toFile(), "data.xml");
+        Files.copy(Paths.get(RaplaTestCase.getTestDataFile("/testdefault.xml")), dataFile.toPath());
+        final RaplaFacade facade = RaplaTestCase.createFacadeWithFile(logger, dataFile.getPath(), new FileOperator.DefaultFileIO());
+        final FileOperator operator = (FileOperator) facade.getOperator();
+        operator.disconnect();
+        operator.setSnapshotEnabled(true);
+        // the first connect reads the xml and writes the snapshot
+        operator.connect();
+        final File snapshotFile = new File(dataFile.getPath() + ".snapshot");
+        Assert.assertTrue(snapshotFile.exists());
+        final User user = facade.getUsers()[0];
+        final Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        facade.store(resource);
+        // the snapshot is read and then replaced by the next store, which fails on Windows if the file is still mapped
+        operator.disconnect();
+        operator.connect();
+        final Allocatable secondResource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        facade.store(secondResource);
+        final int entityCount = operator.getVisibleEntities(null).size();
+        operator.disconnect();
+        // replace the xml with garbage of the same size and time, so the next connect only works with the snapshot
+        final long lastModified = dataFile.lastModified();
+        final byte[] garbage = new byte[(int) dataFile.length()];
+        Arrays.fill(garbage, (byte) ' ');
+        Files.write(dataFile.toPath(), garbage);
+        Assert.assertTrue(dataFile.setLastModified(lastModified));
+        operator.connect();
+        Assert.assertNotNull(operator.tryResolve(resource.getReference()));
+        Assert.assertNotNull(operator.tryResolve(secondResource.getReference()));
+        Assert.assertEquals(entityCount, operator.getVisibleEntities(null).size());
+        operator.disconnect();
+        // a changed data file makes the snapshot stale
+        Assert.assertTrue(dataFile.setLastModified(lastModified + 10000));
+        try
+        {
+            operator.connect();
+            Assert.fail("the garbage data file should be read");
+        }
+        catch (RaplaException ex)
+        {
+            // expected
+        }
+    }
 
+    @Test
+    public void testWaitForUpdate() throws Exception
+    {
+        final FileOperator operator = (FileOperator) facade.getOperator();
+        final Date since = operator.getLastRefreshed();
+        // nothing changed, so the wait times out
+        Assert.assertFalse(operator.waitForUpdate(since, 10));
+        final CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() ->
+        {
+            try
+            {
+                return operator.waitForUpdate(since, 10000);
+            }
+            catch (RaplaException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        });
+        final User user = facade.getUsers()[0];
+        final Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        facade.store(resource);
+        Assert.assertTrue(waiting.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(operator.waitForUpdate(since, 0));
+        Assert.assertFalse(operator.waitForUpdate(operator.getLastRefreshed(), 10));
+    }
 
+    @Test
+    public void testUnchangedUntil() throws Exception
+    {
+        final FileOperator operator = (FileOperator) facade.getOperator();
+        final Date since = operator.getLastRefreshed();
+        final Date unchangedUntil = operator.getUnchangedUntil(since);
+        Assert.assertNotNull(unchangedUntil);
+        Assert.assertFalse(unchangedUntil.before(since));
+        final User user = facade.getUsers()[0];
+        final Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+        facade.store(resource);
+        // the change is visible, so the client must ask for it
+        Assert.assertNull(operator.getUnchangedUntil(since));
+        final Date afterChange = operator.getUpdateResult(since).getUntil();
+        Assert.assertNotNull(operator.getUnchangedUntil(afterChange));
+        // too old to tell
+        Assert.assertNull(operator.getUnchangedUntil(new Date(operator.getConnectStart().getTime() - 1)));
+    }
+}
@@ -58,17 +58,22 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 @RunWith(JUnit4.class)
 public class SQLOperatorTest extends AbstractOperatorTest
@@ -219,6 +224,104 @@ public class SQLOperatorTest extends AbstractOperatorTest
 
     }
 
+    @Test
+    public void testParallelLoad() throws Exception
+    {
+        RaplaFacade facade = getFacade();
+        final User user = facade.getUser("homer");
+        final Allocatable[] allocatables = facade.getAllocatables();
+        // a reservation with exceptions and an allocation restricted to one appointment
+        Reservation event = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        event.getClassification().setValue("name", "parallel load");
+        Date start = new Date(DateTools.cutDate(new Date()).getTime() + DateTools.MILLISECONDS_PER_HOUR * 10);
+        Date end = new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR);
+        Appointment repeating = facade.newAppointmentWithUser(start, end, user);
+        repeating.setRepeatingEnabled(true);
+        repeating.getRepeating().setType(RepeatingType.DAILY);
+        repeating.getRepeating().setNumber(10);
+        repeating.getRepeating().addException(new Date(start.getTime() + DateTools.MILLISECONDS_PER_DAY * 2));
+        repeating.getRepeating().addException(new Date(start.getTime() + DateTools.MILLISECONDS_PER_DAY * 4));
+        Appointment single = facade.newAppointmentWithUser(new Date(start.getTime() + DateTools.MILLISECONDS_PER_WEEK * 3),
+                new Date(end.getTime() + DateTools.MILLISECONDS_PER_WEEK * 3), user);
+        event.addAppointment(repeating);
+        event.addAppointment(single);
+        event.addAllocatable(allocatables[0]);
+        event.addAllocatable(allocatables[1]);
+        event.setRestriction(allocatables[1], new Appointment[] { single });
+        facade.storeAndRemove(new Entity[] { event }, Entity.ENTITY_ARRAY, user);
+
+        DBOperator operator = (DBOperator) getOperator();
+        operator.disconnect();
+        operator.connect();
+        final Map<String, String> sequential = getReservationSnapshot(operator);
+        Assert.assertTrue(sequential.size() > 1);
+        final String expected = sequential.get(event.getId());
+        Assert.assertNotNull(expected);
+        Assert.assertTrue(expected, expected.contains("exceptions=2"));
+        operator.disconnect();
+        operator.setParallelLoad(true);
+        try
+        {
+            operator.connect();
+            final Map<String, String> parallel = getReservationSnapshot(operator);
+            Assert.assertEquals(sequential, parallel);
+            // the global lock of the load is released, so the next write does not wait for it
+            final long storeStart = System.currentTimeMillis();
+            final Reservation edited = facade.edit(facade.getPersistant(event));
+            edited.getClassification().setValue("name", "parallel load changed");
+            facade.store(edited);
+            Assert.assertTrue(System.currentTimeMillis() - storeStart < 10000);
+        }
+        finally
+        {
+            operator.setParallelLoad(false);
+        }
+    }
+
+    /** maps the id of each reservation to a description of its appointments with their exceptions and allocated resources */
+    private Map<String, String> getReservationSnapshot(DBOperator operator) throws RaplaException
+    {
+        final Map<Allocatable, Collection<Appointment>> appointmentMap = RaplaTestCase
+                .waitForWithRaplaException(operator.queryAppointments(null, null, null, null, null, (Map<String, String>) null), 10000);
+        final Map<String, Reservation> reservations = new TreeMap<>();
+        for (Collection<Appointment> appointments : appointmentMap.values())
+        {
+            for (Appointment appointment : appointments)
+            {
+                final Reservation reservation = appointment.getReservation();
+                reservations.put(reservation.getId(), reservation);
+            }
+        }
+        final Map<String, String> result = new TreeMap<>();
+        for (Reservation reservation : reservations.values())
+        {
+            final StringBuilder buf = new StringBuilder();
+            final Appointment[] appointments = reservation.getAppointments();
+            buf.append("appointments=").append(appointments.length);
+            final List<Appointment> sorted = new ArrayList<>(Arrays.asList(appointments));
+            sorted.sort(Comparator.comparing(Appointment::getId));
+            for (Appointment appointment : sorted)
+            {
+                buf.append(" [").append(appointment.getId()).append(' ').append(appointment.getStart().getTime()).append('-').append(appointment.getEnd().getTime());
+                final Repeating repeating = appointment.getRepeating();
+                if (repeating != null)
+                {
+                    final Date[] exceptions = repeating.getExceptions();
+                    buf.append(" exceptions=").append(exceptions.length);
+                    for (Date exception : exceptions)
+                    {
+                        buf.append(' ').append(exception.getTime());
+                    }
+                }
+                final Set<String> allocated = new TreeSet<>();
+                reservation.getAllocatablesFor(appointment).forEach(allocatable -> allocated.add(allocatable.getId()));
+                buf.append(" allocated=").append(allocated).append(']');
+            }
+            result.put(reservation.getId(), buf.toString());
+        }
+        return result;
+    }
+
     @Test
     public void testDynamicTypeChange() throws Exception
     {
@@ -701,6 +804,64 @@ public class SQLOperatorTest extends AbstractOperatorTest
         facade.storeAndRemove(new Entity[]{reservation}, Entity.ENTITY_ARRAY, user);
         facade.storeAndRemove(Entity.ENTITY_ARRAY, new Entity[]{reservation} , user);
     }
+    @Test
+    public void testSaveChangedAppointments() throws Exception
+    {
+        final User user = facade.getUser("homer");
+        final Allocatable[] allocatables = facade.getAllocatables();
+        final Date start = DateTools.cutDate(new Date());
+        Reservation reservation = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        reservation.getClassification().setValue("name", "changed appointments");
+        reservation.addAllocatable(allocatables[0]);
+        for (int i = 0; i < 3; i++)
+        {
+            final Date appointmentStart = new Date(start.getTime() + i * DateTools.MILLISECONDS_PER_DAY);
+            final Appointment appointment = facade.newAppointmentWithUser(appointmentStart, new Date(appointmentStart.getTime() + DateTools.MILLISECONDS_PER_HOUR), user);
+            appointment.setRepeatingEnabled(true);
+            appointment.getRepeating().setType(RepeatingType.WEEKLY);
+            appointment.getRepeating().setNumber(5);
+            reservation.addAppointment(appointment);
+        }
+        facade.store(reservation);
+
+        final Reservation editable = facade.edit(reservation);
+        final Appointment[] appointments = editable.getAppointments();
+        // unchanged
+        final Appointment keep = appointments[0];
+        // moved and with an exception
+        final Appointment moved = appointments[1];
+        moved.moveTo(new Date(moved.getStart().getTime() + DateTools.MILLISECONDS_PER_HOUR));
+        moved.getRepeating().addException(new Date(moved.getStart().getTime() + DateTools.MILLISECONDS_PER_WEEK));
+        editable.removeAppointment(appointments[2]);
+        final Date newStart = new Date(start.getTime() + 5 * DateTools.MILLISECONDS_PER_DAY);
+        final Appointment added = facade.newAppointmentWithUser(newStart, new Date(newStart.getTime() + DateTools.MILLISECONDS_PER_HOUR), user);
+        editable.addAppointment(added);
+        editable.addAllocatable(allocatables[1]);
+        editable.setRestriction(allocatables[1], new Appointment[] { added });
+        facade.store(editable);
+
+        final CachableStorageOperator operator = getOperator();
+        operator.disconnect();
+        operator.connect();
+        facade.refresh();
+        final Reservation loaded = facade.getOperator().resolve(reservation.getReference());
+        final Map<String, Appointment> loadedAppointments = new HashMap<>();
+        for (Appointment appointment : loaded.getAppointments())
+        {
+            loadedAppointments.put(appointment.getId(), appointment);
+        }
+        Assert.assertEquals(3, loadedAppointments.size());
+        Assert.assertFalse(loadedAppointments.containsKey(appointments[2].getId()));
+        Assert.assertEquals(keep.getStart(), loadedAppointments.get(keep.getId()).getStart());
+        final Appointment loadedMoved = loadedAppointments.get(moved.getId());
+        Assert.assertEquals(moved.getStart(), loadedMoved.getStart());
+        Assert.assertEquals(1, loadedMoved.getRepeating().getExceptions().length);
+        final Appointment loadedAdded = loadedAppointments.get(added.getId());
+        Assert.assertNotNull(loadedAdded);
+        Assert.assertEquals(1, loaded.getAllocatablesFor(loadedMoved).count());
+        Assert.assertEquals(2, loaded.getAllocatablesFor(loadedAdded).count());
+    }
+
     @Test
     @Ignore
     public void testChangesAddChangeDelete() throws Exception
@@ -0,0 +1,86 @@
+package org.rapla.storage.impl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.framework.RaplaException;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class DefaultRaplaLockTest
+{
+    private DefaultRaplaLock lock;
+
+    @Before
+    public void setUp()
+    {
+        lock = new DefaultRaplaLock(RaplaTestCase.initLoger());
+    }
+
+    @Test
+    public void readersAllowedDuringTask() throws Exception
+    {
+        final RaplaLock.WriteLock writeLock = lock.writeLock(getClass(), "test");
+        try
+        {
+            final Boolean readerFinished = lock.runWithReadersAllowed(getClass(), "task", () ->
+            {
+                // another thread can read while the task runs
+                final CompletableFuture<Boolean> reader = CompletableFuture.supplyAsync(() ->
+                {
+                    try
+                    {
+                        lock.unlock(lock.readLock(getClass(), "reader", 1));
+                        return true;
+                    }
+                    catch (RaplaException ex)
+                    {
+                        return false;
+                    }
+                });
+                // but no other writer can get in
+                final CompletableFuture<Boolean> writer = CompletableFuture.supplyAsync(() -> lock.writeLockIfAvaliable(getClass(), "writer") != null);
+                try
+                {
+                    Assert.assertFalse(writer.get(10, TimeUnit.SECONDS));
+                    return reader.get(10, TimeUnit.SECONDS);
+                }
+                catch (Exception ex)
+                {
+                    throw new RaplaException(ex);
+                }
+            });
+            Assert.assertTrue(readerFinished);
+            // the write lock is held again after the task
+            Assert.assertFalse(CompletableFuture.supplyAsync(() -> lock.isWriteLocked()).get(10, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            lock.unlock(writeLock);
+        }
+        Assert.assertTrue(lock.isWriteLocked());
+    }
+
+    @Test
+    public void nestedWriteLockNotReleased() throws Exception
+    {
+        final RaplaLock.WriteLock outer = lock.writeLock(getClass(), "outer");
+        final RaplaLock.WriteLock inner = lock.writeLock(getClass(), "inner");
+        try
+        {
+            final Boolean readPossible = lock.runWithReadersAllowed(getClass(), "task",
+                    () -> CompletableFuture.supplyAsync(() -> lock.isReadLocked()).join());
+            Assert.assertFalse(readPossible);
+        }
+        finally
+        {
+            lock.unlock(inner);
+            lock.unlock(outer);
+        }
+    }
+}
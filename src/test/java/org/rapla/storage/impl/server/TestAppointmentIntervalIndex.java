@@ -0,0 +1,113 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class TestAppointmentIntervalIndex
+{
+    private AppointmentIntervalIndex index;
+    private final long day = DateTools.MILLISECONDS_PER_DAY;
+    private final long base = DateTools.toDate(2020, 1, 6);
+    private int idCount;
+
+    @Before
+    public void setUp()
+    {
+        index = new AppointmentIntervalIndex();
+    }
+
+    private AppointmentImpl createAppointment(long start, long end)
+    {
+        AppointmentImpl appointment = new AppointmentImpl(new Date(start), new Date(end));
+        appointment.setId("app_" + idCount++);
+        return appointment;
+    }
+
+    private Set<Appointment> query(long start, long end)
+    {
+        Set<Appointment> result = new HashSet<>();
+        index.collectCandidates(new Date(start), new Date(end), result);
+        return result;
+    }
+
+    @Test
+    public void candidates()
+    {
+        AppointmentImpl a1 = createAppointment(base, base + DateTools.MILLISECONDS_PER_HOUR);
+        AppointmentImpl a2 = createAppointment(base + day, base + day + DateTools.MILLISECONDS_PER_HOUR);
+        // a long appointment that starts before a2 and ends after it
+        AppointmentImpl a3 = createAppointment(base - day, base + 3 * day);
+        index.add(a1);
+        index.add(a2);
+        index.add(a3);
+        Assert.assertEquals(3, index.size());
+        Set<Appointment> result = query(base + day, base + 2 * day);
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.contains(a2));
+        Assert.assertTrue(result.contains(a3));
+        Assert.assertTrue(query(base + 4 * day, base + 5 * day).isEmpty());
+    }
+
+    @Test
+    public void repeatingForever()
+    {
+        AppointmentImpl a1 = createAppointment(base, base + DateTools.MILLISECONDS_PER_HOUR);
+        a1.setRepeatingEnabled(true);
+        a1.getRepeating().setType(RepeatingType.WEEKLY);
+        a1.getRepeating().setEnd(null);
+        Assert.assertNull(a1.getMaxEnd());
+        index.add(a1);
+        Assert.assertTrue(query(base + 100 * day, base + 101 * day).contains(a1));
+        Assert.assertTrue(query(base - 2 * day, base - day).isEmpty());
+        Assert.assertTrue(index.remove(a1));
+        Assert.assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void randomQueries()
+    {
+        Random random = new Random(42);
+        List<AppointmentImpl> appointments = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            long start = base + random.nextInt(1000) * DateTools.MILLISECONDS_PER_HOUR;
+            AppointmentImpl appointment = createAppointment(start, start + (1 + random.nextInt(48)) * DateTools.MILLISECONDS_PER_HOUR);
+            appointments.add(appointment);
+            index.add(appointment);
+        }
+        for (int i = 0; i < 300; i++)
+        {
+            Assert.assertTrue(index.remove(appointments.remove(random.nextInt(appointments.size()))));
+        }
+        Assert.assertEquals(appointments.size(), index.size());
+        for (int i = 0; i < 200; i++)
+        {
+            long start = base + random.nextInt(1100) * DateTools.MILLISECONDS_PER_HOUR;
+            long end = start + random.nextInt(100) * DateTools.MILLISECONDS_PER_HOUR;
+            Set<Appointment> expected = new HashSet<>();
+            for (AppointmentImpl appointment : appointments)
+            {
+                if (appointment.getStart().getTime() <= end && appointment.getMaxEnd().getTime() > start)
+                {
+                    expected.add(appointment);
+                }
+            }
+            Assert.assertEquals(expected, query(start, end));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.rapla.storage.impl.server;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.ConstraintIds;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class TestConflictFinder
+{
+    private RaplaFacade facade;
+    private LocalAbstractCachableOperator operator;
+    private User user;
+    private Date tomorrow;
+    private final Set<ReferenceInfo<Allocatable>> allocatableIds = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        JDBCDataSource datasource = new org.hsqldb.jdbc.JDBCDataSource();
+        datasource.setUrl("jdbc:hsqldb:target/test/rapla-hsqldb");
+        datasource.setUser("db_user");
+        datasource.setPassword("your_pwd");
+        facade = RaplaTestCase.createFacadeWithDatasource(logger, datasource, "/testdefault.xml");
+        operator = (LocalAbstractCachableOperator) facade.getOperator();
+        operator.setIncrementalConflictUpdate(true);
+        user = facade.getUser("homer");
+        tomorrow = DateTools.addDays(DateTools.cutDate(new Date()), 1);
+    }
+
+    /** the incremental update must find the same conflicts as a full recalculation after a reload */
+    @Test
+    public void incrementalUpdateEqualsFullRecalculation() throws Exception
+    {
+        final Allocatable room = newAllocatable(facade.getDynamicType("room").newClassification());
+        final DynamicType roomPartType = facade.newDynamicType(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE);
+        roomPartType.setKey("incrementalroompart");
+        roomPartType.getName().setName("en", "Roompart");
+        final Attribute belongsTo = facade.newAttribute(AttributeType.ALLOCATABLE);
+        belongsTo.setKey("belongsTo");
+        belongsTo.setConstraint(ConstraintIds.KEY_BELONGS_TO, "true");
+        roomPartType.addAttribute(belongsTo);
+        facade.store(roomPartType);
+        final Classification roomPartClassification = facade.getDynamicType("incrementalroompart").newClassification();
+        roomPartClassification.setValue("belongsTo", room);
+        final Allocatable roomPart = newAllocatable(roomPartClassification);
+
+        final Reservation onRoom = newReservation("on room", room, at(0, 10, 12));
+        final Reservation onRoomPart = newReservation("on room part", roomPart, at(0, 11, 13));
+        final Appointment daily = at(0, 9, 11);
+        daily.setRepeatingEnabled(true);
+        daily.getRepeating().setType(RepeatingType.DAILY);
+        daily.getRepeating().setNumber(5);
+        daily.getRepeating().addException(DateTools.addDays(tomorrow, 2));
+        final Reservation repeating = newReservation("repeating on room", room, daily, at(3, 12, 14));
+        Assert.assertFalse(getConflictIds().isEmpty());
+        assertConflictsEqualFullRecalculation();
+
+        // move the appointment on the room to a day with an exception of the repeating appointment
+        {
+            final Reservation edit = facade.edit(facade.getPersistant(onRoom));
+            edit.getAppointments()[0].move(at(2, 10, 12).getStart(), at(2, 10, 12).getEnd());
+            facade.store(edit);
+        }
+        assertConflictsEqualFullRecalculation();
+
+        // move the appointment on the room part, so it overlaps the repeating appointment on the room
+        {
+            final Reservation edit = facade.edit(facade.getPersistant(onRoomPart));
+            edit.getAppointments()[0].move(at(1, 8, 10).getStart(), at(1, 8, 10).getEnd());
+            facade.store(edit);
+        }
+        assertConflictsEqualFullRecalculation();
+
+        // add an event on the room part that overlaps the single appointment of the repeating reservation
+        newReservation("second on room part", roomPart, at(3, 13, 15));
+        assertConflictsEqualFullRecalculation();
+
+        // remove one appointment of a reservation
+        {
+            final Reservation edit = facade.edit(facade.getPersistant(repeating));
+            for (Appointment appointment : edit.getAppointments())
+            {
+                if (appointment.getRepeating() == null)
+                {
+                    edit.removeAppointment(appointment);
+                }
+            }
+            facade.store(edit);
+        }
+        assertConflictsEqualFullRecalculation();
+
+        // remove a complete reservation
+        facade.removeObjects(new Entity[] { facade.getPersistant(onRoomPart) });
+        assertConflictsEqualFullRecalculation();
+    }
+
+    /** compares the conflicts with the conflicts after a reload, which recalculates all conflicts */
+    private void assertConflictsEqualFullRecalculation() throws Exception
+    {
+        final Set<ReferenceInfo<Conflict>> incremental = getConflictIds();
+        operator.disconnect();
+        operator.connect();
+        Assert.assertEquals(incremental, getConflictIds());
+    }
+
+    private Set<ReferenceInfo<Conflict>> getConflictIds() throws Exception
+    {
+        final Collection<Conflict> conflicts = RaplaTestCase.waitForWithRaplaException(operator.getConflicts((User) null), 10000);
+        final Set<ReferenceInfo<Conflict>> result = new HashSet<>();
+        for (Conflict conflict : conflicts)
+        {
+            if (allocatableIds.contains(conflict.getAllocatableId()))
+            {
+                result.add(conflict.getReference());
+            }
+        }
+        return result;
+    }
+
+    private Appointment at(int day, int startHour, int endHour) throws Exception
+    {
+        final Date date = DateTools.addDays(tomorrow, day);
+        return facade.newAppointmentWithUser(new Date(date.getTime() + startHour * DateTools.MILLISECONDS_PER_HOUR),
+                new Date(date.getTime() + endHour * DateTools.MILLISECONDS_PER_HOUR), user);
+    }
+
+    private Allocatable newAllocatable(Classification classification) throws Exception
+    {
+        final Allocatable allocatable = facade.newAllocatable(classification, user);
+        facade.store(allocatable);
+        allocatableIds.add(allocatable.getReference());
+        return allocatable;
+    }
+
+    private Reservation newReservation(String name, Allocatable allocatable, Appointment... appointments) throws Exception
+    {
+        final Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification();
+        final Reservation reservation = facade.newReservation(classification, user);
+        reservation.getClassification().setValue("name", name);
+        for (Appointment appointment : appointments)
+        {
+            reservation.addAppointment(appointment);
+        }
+        reservation.addAllocatable(allocatable);
+        facade.store(reservation);
+        return reservation;
+    }
+}
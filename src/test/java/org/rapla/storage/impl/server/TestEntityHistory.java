@@ -5,10 +5,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.internal.UserImpl;
 import org.rapla.entities.storage.ReferenceInfo;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 @RunWith(JUnit4.class)
 public class TestEntityHistory
@@ -54,4 +59,96 @@ public class TestEntityHistory
         entityHistory.addHistoryEntry(ref,json, timestamp, false);
         Assert.assertEquals(entityHistory.getHistoryList(ref)+"", 1, entityHistory.getHistoryList(ref).size());
     }
+
+    private List<UserImpl> createUsers(Date timestamp, int count)
+    {
+        final List<UserImpl> users = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            UserImpl user = new UserImpl(timestamp, timestamp);
+            user.setId("user_" + i);
+            user.setUsername("user" + i);
+            users.add(user);
+        }
+        return users;
+    }
+
+    @Test
+    public void addHistoryEntries() throws Exception
+    {
+        final Date timestamp = new Date();
+        final List<UserImpl> users = createUsers(timestamp, 100);
+        entityHistory.addHistoryEntries(users);
+        for (UserImpl user : users)
+        {
+            final User entity = (User) entityHistory.get(user.getReference(), new Date(timestamp.getTime() + 1));
+            Assert.assertEquals(user.getUsername(), entity.getUsername());
+        }
+    }
+
+    @Test
+    public void sharedEntities() throws Exception
+    {
+        final Date timestamp = new Date();
+        final UserImpl user = createUsers(timestamp, 1).get(0);
+        final EntityHistory.HistoryEntry entry = entityHistory.addHistoryEntry(user, timestamp, false);
+        final Date since = new Date(timestamp.getTime() + 1);
+        // the parsed version is cached for the next update
+        final Entity entity = entityHistory.get(user.getReference(), since);
+        Assert.assertSame(entity, entityHistory.get(user.getReference(), since));
+        Assert.assertSame(entity, entityHistory.getSharedEntity(entry));
+        // but getEntity returns a new one that can be changed
+        Assert.assertNotSame(entity, entityHistory.getEntity(entry));
+    }
+
+    @Test
+    public void overflow() throws Exception
+    {
+        final Date timestamp = new Date();
+        final List<UserImpl> users = createUsers(timestamp, 100);
+        entityHistory.addHistoryEntries(users);
+        final long memoryUsed = entityHistory.getMemoryUsed();
+        Assert.assertTrue(memoryUsed > 0);
+        // half of the history is moved to disk
+        entityHistory.setMemoryBudget(memoryUsed / 2);
+        Assert.assertTrue(entityHistory.getMemoryUsed() <= memoryUsed / 2);
+        final UserImpl newVersion = (UserImpl) users.get(0).clone();
+        newVersion.setUsername("changed");
+        entityHistory.addHistoryEntry(newVersion, new Date(timestamp.getTime() + 10), false);
+        Assert.assertTrue(entityHistory.getMemoryUsed() <= memoryUsed / 2);
+        for (UserImpl user : users)
+        {
+            final User entity = (User) entityHistory.get(user.getReference(), new Date(timestamp.getTime() + 1));
+            Assert.assertEquals(user.getUsername(), entity.getUsername());
+        }
+        Assert.assertEquals("changed", ((User) entityHistory.get(newVersion.getReference(), new Date(timestamp.getTime() + 20))).getUsername());
+        entityHistory.clear();
+        Assert.assertEquals(0, entityHistory.getMemoryUsed());
+    }
+
+    @Test
+    public void removedEntriesAreFreed() throws Exception
+    {
+        final Date timestamp = new Date();
+        final List<UserImpl> users = createUsers(timestamp, 10);
+        entityHistory.addHistoryEntries(users);
+        // without a budget the entries are not tracked for the overflow
+        Assert.assertEquals(0, entityHistory.getEntriesInMemoryCount());
+        entityHistory.setMemoryBudget(Long.MAX_VALUE - 1);
+        Assert.assertEquals(10, entityHistory.getEntriesInMemoryCount());
+        for (UserImpl user : users)
+        {
+            final UserImpl newVersion = (UserImpl) user.clone();
+            newVersion.setUsername("changed" + user.getUsername());
+            entityHistory.addHistoryEntry(newVersion, new Date(timestamp.getTime() + 10), false);
+        }
+        final long memoryUsed = entityHistory.getMemoryUsed();
+        Assert.assertEquals(20, entityHistory.getEntriesInMemoryCount());
+        // the removed first versions are no longer tracked and their data is freed
+        entityHistory.removeUnneeded(new Date(timestamp.getTime() + 20));
+        Assert.assertEquals(10, entityHistory.getEntriesInMemoryCount());
+        Assert.assertTrue(entityHistory.getMemoryUsed() < memoryUsed);
+        entityHistory.setMemoryBudget(Long.MAX_VALUE);
+        Assert.assertEquals(0, entityHistory.getEntriesInMemoryCount());
+    }
 }
@@ -29,9 +29,14 @@ import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
 import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
 import org.rapla.test.util.RaplaTestCase;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 public abstract class AbstractOperatorTest  {
 
@@ -84,6 +89,47 @@ public abstract class AbstractOperatorTest  {
         }
     }
 
+	@Test
+	public void testParallelQuery() throws RaplaException {
+		RaplaFacade facade = getFacade();
+		final User user = facade.getUsers()[0];
+		List<Entity> toStore = new ArrayList<>();
+		Reservation r = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+		r.getClassification().setValue("name","parallel");
+		r.addAppointment(facade.newAppointmentWithUser( new Date(), new Date(), user));
+		for (int i = 0; i < 40; i++)
+		{
+			Allocatable resource = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), user);
+			resource.getClassification().setValue("name", "parallel" + i);
+			toStore.add(resource);
+			r.addAllocatable(resource);
+		}
+		toStore.add(r);
+		facade.storeAndRemove(toStore.toArray(Entity.ENTITY_ARRAY), Entity.ENTITY_ARRAY, user);
+		LocalAbstractCachableOperator operator = (LocalAbstractCachableOperator) getOperator();
+		List<Allocatable> allocatables = new ArrayList<>();
+		for (Allocatable allocatable : facade.getAllocatables())
+		{
+			allocatables.add(allocatable);
+		}
+		Map<Allocatable, Collection<Appointment>> sequential = RaplaTestCase.waitForWithRaplaException(operator.queryAppointments(null, allocatables, null, null, null, (Map<String, String>) null), 10000);
+		operator.setQueryParallelism(4);
+		try
+		{
+			Map<Allocatable, Collection<Appointment>> parallel = RaplaTestCase.waitForWithRaplaException(operator.queryAppointments(null, allocatables, null, null, null, (Map<String, String>) null), 10000);
+			Assert.assertEquals(new ArrayList<>(sequential.keySet()), new ArrayList<>(parallel.keySet()));
+			for (Allocatable allocatable : sequential.keySet())
+			{
+				Assert.assertEquals(new ArrayList<>(sequential.get(allocatable)), new ArrayList<>(parallel.get(allocatable)));
+			}
+			Assert.assertTrue(parallel.size() >= 40);
+		}
+		finally
+		{
+			operator.setQueryParallelism(1);
+		}
+	}
+
 	@Test
     public void testUserStore() throws RaplaException {
 		RaplaFacade facade = getFacade();
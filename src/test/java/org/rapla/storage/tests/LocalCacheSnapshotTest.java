@@ -0,0 +1,155 @@
+package org.rapla.storage.tests;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Category;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.internal.CategoryImpl;
+import org.rapla.entities.internal.UserImpl;
+import org.rapla.storage.LocalCache;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class LocalCacheSnapshotTest
+{
+    private LocalCache cache;
+
+    @Before
+    public void setUp()
+    {
+        cache = new LocalCache(null);
+    }
+
+    private UserImpl createUser(int intId)
+    {
+        Date today = new Date();
+        UserImpl user = new UserImpl(today, today);
+        user.setId("user_" + intId);
+        user.setUsername("user" + intId);
+        return user;
+    }
+
+    @Test
+    public void changesOnlyVisibleAfterPublish()
+    {
+        UserImpl user1 = createUser(1);
+        cache.put(user1);
+        Assert.assertFalse(cache.isSnapshotUpToDate());
+        LocalCache.Snapshot snapshot = cache.publishSnapshot();
+        Assert.assertTrue(cache.isSnapshotUpToDate());
+        Assert.assertSame(user1, snapshot.tryResolve("user_1", User.class));
+
+        UserImpl user2 = createUser(2);
+        cache.put(user2);
+        cache.removeWithId(user1.getReference());
+        Assert.assertFalse(cache.isSnapshotUpToDate());
+        // the published snapshot is not changed by the writer
+        Assert.assertSame(snapshot, cache.getSnapshot());
+        Assert.assertSame(user1, snapshot.tryResolve("user_1", User.class));
+        Assert.assertNull(snapshot.tryResolve("user_2", User.class));
+        Assert.assertEquals(1, snapshot.getUsers().size());
+
+        LocalCache.Snapshot newSnapshot = cache.publishSnapshot();
+        Assert.assertNull(newSnapshot.tryResolve("user_1", User.class));
+        Assert.assertSame(user2, newSnapshot.tryResolve("user_2", User.class));
+        Assert.assertEquals(1, newSnapshot.getUsers().size());
+        Assert.assertSame(user2, newSnapshot.getUsers().iterator().next());
+    }
+
+    @Test
+    public void manyChanges()
+    {
+        List<UserImpl> users = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+        {
+            UserImpl user = createUser(i);
+            users.add(user);
+            cache.put(user);
+            // publish in between, so the changes are merged and the base is copied from time to time
+            if (i % 100 == 0)
+            {
+                cache.publishSnapshot();
+            }
+        }
+        for (int i = 0; i < 3000; i += 2)
+        {
+            cache.removeWithId(users.get(i).getReference());
+        }
+        LocalCache.Snapshot snapshot = cache.publishSnapshot();
+        for (int i = 0; i < 3000; i++)
+        {
+            User resolved = snapshot.tryResolve("user_" + i, User.class);
+            Assert.assertSame(i % 2 == 0 ? null : users.get(i), resolved);
+        }
+        Assert.assertEquals(1500, snapshot.getUsers().size());
+        cache.clearAll();
+        Assert.assertNull(cache.publishSnapshot().tryResolve("user_1", User.class));
+    }
+
+    @Test
+    public void visibleEntities()
+    {
+        CategoryImpl superCategory = new CategoryImpl(new Date(), new Date());
+        superCategory.setId(Category.SUPER_CATEGORY_REF.getId());
+        cache.put(superCategory);
+        UserImpl admin1 = createUser(1);
+        admin1.setAdmin(true);
+        cache.put(admin1);
+        UserImpl admin2 = createUser(2);
+        admin2.setAdmin(true);
+        cache.put(admin2);
+        UserImpl user3 = createUser(3);
+        cache.put(user3);
+        LocalCache.Snapshot snapshot = cache.publishSnapshot();
+
+        // both admins share the same permission class but each one gets the own result list
+        List<Entity> visibleForAdmin1 = snapshot.getVisibleEntities(admin1);
+        List<Entity> visibleForAdmin2 = snapshot.getVisibleEntities(admin2);
+        Assert.assertNotSame(visibleForAdmin1, visibleForAdmin2);
+        Assert.assertEquals(4, visibleForAdmin1.size());
+        Assert.assertEquals(new HashSet<>(visibleForAdmin1), new HashSet<>(visibleForAdmin2));
+        Assert.assertEquals(new HashSet<>(cache.getVisibleEntities(admin1)), new HashSet<>(visibleForAdmin1));
+
+        // a user without groups can only see itself
+        List<Entity> visibleForUser3 = snapshot.getVisibleEntities(user3);
+        Assert.assertEquals(2, visibleForUser3.size());
+        Assert.assertTrue(visibleForUser3.contains(user3));
+        Assert.assertTrue(visibleForUser3.contains(superCategory));
+        Assert.assertEquals(new HashSet<>(cache.getVisibleEntities(user3)), new HashSet<>(visibleForUser3));
+    }
+
+    @Test
+    public void idsShared()
+    {
+        CategoryImpl group = new CategoryImpl(new Date(), new Date());
+        group.setId("group_1");
+        cache.put(group);
+        UserImpl user = createUser(1);
+        // a copy of the id like the one read from a file or the database
+        user.putId("groups", new String("group_1"));
+        Assert.assertNotSame(group.getId(), user.getIds("groups").iterator().next());
+        cache.put(user);
+        Assert.assertSame(group.getId(), user.getIds("groups").iterator().next());
+        Assert.assertSame(group.getId(), cache.getSharedId(new String("group_1")));
+        Assert.assertEquals("unknown", cache.getSharedId("unknown"));
+    }
+
+    @Test
+    public void keysShared()
+    {
+        final String key = new String("name");
+        Assert.assertSame(key, cache.getSharedKey(key));
+        // a copy of the key like the one read from a file or the database
+        Assert.assertSame(key, cache.getSharedKey(new String("name")));
+        cache.clearAll();
+        Assert.assertNotSame(key, cache.getSharedKey(new String("name")));
+    }
+}
@@ -0,0 +1,103 @@
+package org.rapla.storage.tests;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Category;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Permission;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.PermissionController;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+
+@RunWith(JUnit4.class)
+public class PermissionCacheTest
+{
+    private RaplaFacade facade;
+    private Category testGroup;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "/testdefault.xml");
+        Category groups = facade.edit(facade.getUserGroupsCategory());
+        Category group = facade.newCategory();
+        group.setKey("test-group");
+        groups.addCategory(group);
+        facade.store(groups);
+        testGroup = facade.getUserGroupsCategory().getCategory("test-group");
+    }
+
+    private User createUser(String username) throws Exception
+    {
+        User user = facade.newUser();
+        user.setUsername(username);
+        user.addGroup(testGroup);
+        facade.store(user);
+        return facade.resolve(user.getReference());
+    }
+
+    private Allocatable createResourceForGroup(Permission.AccessLevel accessLevel) throws Exception
+    {
+        final User owner = facade.getUser("homer");
+        Allocatable allocatable = facade.newAllocatable(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification(), owner);
+        for (Permission defaultPermission : new ArrayList<>(allocatable.getPermissionList()))
+        {
+            allocatable.removePermission(defaultPermission);
+        }
+        Permission permission = allocatable.newPermission();
+        permission.setGroup(testGroup);
+        permission.setAccessLevel(accessLevel);
+        allocatable.addPermission(permission);
+        facade.store(allocatable);
+        return facade.resolve(allocatable.getReference());
+    }
+
+    @Test
+    public void sharedBetweenUsersWithSameGroups() throws Exception
+    {
+        final PermissionController permissionController = facade.getPermissionController();
+        final User user1 = createUser("test1");
+        final User user2 = createUser("test2");
+        final Allocatable allocatable = createResourceForGroup(Permission.READ);
+        Assert.assertTrue(permissionController.canRead(allocatable, user1));
+        Assert.assertTrue(permissionController.canRead(allocatable, user2));
+        Assert.assertFalse(permissionController.canModify(allocatable, user1));
+        Assert.assertFalse(permissionController.canModify(allocatable, user2));
+
+        // a permission for the user itself is not shared with the group
+        final Allocatable editable = facade.edit(allocatable);
+        final Permission userPermission = editable.newPermission();
+        userPermission.setUser(user1);
+        userPermission.setAccessLevel(Permission.ADMIN);
+        editable.addPermission(userPermission);
+        facade.store(editable);
+        final Allocatable newVersion = facade.resolve(allocatable.getReference());
+        Assert.assertTrue(permissionController.canModify(newVersion, user1));
+        Assert.assertFalse(permissionController.canModify(newVersion, user2));
+    }
+
+    @Test
+    public void groupChange() throws Exception
+    {
+        final PermissionController permissionController = facade.getPermissionController();
+        final User user = createUser("test1");
+        final Allocatable allocatable = createResourceForGroup(Permission.READ);
+        Assert.assertTrue(permissionController.canRead(allocatable, user));
+        Assert.assertTrue(permissionController.canRead(allocatable, user));
+
+        final User editUser = facade.edit(user);
+        editUser.removeGroup(testGroup);
+        facade.store(editUser);
+        final User userWithoutGroup = facade.resolve(user.getReference());
+        Assert.assertFalse(permissionController.canRead(allocatable, userWithoutGroup));
+    }
+}
@@ -90,6 +90,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 public abstract class RaplaTestCase
 {
@@ -412,6 +413,12 @@ public abstract class RaplaTestCase
     }
 
     public static Provider<ClientFacade> createFacadeWithRemote(final Logger logger, int port) throws RaplaException
+    {
+        return createFacadeWithRemote(logger, port, remoteStorage -> remoteStorage);
+    }
+
+    /** @param storageDecorator wraps the remote storage of each client, e.g. to record the calls to the server */
+    public static Provider<ClientFacade> createFacadeWithRemote(final Logger logger, int port, UnaryOperator<RemoteStorage> storageDecorator) throws RaplaException
     {
         final String serverURL = "http://localhost:" + port + "/rapla";
 
@@ -449,7 +456,7 @@ public abstract class RaplaTestCase
                 MyCustomConnector customConnector = new MyCustomConnector(connectionInfo, () ->i18n, authenticationProvider,scheduler, logger);
                 RemoteAuthentificationService remoteAuthentificationService = getRemotService(RemoteAuthentificationService.class,customConnector);
                 serviceAtomicReference.set( remoteAuthentificationService);
-                RemoteStorage remoteStorage = getRemotService( RemoteStorage.class, customConnector);
+                RemoteStorage remoteStorage = storageDecorator.apply(getRemotService( RemoteStorage.class, customConnector));
                 final DefaultRaplaLock lockManager = new DefaultRaplaLock(logger);
                 final LinkedHashSet<PermissionExtension> permissionExtensionsList = DefaultPermissionControllerSupport.getPermissionExtensions();
                 RemoteOperator remoteOperator = new RemoteOperator(logger, i18n, raplaLocale, scheduler, functionFactoryMap, remoteAuthentificationService,